@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.util.Charsetfunctions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the UTF-8 decoding and validation of text payloads by {@link Charsetfunctions}, for
+ * pure ASCII text and for text with two, three and four byte sequences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CharsetBenchmark {
+
+  private static final String[] MULTIBYTE = {"a", "b", "c", "\u00e4", "\u00df", "\u20ac",
+      "\u6f22", "\ud83d\ude00"};
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  @Param({"ascii", "multibyte"})
+  public String text;
+
+  private ByteBuffer payload;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    StringBuilder builder = new StringBuilder(size);
+    int length = 0;
+    while (true) {
+      String next = "ascii".equals(text) ? String.valueOf((char) ('a' + random.nextInt(26)))
+          : MULTIBYTE[random.nextInt(MULTIBYTE.length)];
+      int bytes = next.getBytes(StandardCharsets.UTF_8).length;
+      if (length + bytes > size) {
+        break;
+      }
+      builder.append(next);
+      length += bytes;
+    }
+    while (length++ < size) {
+      builder.append(' ');
+    }
+    payload = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public String stringUtf8() throws InvalidDataException {
+    return Charsetfunctions.stringUtf8(payload.duplicate());
+  }
+
+  @Benchmark
+  public boolean isValidUTF8() {
+    return Charsetfunctions.isValidUTF8(payload.duplicate());
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.benchmark;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Role;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.FrameSink;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the frame codec of {@link Draft_6455}: the encoding of a binary frame as client
+ * (masked) and as server (unmasked), the decoding of complete frames and of frames which arrive in
+ * chunks of the read buffer size, and the reassembly of a fragmented message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+  /**
+   * The size of the chunks the decoder receives, the default read buffer size of the server
+   */
+  private static final int CHUNK_SIZE = 16384;
+
+  /**
+   * The number of fragments a message is split into for the reassembly
+   */
+  private static final int FRAGMENTS = 16;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private ByteBuffer payload;
+
+  private Draft_6455 clientDraft;
+  private Draft_6455 serverDraft;
+
+  private ByteBuffer maskedFrame;
+  private ByteBuffer unmaskedFrame;
+
+  private FrameSink sink;
+
+  private WebSocketImpl connection;
+  private List<DataFrame> fragments;
+
+  @Setup
+  public void setup(final Blackhole blackhole) throws InvalidDataException {
+    sink = new FrameSink() {
+      @Override
+      public void onFrame(Framedata frame) {
+        blackhole.consume(frame);
+      }
+    };
+
+    byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+    payload = ByteBuffer.wrap(data);
+
+    clientDraft = new Draft_6455();
+    clientDraft.setParseMode(Role.CLIENT);
+    serverDraft = new Draft_6455();
+    serverDraft.setParseMode(Role.SERVER);
+
+    maskedFrame = clientDraft.createBinaryFrame(binaryFrame());
+    unmaskedFrame = serverDraft.createBinaryFrame(binaryFrame());
+
+    connection = new WebSocketImpl(new DiscardingListener(), new Draft_6455());
+    fragments = new ArrayList<>();
+    int fragmentSize = Math.max(1, size / FRAGMENTS);
+    for (int offset = 0; offset < size; offset += fragmentSize) {
+      DataFrame fragment = offset == 0 ? new BinaryFrame() : new ContinuousFrame();
+      ByteBuffer slice = payload.duplicate();
+      slice.position(offset);
+      slice.limit(Math.min(size, offset + fragmentSize));
+      fragment.setPayload(slice.slice());
+      fragment.setFin(slice.limit() == size);
+      fragments.add(fragment);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encodeMasked() {
+    return clientDraft.createBinaryFrame(binaryFrame());
+  }
+
+  @Benchmark
+  public ByteBuffer encodeUnmasked() {
+    return serverDraft.createBinaryFrame(binaryFrame());
+  }
+
+  @Benchmark
+  public void decodeMasked() throws InvalidDataException {
+    serverDraft.translateFrame(maskedFrame.duplicate(), sink);
+  }
+
+  @Benchmark
+  public void decodeUnmasked() throws InvalidDataException {
+    clientDraft.translateFrame(unmaskedFrame.duplicate(), sink);
+  }
+
+  @Benchmark
+  public void decodeMaskedChunked() throws InvalidDataException {
+    ByteBuffer frame = maskedFrame.duplicate();
+    while (frame.hasRemaining()) {
+      ByteBuffer chunk = frame.duplicate();
+      chunk.limit(Math.min(frame.limit(), frame.position() + CHUNK_SIZE));
+      frame.position(chunk.limit());
+      serverDraft.translateFrame(chunk, sink);
+    }
+  }
+
+  @Benchmark
+  public void reassemble() throws InvalidDataException {
+    Draft draft = connection.getDraft();
+    for (DataFrame fragment : fragments) {
+      fragment.getPayloadData().rewind();
+      draft.processFrame(connection, fragment);
+    }
+  }
+
+  private BinaryFrame binaryFrame() {
+    BinaryFrame frame = new BinaryFrame();
+    frame.setPayload(payload.duplicate());
+    return frame;
+  }
+
+  /**
+   * Receives the reassembled messages without looking at them
+   */
+  private static class DiscardingListener extends WebSocketServer {
+
+    DiscardingListener() {
+      super(new InetSocketAddress(0));
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+    }
+  }
+}
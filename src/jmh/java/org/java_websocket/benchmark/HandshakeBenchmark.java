@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.HandshakeState;
+import org.java_websocket.enums.Role;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ClientHandshakeBuilder;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.HandshakeImpl1Server;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of the opening handshake: the request of a browser-like client on the
+ * server, including the negotiation of permessage-deflate, and the response on the client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandshakeBenchmark {
+
+  private Draft_6455 clientDraft;
+  private Draft_6455 serverDraft;
+
+  private ClientHandshake request;
+  private ByteBuffer requestBytes;
+  private ByteBuffer responseBytes;
+
+  @Setup
+  public void setup() throws InvalidHandshakeException {
+    clientDraft = new Draft_6455(new PerMessageDeflateExtension());
+    clientDraft.setParseMode(Role.CLIENT);
+    serverDraft = new Draft_6455(new PerMessageDeflateExtension());
+    serverDraft.setParseMode(Role.SERVER);
+
+    ClientHandshakeBuilder builder = new HandshakeImpl1Client();
+    builder.setResourceDescriptor("/chat?room=benchmark");
+    builder.put("Host", "example.com:8887");
+    builder.put("Origin", "https://example.com");
+    builder.put("User-Agent",
+        "Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0");
+    builder.put("Accept", "*/*");
+    builder.put("Accept-Language", "en-US,en;q=0.5");
+    builder.put("Accept-Encoding", "gzip, deflate, br");
+    builder.put("Pragma", "no-cache");
+    builder.put("Cache-Control", "no-cache");
+    request = clientDraft.postProcessHandshakeRequestAsClient(builder);
+    requestBytes = clientDraft.createHandshake(request).get(0);
+
+    ClientHandshake parsed = parseRequest();
+    serverDraft.acceptHandshakeAsServer(parsed);
+    responseBytes = serverDraft.createHandshake(
+        serverDraft.postProcessHandshakeResponseAsServer(parsed, new HandshakeImpl1Server()))
+        .get(0);
+  }
+
+  @Benchmark
+  public ClientHandshake parseRequest() throws InvalidHandshakeException {
+    return (ClientHandshake) serverDraft.translateHandshake(requestBytes.duplicate());
+  }
+
+  @Benchmark
+  public HandshakeState acceptRequest() throws InvalidHandshakeException {
+    Draft draft = serverDraft.copyInstance();
+    draft.setParseMode(Role.SERVER);
+    return draft.acceptHandshakeAsServer(
+        (ClientHandshake) draft.translateHandshake(requestBytes.duplicate()));
+  }
+
+  @Benchmark
+  public ServerHandshake parseResponse() throws InvalidHandshakeException {
+    return (ServerHandshake) clientDraft.translateHandshake(responseBytes.duplicate());
+  }
+
+  @Benchmark
+  public HandshakeState acceptResponse() throws InvalidHandshakeException {
+    Draft draft = clientDraft.copyInstance();
+    draft.setParseMode(Role.CLIENT);
+    return draft.acceptHandshakeAsClient(request,
+        (ServerHandshake) draft.translateHandshake(responseBytes.duplicate()));
+  }
+}
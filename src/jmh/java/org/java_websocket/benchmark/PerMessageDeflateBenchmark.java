@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the compression and decompression of complete messages by the
+ * {@link PerMessageDeflateExtension}.
+ * <p>
+ * The payload is text built from a small vocabulary, which compresses roughly like typical JSON
+ * messages. Both sides use no context takeover, so every invocation works on an independent
+ * message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PerMessageDeflateBenchmark {
+
+  private static final String[] WORDS = {"{\"id\":", "\"name\":", "\"value\":", "\"items\":[",
+      "],", "true,", "false,", "null,", "\"websocket\"", "\"message\",", "12345,", "0.5,", "}"};
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private byte[] payload;
+  private byte[] compressed;
+
+  private PerMessageDeflateExtension encoder;
+  private PerMessageDeflateExtension decoder;
+
+  @Setup
+  public void setup() {
+    payload = new byte[size];
+    Random random = new Random(42);
+    int position = 0;
+    while (position < size) {
+      byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes();
+      int length = Math.min(word.length, size - position);
+      System.arraycopy(word, 0, payload, position, length);
+      position += length;
+    }
+    encoder = new PerMessageDeflateExtension();
+    encoder.setThreshold(0);
+    encoder.setServerNoContextTakeover(true);
+    decoder = new PerMessageDeflateExtension();
+    decoder.setClientNoContextTakeover(true);
+
+    Framedata frame = encode();
+    ByteBuffer data = frame.getPayloadData();
+    // decodeFrame inflates the whole backing array of the payload
+    compressed = Arrays.copyOfRange(data.array(), data.arrayOffset() + data.position(),
+        data.arrayOffset() + data.limit());
+  }
+
+  @Benchmark
+  public Framedata encode() {
+    TextFrame frame = new TextFrame();
+    frame.setPayload(ByteBuffer.wrap(payload));
+    encoder.encodeFrame(frame);
+    return frame;
+  }
+
+  @Benchmark
+  public Framedata decode() throws InvalidDataException {
+    TextFrame frame = new TextFrame();
+    frame.setPayload(ByteBuffer.wrap(compressed));
+    frame.setRSV1(true);
+    decoder.decodeFrame(frame);
+    return frame;
+  }
+}
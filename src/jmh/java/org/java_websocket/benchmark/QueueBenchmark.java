@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Compares the queues used for the inQueue, the outQueue and the worker queue under the access
+ * pattern of the server: several producers (user threads sending, selector threads reading) and a
+ * single consumer (the selector thread writing, the worker decoding).
+ * <p>
+ * The producers stop at a fixed backlog, so every invocation is a real transfer and the queues do
+ * not grow without bounds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class QueueBenchmark {
+
+  private static final int MAX_BACKLOG = 1024;
+
+  @Param({"LinkedBlockingQueue", "LinkedTransferQueue"})
+  public String implementation;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(16);
+
+  private final AtomicInteger backlog = new AtomicInteger();
+
+  private BlockingQueue<ByteBuffer> queue;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    if ("LinkedBlockingQueue".equals(implementation)) {
+      queue = new LinkedBlockingQueue<>();
+    } else {
+      queue = new LinkedTransferQueue<>();
+    }
+    backlog.set(0);
+  }
+
+  @Benchmark
+  @Group("mpsc")
+  @GroupThreads(3)
+  public boolean offer(Control control) {
+    while (backlog.get() >= MAX_BACKLOG) {
+      if (control.stopMeasurement) {
+        return false;
+      }
+    }
+    backlog.incrementAndGet();
+    return queue.offer(buffer);
+  }
+
+  @Benchmark
+  @Group("mpsc")
+  @GroupThreads(1)
+  public ByteBuffer poll(Control control) {
+    ByteBuffer polled;
+    while ((polled = queue.poll()) == null) {
+      if (control.stopMeasurement) {
+        return null;
+      }
+    }
+    backlog.decrementAndGet();
+    return polled;
+  }
+}
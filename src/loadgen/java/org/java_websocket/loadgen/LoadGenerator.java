@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.ClientEventLoop;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.java_websocket.util.NamedThreadFactory;
+
+/**
+ * A headless load generator for WebSocket echo servers.
+ * <p>
+ * It opens the configured number of connections at a fixed ramp rate and lets every connection
+ * send messages at a fixed rate. Each message starts with its send time, so the latency is
+ * measured as the round trip until the echo of the message arrives. At the end the connection
+ * success rate, the throughput and the latency percentiles are printed. Without an uri a local
+ * echo server is started, so no external service is required:
+ * <pre>
+ * mvn -Ploadgen test-compile exec:exec -Dloadgen.args="--connections 1000 --rate 20 --size 512"
+ * </pre>
+ *
+ * @see LoadOptions#USAGE
+ */
+public class LoadGenerator {
+
+  private final LoadOptions options;
+
+  /**
+   * The origin of the timestamps which are embedded into the messages
+   */
+  private final long epoch = System.nanoTime();
+
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final LatencyHistogram intervalLatencies = new LatencyHistogram();
+
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong closedEarly = new AtomicLong();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong receivedBytes = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+  private final List<LoadClient> clients = new ArrayList<>();
+
+  private final String textPadding;
+  private final byte[] binaryPadding;
+
+  private ScheduledExecutorService senders;
+  private ClientEventLoop eventLoop;
+  private WebSocketServer server;
+
+  private volatile boolean recording = false;
+  private volatile boolean stopping = false;
+
+  LoadGenerator(LoadOptions options) {
+    this.options = options;
+    char[] padding = new char[options.size - 16];
+    for (int i = 0; i < padding.length; i++) {
+      padding[i] = (char) ('a' + i % 26);
+    }
+    textPadding = new String(padding);
+    binaryPadding = new byte[options.size - 8];
+    for (int i = 0; i < binaryPadding.length; i++) {
+      binaryPadding[i] = (byte) i;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (Arrays.asList(args).contains("--help") || Arrays.asList(args).contains("-h")) {
+      System.out.print(LoadOptions.USAGE);
+      return;
+    }
+    LoadOptions options;
+    try {
+      options = LoadOptions.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(LoadOptions.USAGE);
+      System.exit(2);
+      return;
+    }
+    System.exit(new LoadGenerator(options).run() ? 0 : 1);
+  }
+
+  /**
+   * Execute the load test and print the results
+   *
+   * @return whether the connection success rate reached the required minimum
+   * @throws Exception if the local server could not be started or the run was interrupted
+   */
+  boolean run() throws Exception {
+    URI uri = options.local ? startLocalServer() : options.uri;
+    if (options.selectors > 0) {
+      eventLoop = new ClientEventLoop(options.selectors);
+    }
+    senders = Executors
+        .newScheduledThreadPool(options.senders, new NamedThreadFactory("LoadSender", true));
+    ScheduledExecutorService reporter = Executors
+        .newSingleThreadScheduledExecutor(new NamedThreadFactory("LoadReporter", true));
+    try {
+      System.out.printf(Locale.ROOT,
+          "Connecting %d clients to %s at %s/s, %s messages of %d bytes at %d/s per connection%n",
+          options.connections, uri, options.ramp == 0 ? "unlimited" : options.ramp,
+          options.mode.name().toLowerCase(Locale.ROOT) + (options.deflate ? " deflated" : ""),
+          options.size, options.rate);
+      final long start = System.nanoTime();
+      if (options.reportInterval > 0) {
+        reporter.scheduleAtFixedRate(new Reporter(start), options.reportInterval,
+            options.reportInterval, TimeUnit.SECONDS);
+      }
+      rampUp(uri);
+      System.out.printf(Locale.ROOT, "Ramp finished after %.1f s%n",
+          (System.nanoTime() - start) / 1e9);
+      TimeUnit.SECONDS.sleep(options.warmup);
+
+      recording = true;
+      long sentBefore = sent.get();
+      long receivedBefore = received.get();
+      long bytesBefore = receivedBytes.get();
+      long measureStart = System.nanoTime();
+      TimeUnit.SECONDS.sleep(options.duration);
+      double seconds = Math.max(1, System.nanoTime() - measureStart) / 1e9;
+      long sentCount = sent.get() - sentBefore;
+      long receivedCount = received.get() - receivedBefore;
+      long bytes = receivedBytes.get() - bytesBefore;
+
+      stopping = true;
+      senders.shutdownNow();
+      awaitEchoes();
+      reporter.shutdownNow();
+      return printSummary(sentCount / seconds, receivedCount / seconds, bytes / seconds);
+    } finally {
+      stopping = true;
+      senders.shutdownNow();
+      reporter.shutdownNow();
+      closeClients();
+      if (eventLoop != null) {
+        eventLoop.close();
+      }
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  /**
+   * Open the connections at the ramp rate and wait until every connect succeeded or failed
+   */
+  private void rampUp(URI uri) throws InterruptedException {
+    long start = System.nanoTime();
+    for (int i = 0; i < options.connections; i++) {
+      if (options.ramp > 0) {
+        long due = start + i * 1000000000L / options.ramp;
+        TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+      }
+      LoadClient client = new LoadClient(uri, createDraft());
+      if (eventLoop != null) {
+        client.setEventLoop(eventLoop);
+      }
+      clients.add(client);
+      client.connect();
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.connectTimeout)
+        + TimeUnit.SECONDS.toNanos(5);
+    while (opened.get() + failed.get() < options.connections && System.nanoTime() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
+  /**
+   * Wait a moment for the echoes of the messages which are still in flight
+   */
+  private void awaitEchoes() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (received.get() < sent.get() && System.nanoTime() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
+  private void closeClients() throws InterruptedException {
+    for (LoadClient client : clients) {
+      client.close();
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    for (LoadClient client : clients) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || !client.closed.await(remaining, TimeUnit.NANOSECONDS)) {
+        break;
+      }
+    }
+  }
+
+  private boolean printSummary(double sentRate, double receivedRate, double byteRate) {
+    double successRate = 100.0 * opened.get() / options.connections;
+    System.out.printf(Locale.ROOT,
+        "Connections: %d attempted, %d opened (%.2f%%), %d failed, %d closed early%n",
+        options.connections, opened.get(), successRate, failed.get(), closedEarly.get());
+    System.out.printf(Locale.ROOT,
+        "Messages:    %d sent, %d received, %d skipped while not writable%n", sent.get(),
+        received.get(), skipped.get());
+    System.out.printf(Locale.ROOT,
+        "Throughput:  %.1f msg/s sent, %.1f msg/s received, %.2f MB/s received%n", sentRate,
+        receivedRate, byteRate / (1024 * 1024));
+    System.out.printf(Locale.ROOT,
+        "Latency:     p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms (%d samples)%n",
+        millis(latencies.getPercentile(50)), millis(latencies.getPercentile(99)),
+        millis(latencies.getPercentile(99.9)), millis(latencies.getMax(TimeUnit.NANOSECONDS)),
+        latencies.getCount());
+    for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+      System.out.printf(Locale.ROOT, "Error:       %dx %s%n", error.getValue().get(),
+          error.getKey());
+    }
+    if (successRate < options.minSuccessRate) {
+      System.out.printf(Locale.ROOT, "Success rate below %.2f%%%n", options.minSuccessRate);
+      return false;
+    }
+    return true;
+  }
+
+  private Draft createDraft() {
+    return options.deflate ? new Draft_6455(new PerMessageDeflateExtension()) : new Draft_6455();
+  }
+
+  private URI startLocalServer() throws IOException, InterruptedException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    CountDownLatch started = new CountDownLatch(1);
+    server = new EchoServer(new InetSocketAddress("localhost", port),
+        Collections.singletonList(createDraft()), started);
+    server.setReuseAddr(true);
+    server.start();
+    started.await();
+    return URI.create("ws://localhost:" + port);
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private void recordError(Exception ex) {
+    String key = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+    AtomicLong count = errors.get(key);
+    if (count == null) {
+      AtomicLong existing = errors.putIfAbsent(key, count = new AtomicLong());
+      if (existing != null) {
+        count = existing;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  private void recordLatency(long timestamp) {
+    if (recording) {
+      long latency = System.nanoTime() - epoch - timestamp;
+      latencies.record(latency);
+      intervalLatencies.record(latency);
+    }
+  }
+
+  /**
+   * A connection which sends timestamped messages at the configured rate
+   */
+  private class LoadClient extends WebSocketClient {
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile boolean wasOpen = false;
+    private volatile ScheduledFuture<?> sendTask;
+    private final Runnable sender = new Runnable() {
+      @Override
+      public void run() {
+        sendMessage();
+      }
+    };
+
+    LoadClient(URI uri, Draft draft) {
+      super(uri, draft, null, options.connectTimeout);
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+      wasOpen = true;
+      opened.incrementAndGet();
+      if (options.rate > 0 && !stopping) {
+        long period = 1000000000L / options.rate;
+        try {
+          sendTask = senders.scheduleAtFixedRate(sender,
+              ThreadLocalRandom.current().nextLong(period), period, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+          // the senders are shut down already
+        }
+      }
+    }
+
+    private void sendMessage() {
+      if (!isOpen()) {
+        return;
+      }
+      if (!isWritable()) {
+        skipped.incrementAndGet();
+        return;
+      }
+      long timestamp = System.nanoTime() - epoch;
+      try {
+        switch (options.mode) {
+          case TEXT:
+            send(textMessage(timestamp));
+            break;
+          case BINARY:
+            send(binaryMessage(timestamp));
+            break;
+          default:
+            sendFragmented(binaryMessage(timestamp));
+            break;
+        }
+        sent.incrementAndGet();
+      } catch (WebsocketNotConnectedException e) {
+        // closed in the meantime
+      }
+    }
+
+    private String textMessage(long timestamp) {
+      String hex = Long.toHexString(timestamp);
+      return new StringBuilder(options.size).append("0000000000000000", hex.length(), 16)
+          .append(hex).append(textPadding).toString();
+    }
+
+    private ByteBuffer binaryMessage(long timestamp) {
+      ByteBuffer buffer = ByteBuffer.allocate(options.size);
+      buffer.putLong(timestamp).put(binaryPadding);
+      buffer.flip();
+      return buffer;
+    }
+
+    private void sendFragmented(ByteBuffer message) {
+      int fragmentSize = options.fragmentSize;
+      while (message.hasRemaining()) {
+        ByteBuffer fragment = message.duplicate();
+        int length = Math.min(fragmentSize, message.remaining());
+        fragment.limit(fragment.position() + length);
+        message.position(message.position() + length);
+        sendFragmentedFrame(Opcode.BINARY, fragment, !message.hasRemaining());
+      }
+    }
+
+    @Override
+    public void onMessage(String message) {
+      received.incrementAndGet();
+      receivedBytes.addAndGet(message.length());
+      recordLatency(Long.parseLong(message.substring(0, 16), 16));
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+      received.incrementAndGet();
+      receivedBytes.addAndGet(bytes.remaining());
+      recordLatency(bytes.getLong(bytes.position()));
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+      ScheduledFuture<?> task = sendTask;
+      if (task != null) {
+        task.cancel(false);
+      }
+      if (!wasOpen) {
+        failed.incrementAndGet();
+      } else if (!stopping) {
+        closedEarly.incrementAndGet();
+      }
+      closed.countDown();
+    }
+
+    @Override
+    public void onError(Exception ex) {
+      recordError(ex);
+    }
+  }
+
+  /**
+   * Prints the progress of the run
+   */
+  private class Reporter implements Runnable {
+
+    private final long start;
+    private long lastTime;
+    private long lastSent;
+    private long lastReceived;
+
+    Reporter(long start) {
+      this.start = start;
+      this.lastTime = start;
+    }
+
+    @Override
+    public void run() {
+      long now = System.nanoTime();
+      long sentCount = sent.get();
+      long receivedCount = received.get();
+      double seconds = Math.max(1, now - lastTime) / 1e9;
+      System.out.printf(Locale.ROOT,
+          "%7.1f s  open %d/%d  failed %d  sent %.0f/s  received %.0f/s"
+              + "  p50 %.3f ms  p99 %.3f ms  p999 %.3f ms%n",
+          (now - start) / 1e9, opened.get() - closedEarly.get(), options.connections,
+          failed.get(), (sentCount - lastSent) / seconds, (receivedCount - lastReceived) / seconds,
+          millis(intervalLatencies.getPercentile(50)), millis(intervalLatencies.getPercentile(99)),
+          millis(intervalLatencies.getPercentile(99.9)));
+      intervalLatencies.reset();
+      lastTime = now;
+      lastSent = sentCount;
+      lastReceived = receivedCount;
+    }
+  }
+
+  /**
+   * The server which is started without an uri, it sends every message back
+   */
+  private static class EchoServer extends WebSocketServer {
+
+    private final CountDownLatch started;
+
+    EchoServer(InetSocketAddress address, List<Draft> drafts, CountDownLatch started) {
+      super(address, drafts);
+      this.started = started;
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      // nothing to do
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      // nothing to do
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+      conn.send(message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+      conn.send(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+      // the client reports the errors
+    }
+
+    @Override
+    public void onStart() {
+      started.countDown();
+    }
+  }
+}
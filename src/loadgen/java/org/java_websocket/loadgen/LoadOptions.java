@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.loadgen;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * The command line options of the {@link LoadGenerator}
+ */
+class LoadOptions {
+
+  /**
+   * The kind of messages the connections send
+   */
+  enum MessageMode {
+    TEXT, BINARY, FRAGMENTED
+  }
+
+  static final String USAGE = "Usage: LoadGenerator [options]\n"
+      + "  --uri <ws://host:port/path>  server to connect to, an echo server is required\n"
+      + "  --local                      start a local echo server (default without --uri)\n"
+      + "  --connections <n>            number of connections (default 100)\n"
+      + "  --ramp <n>                   connections opened per second, 0 for all at once"
+      + " (default 100)\n"
+      + "  --rate <n>                   messages per second and connection, 0 to only connect"
+      + " (default 10)\n"
+      + "  --size <bytes>               payload size, at least 16 (default 128)\n"
+      + "  --mode <text|binary|fragmented>  message type (default text)\n"
+      + "  --fragment-size <bytes>      fragment size in fragmented mode (default 1024)\n"
+      + "  --deflate                    negotiate permessage-deflate\n"
+      + "  --duration <seconds>         length of the measurement after the ramp and the\n"
+      + "                               warmup (default 30)\n"
+      + "  --warmup <seconds>           time after the ramp whose latencies are ignored"
+      + " (default 0)\n"
+      + "  --selectors <n>              drive the clients by an event loop with n selectors,"
+      + " 0 for two threads per connection (default 0)\n"
+      + "  --senders <n>                threads which send the messages (default 2)\n"
+      + "  --connect-timeout <ms>       timeout of a single connect (default 10000)\n"
+      + "  --report-interval <seconds>  interval of the progress report, 0 to disable"
+      + " (default 5)\n"
+      + "  --min-success-rate <percent> exit with 1 if fewer connections were opened"
+      + " (default 0)\n";
+
+  URI uri;
+  boolean local;
+  int connections = 100;
+  int ramp = 100;
+  int rate = 10;
+  int size = 128;
+  MessageMode mode = MessageMode.TEXT;
+  int fragmentSize = 1024;
+  boolean deflate;
+  int duration = 30;
+  int warmup = 0;
+  int selectors = 0;
+  int senders = 2;
+  int connectTimeout = 10000;
+  int reportInterval = 5;
+  double minSuccessRate = 0;
+
+  /**
+   * @param args the command line arguments
+   * @return the parsed options
+   * @throws IllegalArgumentException if an argument is unknown or invalid
+   */
+  static LoadOptions parse(String[] args) {
+    LoadOptions options = new LoadOptions();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("--local".equals(arg)) {
+        options.local = true;
+        continue;
+      }
+      if ("--deflate".equals(arg)) {
+        options.deflate = true;
+        continue;
+      }
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value of " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "--uri":
+          try {
+            options.uri = new URI(value);
+          } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid uri " + value, e);
+          }
+          break;
+        case "--connections":
+          options.connections = parseInt(arg, value, 1);
+          break;
+        case "--ramp":
+          options.ramp = parseInt(arg, value, 0);
+          break;
+        case "--rate":
+          options.rate = parseInt(arg, value, 0);
+          break;
+        case "--size":
+          options.size = parseInt(arg, value, 16);
+          break;
+        case "--mode":
+          try {
+            options.mode = MessageMode.valueOf(value.toUpperCase(Locale.ROOT));
+          } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid mode " + value, e);
+          }
+          break;
+        case "--fragment-size":
+          options.fragmentSize = parseInt(arg, value, 16);
+          break;
+        case "--duration":
+          options.duration = parseInt(arg, value, 0);
+          break;
+        case "--warmup":
+          options.warmup = parseInt(arg, value, 0);
+          break;
+        case "--selectors":
+          options.selectors = parseInt(arg, value, 0);
+          break;
+        case "--senders":
+          options.senders = parseInt(arg, value, 1);
+          break;
+        case "--connect-timeout":
+          options.connectTimeout = parseInt(arg, value, 0);
+          break;
+        case "--report-interval":
+          options.reportInterval = parseInt(arg, value, 0);
+          break;
+        case "--min-success-rate":
+          try {
+            options.minSuccessRate = Double.parseDouble(value);
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + arg + ": " + value, e);
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+    if (options.uri == null) {
+      options.local = true;
+    } else if (options.local) {
+      throw new IllegalArgumentException("--uri and --local exclude each other");
+    }
+    return options;
+  }
+
+  private static int parseInt(String name, String value, int min) {
+    int result;
+    try {
+      result = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid value of " + name + ": " + value, e);
+    }
+    if (result < min) {
+      throw new IllegalArgumentException(name + " must be at least " + min);
+    }
+    return result;
+  }
+}
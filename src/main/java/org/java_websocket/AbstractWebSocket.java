@@ -27,11 +27,12 @@ package org.java_websocket;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import org.java_websocket.enums.ReadyState;
 import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.util.HashedWheelTimer;
+import org.java_websocket.util.HashedWheelTimer.Timeout;
 import org.java_websocket.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,24 +65,48 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
   private boolean reuseAddr;
 
   /**
-   * Attribute for a service that triggers lost connection checking
-   *
-   * @since 1.4.1
+   * The duration of a tick of the shared timer
+   */
+  private static final long TIMER_TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * The number of ticks of one round of the shared timer
+   */
+  private static final int TIMER_TICKS_PER_WHEEL = 512;
+
+  private static final Object SHARED_TIMER_LOCK = new Object();
+
+  /**
+   * The timer shared by all running endpoints, guarded by SHARED_TIMER_LOCK
+   */
+  private static HashedWheelTimer sharedTimer;
+
+  /**
+   * The number of running endpoints which use the shared timer, guarded by SHARED_TIMER_LOCK
    */
-  private ScheduledExecutorService connectionLostCheckerService;
+  private static int sharedTimerUsers = 0;
+
   /**
-   * Attribute for a task that checks for lost connections
+   * The shared timer while this endpoint is running
    *
-   * @since 1.4.1
+   * @since 1.6.1
    */
-  private ScheduledFuture<?> connectionLostCheckerFuture;
+  private volatile HashedWheelTimer timer;
 
   /**
    * Attribute for the lost connection check interval in nanoseconds
    *
    * @since 1.3.4
    */
-  private long connectionLostTimeout = TimeUnit.SECONDS.toNanos(60);
+  private volatile long connectionLostTimeout = TimeUnit.SECONDS.toNanos(60);
+
+  /**
+   * Attribute for the time in nanoseconds without received data after which a connection is
+   * closed, 0 if disabled
+   *
+   * @since 1.6.1
+   */
+  private volatile long idleTimeout = 0;
 
   /**
    * Attribute to keep track if the WebSocket Server/Client is running/connected
@@ -109,6 +134,20 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
    */
   private int receiveBufferSize = 0;
 
+  /**
+   * The low water mark of the outgoing buffer applied to new connections
+   *
+   * @since 1.6.1
+   */
+  private int writeBufferLowWaterMark = WebSocketImpl.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+
+  /**
+   * The high water mark of the outgoing buffer applied to new connections
+   *
+   * @since 1.6.1
+   */
+  private int writeBufferHighWaterMark = WebSocketImpl.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+
   /**
    * Used for internal buffer allocations when the socket buffer size is not specified.
    */
@@ -129,6 +168,10 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
   /**
    * Setter for the interval checking for lost connections A value lower or equal 0 results in the
    * check to be deactivated
+   * <p>
+   * Every connection is checked on its own schedule. The first check of a connection happens after
+   * a random share of the interval, so the pings of many connections are spread evenly over the
+   * interval instead of being sent in one burst.
    *
    * @param connectionLostTimeout the interval in seconds
    * @since 1.3.4
@@ -138,11 +181,11 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
       this.connectionLostTimeout = TimeUnit.SECONDS.toNanos(connectionLostTimeout);
       if (this.connectionLostTimeout <= 0) {
         log.trace("Connection lost timer stopped");
-        cancelConnectionLostTimer();
-        return;
       }
       if (this.websocketRunning) {
-        log.trace("Connection lost timer restarted");
+        if (this.connectionLostTimeout > 0) {
+          log.trace("Connection lost timer restarted");
+        }
         //Reset all the pings
         try {
           ArrayList<WebSocket> connections = new ArrayList<>(getConnections());
@@ -151,12 +194,49 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
             if (conn instanceof WebSocketImpl) {
               webSocketImpl = (WebSocketImpl) conn;
               webSocketImpl.updateLastPong();
+              scheduleConnectionLostCheck(webSocketImpl);
             }
           }
         } catch (Exception e) {
           log.error("Exception during connection lost restart", e);
         }
-        restartConnectionLostTimer();
+      }
+    }
+  }
+
+  /**
+   * Get the time without received data after which a connection is closed
+   *
+   * @param unit the unit of the result
+   * @return the idle timeout, 0 if disabled
+   * @since 1.6.1
+   */
+  public long getIdleTimeout(TimeUnit unit) {
+    return unit.convert(idleTimeout, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Setter for the idle timeout.
+   * <p>
+   * A connection which received no data, including pongs, for the idle timeout is closed with
+   * {@link CloseFrame#GOING_AWAY}.
+   *
+   * @param timeout the idle timeout, 0 to disable it
+   * @param unit    the unit of <var>timeout</var>
+   * @since 1.6.1
+   */
+  public void setIdleTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative");
+    }
+    synchronized (syncConnectionLost) {
+      this.idleTimeout = unit.toNanos(timeout);
+      if (this.websocketRunning) {
+        for (WebSocket conn : new ArrayList<>(getConnections())) {
+          if (conn instanceof WebSocketImpl) {
+            scheduleIdleCheck((WebSocketImpl) conn);
+          }
+        }
       }
     }
   }
@@ -168,10 +248,14 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
    */
   protected void stopConnectionLostTimer() {
     synchronized (syncConnectionLost) {
-      if (connectionLostCheckerService != null || connectionLostCheckerFuture != null) {
+      if (this.websocketRunning) {
         this.websocketRunning = false;
         log.trace("Connection lost timer stopped");
-        cancelConnectionLostTimer();
+        for (WebSocket conn : new ArrayList<>(getConnections())) {
+          stopConnectionTimers(conn);
+        }
+        releaseSharedTimer();
+        timer = null;
       }
     }
   }
@@ -185,52 +269,176 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
     synchronized (syncConnectionLost) {
       if (this.connectionLostTimeout <= 0) {
         log.trace("Connection lost timer deactivated");
-        return;
+      } else {
+        log.trace("Connection lost timer started");
+      }
+      if (timer == null) {
+        timer = acquireSharedTimer();
       }
-      log.trace("Connection lost timer started");
       this.websocketRunning = true;
-      restartConnectionLostTimer();
+      for (WebSocket conn : new ArrayList<>(getConnections())) {
+        startConnectionTimers(conn);
+      }
     }
   }
 
   /**
-   * This methods allows the reset of the connection lost timer in case of a changed parameter
+   * Start the connection lost detection and the idle timeout of a connection which was opened
+   * while the endpoint is running
    *
-   * @since 1.3.4
+   * @param conn the connection
+   * @since 1.6.1
    */
-  private void restartConnectionLostTimer() {
-    cancelConnectionLostTimer();
-    connectionLostCheckerService = Executors
-        .newSingleThreadScheduledExecutor(new NamedThreadFactory("connectionLostChecker", daemon));
-    Runnable connectionLostChecker = new Runnable() {
+  protected void startConnectionTimers(WebSocket conn) {
+    if (!(conn instanceof WebSocketImpl)) {
+      return;
+    }
+    synchronized (syncConnectionLost) {
+      if (this.websocketRunning) {
+        scheduleConnectionLostCheck((WebSocketImpl) conn);
+        scheduleIdleCheck((WebSocketImpl) conn);
+      }
+    }
+  }
 
-      /**
-       * Keep the connections in a separate list to not cause deadlocks
-       */
-      private ArrayList<WebSocket> connections = new ArrayList<>();
+  /**
+   * Stop the connection lost detection and the idle timeout of a connection
+   *
+   * @param conn the connection
+   * @since 1.6.1
+   */
+  protected void stopConnectionTimers(WebSocket conn) {
+    if (!(conn instanceof WebSocketImpl)) {
+      return;
+    }
+    WebSocketImpl webSocketImpl = (WebSocketImpl) conn;
+    cancel(webSocketImpl.connectionLostCheck);
+    webSocketImpl.connectionLostCheck = null;
+    cancel(webSocketImpl.idleCheck);
+    webSocketImpl.idleCheck = null;
+    stopHandshakeTimer(conn);
+  }
 
-      @Override
-      public void run() {
-        connections.clear();
-        try {
-          connections.addAll(getConnections());
-          long minimumPongTime;
-          synchronized (syncConnectionLost) {
-            minimumPongTime = (long) (System.nanoTime() - (connectionLostTimeout * 1.5));
-          }
-          for (WebSocket conn : connections) {
-            executeConnectionLostDetection(conn, minimumPongTime);
-          }
-        } catch (Exception e) {
-          //Ignore this exception
-        }
-        connections.clear();
+  /**
+   * Close a new connection unless it completes its opening handshake in time. Nothing is scheduled
+   * while the endpoint is not running.
+   *
+   * @param conn    the new connection
+   * @param timeout the handshake timeout in nanoseconds
+   * @see #onHandshakeTimeout(WebSocket)
+   * @since 1.6.1
+   */
+  protected void startHandshakeTimer(WebSocket conn, long timeout) {
+    HashedWheelTimer wheelTimer = timer;
+    if (!(conn instanceof WebSocketImpl) || wheelTimer == null || timeout <= 0) {
+      return;
+    }
+    WebSocketImpl webSocketImpl = (WebSocketImpl) conn;
+    cancel(webSocketImpl.handshakeCheck);
+    HandshakeCheck check = new HandshakeCheck(webSocketImpl);
+    webSocketImpl.handshakeCheck = check;
+    check.schedule(wheelTimer, timeout);
+  }
+
+  /**
+   * Cancel the handshake deadline of a connection, once the handshake is complete or the
+   * connection is closed
+   *
+   * @param conn the connection
+   * @since 1.6.1
+   */
+  protected void stopHandshakeTimer(WebSocket conn) {
+    if (!(conn instanceof WebSocketImpl)) {
+      return;
+    }
+    WebSocketImpl webSocketImpl = (WebSocketImpl) conn;
+    cancel(webSocketImpl.handshakeCheck);
+    webSocketImpl.handshakeCheck = null;
+  }
+
+  /**
+   * Called by the timer thread when a connection did not complete its opening handshake in time.
+   * This default implementation closes the connection with {@link CloseFrame#NEVER_CONNECTED}.
+   *
+   * @param conn the connection
+   * @see #startHandshakeTimer(WebSocket, long)
+   * @since 1.6.1
+   */
+  protected void onHandshakeTimeout(WebSocket conn) {
+    ((WebSocketImpl) conn).closeConnection(CloseFrame.NEVER_CONNECTED, "handshake timed out");
+  }
+
+  /**
+   * Get the timer of this endpoint. It is shared with all other running endpoints, its tasks have
+   * to be short. Its thread is always a daemon thread, independent of {@link #setDaemon(boolean)}.
+   *
+   * @return the timer or null, if the endpoint is not running
+   * @since 1.6.1
+   */
+  protected HashedWheelTimer getTimer() {
+    return timer;
+  }
+
+  /**
+   * Replace the connection lost check of a connection, must be called with the lock held
+   *
+   * @param webSocketImpl the connection
+   */
+  private void scheduleConnectionLostCheck(WebSocketImpl webSocketImpl) {
+    cancel(webSocketImpl.connectionLostCheck);
+    webSocketImpl.connectionLostCheck = null;
+    long interval = connectionLostTimeout;
+    if (timer == null || interval <= 0) {
+      return;
+    }
+    ConnectionLostCheck check = new ConnectionLostCheck(webSocketImpl);
+    webSocketImpl.connectionLostCheck = check;
+    // a random first delay spreads the pings of all connections over the interval
+    check.schedule(timer, ThreadLocalRandom.current().nextLong(interval));
+  }
+
+  /**
+   * Replace the idle check of a connection, must be called with the lock held
+   *
+   * @param webSocketImpl the connection
+   */
+  private void scheduleIdleCheck(WebSocketImpl webSocketImpl) {
+    cancel(webSocketImpl.idleCheck);
+    webSocketImpl.idleCheck = null;
+    long timeout = idleTimeout;
+    if (timer == null || timeout <= 0) {
+      return;
+    }
+    IdleCheck check = new IdleCheck(webSocketImpl);
+    webSocketImpl.idleCheck = check;
+    check.schedule(timer, timeout);
+  }
+
+  private static void cancel(ConnectionTimer connectionTimer) {
+    if (connectionTimer != null) {
+      connectionTimer.cancel();
+    }
+  }
+
+  private HashedWheelTimer acquireSharedTimer() {
+    synchronized (SHARED_TIMER_LOCK) {
+      if (sharedTimer == null) {
+        sharedTimer = new HashedWheelTimer(new NamedThreadFactory("WebSocketTimer", true),
+            TIMER_TICK, TimeUnit.NANOSECONDS, TIMER_TICKS_PER_WHEEL);
+        sharedTimer.start();
       }
-    };
+      sharedTimerUsers++;
+      return sharedTimer;
+    }
+  }
 
-    connectionLostCheckerFuture = connectionLostCheckerService
-        .scheduleAtFixedRate(connectionLostChecker, connectionLostTimeout, connectionLostTimeout,
-            TimeUnit.NANOSECONDS);
+  private static void releaseSharedTimer() {
+    synchronized (SHARED_TIMER_LOCK) {
+      if (--sharedTimerUsers == 0) {
+        sharedTimer.stop();
+        sharedTimer = null;
+      }
+    }
   }
 
   /**
@@ -260,29 +468,120 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
   }
 
   /**
-   * Getter to get all the currently available connections
-   *
-   * @return the currently available connections
-   * @since 1.3.4
+   * A recurring timer task of one connection. A task which is no longer referenced by its
+   * connection was replaced or stopped and does nothing.
    */
-  protected abstract Collection<WebSocket> getConnections();
+  abstract class ConnectionTimer implements Runnable {
+
+    protected final WebSocketImpl webSocketImpl;
+
+    private volatile Timeout timeout;
+
+    ConnectionTimer(WebSocketImpl webSocketImpl) {
+      this.webSocketImpl = webSocketImpl;
+    }
+
+    void schedule(HashedWheelTimer wheelTimer, long delay) {
+      try {
+        timeout = wheelTimer.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+      } catch (IllegalStateException e) {
+        // the endpoint stopped meanwhile
+      }
+    }
+
+    void cancel() {
+      Timeout t = timeout;
+      if (t != null) {
+        t.cancel();
+      }
+    }
+  }
 
   /**
-   * Cancel any running timer for the connection lost detection
-   *
-   * @since 1.3.4
+   * Pings a connection once per connection lost timeout and closes it if the last pong is too old
+   */
+  final class ConnectionLostCheck extends ConnectionTimer {
+
+    ConnectionLostCheck(WebSocketImpl webSocketImpl) {
+      super(webSocketImpl);
+    }
+
+    @Override
+    public void run() {
+      HashedWheelTimer wheelTimer = timer;
+      long interval = connectionLostTimeout;
+      if (webSocketImpl.connectionLostCheck != this || wheelTimer == null || interval <= 0
+          || webSocketImpl.isClosed()) {
+        return;
+      }
+      try {
+        executeConnectionLostDetection(webSocketImpl,
+            (long) (System.nanoTime() - (interval * 1.5)));
+      } catch (Exception e) {
+        //Ignore this exception
+      }
+      if (!webSocketImpl.isClosed()) {
+        schedule(wheelTimer, interval);
+      }
+    }
+  }
+
+  /**
+   * Closes a connection which did not receive any data for the idle timeout
+   */
+  final class IdleCheck extends ConnectionTimer {
+
+    IdleCheck(WebSocketImpl webSocketImpl) {
+      super(webSocketImpl);
+    }
+
+    @Override
+    public void run() {
+      HashedWheelTimer wheelTimer = timer;
+      long timeout = idleTimeout;
+      if (webSocketImpl.idleCheck != this || wheelTimer == null || timeout <= 0
+          || webSocketImpl.isClosed()) {
+        return;
+      }
+      long idle = System.nanoTime() - webSocketImpl.getLastActivity();
+      if (idle >= timeout) {
+        log.trace("Closing connection due to idle timeout: {}", webSocketImpl);
+        webSocketImpl.close(CloseFrame.GOING_AWAY, "idle timeout");
+        return;
+      }
+      schedule(wheelTimer, timeout - idle);
+    }
+  }
+
+  /**
+   * Closes a connection which is not connected at the deadline of its opening handshake
    */
-  private void cancelConnectionLostTimer() {
-    if (connectionLostCheckerService != null) {
-      connectionLostCheckerService.shutdownNow();
-      connectionLostCheckerService = null;
+  final class HandshakeCheck extends ConnectionTimer {
+
+    HandshakeCheck(WebSocketImpl webSocketImpl) {
+      super(webSocketImpl);
     }
-    if (connectionLostCheckerFuture != null) {
-      connectionLostCheckerFuture.cancel(false);
-      connectionLostCheckerFuture = null;
+
+    @Override
+    public void run() {
+      if (webSocketImpl.handshakeCheck != this) {
+        return;
+      }
+      webSocketImpl.handshakeCheck = null;
+      if (webSocketImpl.getReadyState() == ReadyState.NOT_YET_CONNECTED) {
+        onHandshakeTimeout(webSocketImpl);
+      }
     }
   }
 
+  /**
+   * Getter to get all the currently available connections
+   *
+   * @return the currently available connections
+   * @since 1.3.4
+   */
+  protected abstract Collection<WebSocket> getConnections();
+
   /**
    * Tests if TCP_NODELAY is enabled.
    *
@@ -341,7 +640,10 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
   /**
    * Setter for daemon
    * <p>
-   * Controls whether or not internal threads are spawned in daemon mode
+   * Controls whether or not internal threads are spawned in daemon mode. This does not apply to
+   * the timer thread, which sends the pings and enforces the idle and handshake timeouts: it is
+   * shared by all running endpoints of the process and is always a daemon thread. Callbacks like
+   * onClose may therefore be invoked by a daemon thread.
    *
    * @since 1.5.6
    */
@@ -373,4 +675,46 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
     this.receiveBufferSize = receiveBufferSize;
   }
 
+  /**
+   * Returns the low water mark of the outgoing buffer used for new connections
+   *
+   * @return the low water mark in bytes
+   * @see #setWriteBufferWaterMark(int, int)
+   * @since 1.6.1
+   */
+  public int getWriteBufferLowWaterMark() {
+    return writeBufferLowWaterMark;
+  }
+
+  /**
+   * Returns the high water mark of the outgoing buffer used for new connections
+   *
+   * @return the high water mark in bytes
+   * @see #setWriteBufferWaterMark(int, int)
+   * @since 1.6.1
+   */
+  public int getWriteBufferHighWaterMark() {
+    return writeBufferHighWaterMark;
+  }
+
+  /**
+   * Sets the water marks of the outgoing buffer used for new connections.
+   * <p>
+   * A connection stops being writable once more than <var>high</var> bytes are buffered and becomes
+   * writable again when <var>low</var> bytes or less are left. Both transitions are reported by
+   * onWritabilityChanged.
+   *
+   * @param low  the low water mark in bytes
+   * @param high the high water mark in bytes, must not be lower than <var>low</var>
+   * @see WebSocketImpl#setWriteBufferWaterMark(int, int)
+   * @since 1.6.1
+   */
+  public void setWriteBufferWaterMark(int low, int high) {
+    if (low < 0 || high < low) {
+      throw new IllegalArgumentException("water marks must satisfy 0 <= low <= high");
+    }
+    this.writeBufferLowWaterMark = low;
+    this.writeBufferHighWaterMark = high;
+  }
+
 }
@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
@@ -63,7 +64,8 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Permission for usage received at May 25, 2017 by Alex Karnezis
  */
-public class SSLSocketChannel implements WrappedByteChannel, ByteChannel, ISSLChannel {
+public class SSLSocketChannel implements WrappedByteChannel, ByteChannel, GatheringByteChannel,
+    ISSLChannel {
 
   /**
    * Logger instance
@@ -235,6 +237,46 @@ public class SSLSocketChannel implements WrappedByteChannel, ByteChannel, ISSLCh
     return num;
   }
 
+  /**
+   * Encrypts several buffers at once. The engine fills each record from as many buffers as fit, so
+   * small frames queued back to back share a record.
+   *
+   * @since 1.6.1
+   */
+  @Override
+  public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    long num = 0;
+    while (ByteBufferUtils.hasRemaining(srcs, offset, length)) {
+      myNetData.clear();
+      SSLEngineResult result = engine.wrap(srcs, offset, length, myNetData);
+      switch (result.getStatus()) {
+        case OK:
+          myNetData.flip();
+          while (myNetData.hasRemaining()) {
+            num += socketChannel.write(myNetData);
+          }
+          break;
+        case BUFFER_OVERFLOW:
+          myNetData = enlargePacketBuffer(myNetData);
+          break;
+        case BUFFER_UNDERFLOW:
+          throw new SSLException(
+              "Buffer underflow occurred after a wrap. I don't think we should ever get here.");
+        case CLOSED:
+          closeConnection();
+          return 0;
+        default:
+          throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
+      }
+    }
+    return num;
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
   /**
    * Implements the handshake protocol between two peers, required for the establishment of the
    * SSL/TLS connection. During the handshake, encryption configuration information - such as the
@@ -31,6 +31,7 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
@@ -53,7 +54,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Implements the relevant portions of the SocketChannel interface with the SSLEngine wrapper.
  */
-public class SSLSocketChannel2 implements ByteChannel, WrappedByteChannel, ISSLChannel {
+public class SSLSocketChannel2 implements ByteChannel, GatheringByteChannel, WrappedByteChannel,
+    ISSLChannel {
 
   /**
    * This object is used to feed the {@link SSLEngine}'s wrap and unwrap methods during the
@@ -205,6 +207,17 @@ public class SSLSocketChannel2 implements ByteChannel, WrappedByteChannel, ISSLC
     return outCrypt;
   }
 
+  /**
+   * Wraps as much of the given buffers as fits into a single record in {@link #outCrypt}
+   */
+  private synchronized ByteBuffer wrap(ByteBuffer[] srcs, int offset, int length)
+      throws SSLException {
+    outCrypt.compact();
+    writeEngineResult = sslEngine.wrap(srcs, offset, length, outCrypt);
+    outCrypt.flip();
+    return outCrypt;
+  }
+
   /**
    * performs the unwrap operation by unwrapping from {@link #inCrypt} to {@link #inData}
    **/
@@ -288,6 +301,30 @@ public class SSLSocketChannel2 implements ByteChannel, WrappedByteChannel, ISSLC
 
   }
 
+  /**
+   * Encrypts the content of several buffers into one record, so that small frames queued back to
+   * back do not each cost a record and a write call.
+   *
+   * @since 1.6.1
+   */
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if (!isHandShakeComplete()) {
+      processHandshake(false);
+      return 0;
+    }
+    int num = socketChannel.write(wrap(srcs, offset, length));
+    if (writeEngineResult.getStatus() == SSLEngineResult.Status.CLOSED) {
+      throw new EOFException("Connection is closed");
+    }
+    return num;
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
   /**
    * Blocks when in blocking mode until at least one byte has been decoded.<br> When not in blocking
    * mode 0 may be returned.
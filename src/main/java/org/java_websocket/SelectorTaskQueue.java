@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects work for a selector thread which is requested by other threads.
+ * <p>
+ * Other threads never change the interest set of a key themselves, they register a write demand
+ * here and the selector thread applies it after its next select. Other work which has to run on
+ * the selector thread is queued as a task. Wake ups are coalesced: only the first request after
+ * the selector thread drained the queue wakes the selector, all further requests until then are
+ * picked up by the same pass.
+ * <p>
+ * This class is shared by the selector threads of the server and the client and is not meant to
+ * be used by the user.
+ *
+ * @since 1.6.1
+ */
+public final class SelectorTaskQueue {
+
+  private final Selector selector;
+
+  /**
+   * Connections waiting for OP_WRITE, a connection is contained at most once
+   */
+  private final Set<WebSocketImpl> writeDemands = Collections
+      .newSetFromMap(new ConcurrentHashMap<WebSocketImpl, Boolean>());
+
+  /**
+   * Tasks which have to run on the selector thread
+   */
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+  private final AtomicLong wakeups = new AtomicLong();
+
+  /**
+   * The thread which selects, requests of this thread are applied right away
+   */
+  private volatile Thread owner;
+
+  /**
+   * @param selector the selector to wake up
+   */
+  public SelectorTaskQueue(Selector selector) {
+    this.selector = selector;
+  }
+
+  /**
+   * @param owner the thread which runs the select loop of the selector
+   */
+  public void setOwner(Thread owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Request OP_WRITE for the key of <var>conn</var>
+   *
+   * @param conn the connection with queued data
+   */
+  public void requestWrite(WebSocketImpl conn) {
+    if (Thread.currentThread() == owner) {
+      applyWriteDemand(conn);
+    } else if (writeDemands.add(conn)) {
+      wakeup();
+    }
+  }
+
+  /**
+   * Run <var>task</var> on the selector thread after its next select
+   *
+   * @param task the task
+   */
+  public void execute(Runnable task) {
+    tasks.add(task);
+    wakeup();
+  }
+
+  /**
+   * Wake up the selector unless a wake up is already pending
+   */
+  public void wakeup() {
+    if (wakeupPending.compareAndSet(false, true)) {
+      wakeups.incrementAndGet();
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Apply the requested work. Must only be called by the selector thread after select returned.
+   */
+  public void runTasks() {
+    // reset first, so that a request which is added while draining wakes the next select
+    wakeupPending.set(false);
+    Iterator<WebSocketImpl> it = writeDemands.iterator();
+    while (it.hasNext()) {
+      WebSocketImpl conn = it.next();
+      it.remove();
+      applyWriteDemand(conn);
+    }
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  /**
+   * @return the number of times the selector was actually woken up
+   */
+  long getWakeupCount() {
+    return wakeups.get();
+  }
+
+  private static void applyWriteDemand(WebSocketImpl conn) {
+    SelectionKey key = conn.getSelectionKey();
+    try {
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    } catch (CancelledKeyException e) {
+      // the thread which cancels key is responsible for possible cleanup
+      conn.clearOutQueue();
+    }
+  }
+}
@@ -28,10 +28,38 @@ package org.java_websocket;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
 import org.java_websocket.enums.Role;
 
 public class SocketChannelIOHelper {
 
+  /**
+   * The maximum number of queued buffers which are passed to a single gathering write
+   *
+   * @since 1.6.1
+   */
+  public static final int MAX_GATHER_BUFFERS = 64;
+
+  /**
+   * The number of bytes after which no further buffers are added to a single gathering write. The
+   * first buffer is always written, regardless of its size.
+   *
+   * @since 1.6.1
+   */
+  public static final int MAX_GATHER_BYTES = 256 * 1024;
+
+  /**
+   * Per thread scratch array for gathering writes to avoid an allocation per batch
+   */
+  private static final ThreadLocal<ByteBuffer[]> gatherBuffers = new ThreadLocal<ByteBuffer[]>() {
+    @Override
+    protected ByteBuffer[] initialValue() {
+      return new ByteBuffer[MAX_GATHER_BUFFERS];
+    }
+  };
+
   private SocketChannelIOHelper() {
     throw new IllegalStateException("Utility class");
   }
@@ -80,13 +108,33 @@ public class SocketChannelIOHelper {
    * @throws IOException May be thrown by {@link WrappedByteChannel#writeMore()}
    */
   public static boolean batch(WebSocketImpl ws, ByteChannel sockchannel) throws IOException {
+    return batch(ws, sockchannel, 0);
+  }
+
+  /**
+   * Returns whether the whole outQueue has been flushed.
+   * <p>
+   * With a positive <var>quantum</var> the writes are scheduled by deficit round robin: every call
+   * grants the connection <var>quantum</var> times its {@link WebSocketImpl#getWriteWeight() write
+   * weight} bytes. Unused allowance is carried over to the next call, up to one grant, and is
+   * dropped once the outQueue is empty. A connection with a large backlog therefore only writes
+   * its share per selector pass and leaves the rest for the following passes.
+   *
+   * @param ws          The WebSocketImpl associated with the channels
+   * @param sockchannel The channel to write to
+   * @param quantum     The number of bytes granted per call, 0 to write as much as possible
+   * @return returns Whether there is more data to write
+   * @throws IOException May be thrown by {@link WrappedByteChannel#writeMore()}
+   * @since 1.6.1
+   */
+  public static boolean batch(WebSocketImpl ws, ByteChannel sockchannel, int quantum)
+      throws IOException {
     if (ws == null) {
       return false;
     }
-    ByteBuffer buffer = ws.outQueue.peek();
     WrappedByteChannel c = null;
 
-    if (buffer == null) {
+    if (ws.outQueue.isEmpty()) {
       if (sockchannel instanceof WrappedByteChannel) {
         c = (WrappedByteChannel) sockchannel;
         if (c.isNeedWrite()) {
@@ -94,18 +142,18 @@ public class SocketChannelIOHelper {
         }
       }
     } else {
-      do {
-        // FIXME writing as much as possible is unfair!!
-        /*int written = */
-        sockchannel.write(buffer);
-        if (buffer.remaining() > 0) {
-          return false;
-        } else {
-          ws.outQueue.poll(); // Buffer finished. Remove it.
-          buffer = ws.outQueue.peek();
-        }
-      } while (buffer != null);
+      long grant = quantum > 0 ? (long) quantum * ws.getWriteWeight() : Long.MAX_VALUE;
+      long budget = quantum > 0 ? ws.getWriteDeficit() + grant : Long.MAX_VALUE;
+      long written = write(ws, sockchannel, budget);
+      if (written > 0) {
+        ws.decreaseBufferedAmount(written);
+      }
+      if (!ws.outQueue.isEmpty()) {
+        ws.setWriteDeficit(Math.min(budget - written, grant));
+        return false;
+      }
     }
+    ws.setWriteDeficit(0);
 
     if (ws.outQueue.isEmpty() && ws.isFlushAndClose() && ws.getDraft() != null
         && ws.getDraft().getRole() != null && ws.getDraft().getRole() == Role.SERVER) {
@@ -113,4 +161,69 @@ public class SocketChannelIOHelper {
     }
     return c == null || !((WrappedByteChannel) sockchannel).isNeedWrite();
   }
+
+  /**
+   * Writes the outQueue until it is empty, the channel does not accept more data or
+   * <var>budget</var> bytes have been written. Gathering channels receive up to {@link
+   * #MAX_GATHER_BUFFERS} buffers or {@link #MAX_GATHER_BYTES} bytes per write call, other channels
+   * one buffer at a time. Fully written buffers are removed from the queue.
+   *
+   * @param ws      The WebSocketImpl associated with the channel
+   * @param channel The channel to write to
+   * @param budget  The maximum number of bytes to write
+   * @return The number of bytes taken from the outQueue
+   * @throws IOException May be thrown by the channel
+   */
+  private static long write(WebSocketImpl ws, ByteChannel channel, long budget)
+      throws IOException {
+    GatheringByteChannel gathering =
+        channel instanceof GatheringByteChannel ? (GatheringByteChannel) channel : null;
+    ByteBuffer[] buffers = gatherBuffers.get();
+    int maxBuffers = gathering != null ? buffers.length : 1;
+    long total = 0;
+    try {
+      while (total < budget) {
+        long limit = budget - total;
+        int count = 0;
+        long bytes = 0;
+        Iterator<ByteBuffer> it = ws.outQueue.iterator();
+        while (it.hasNext() && count < maxBuffers && bytes < Math.min(limit, MAX_GATHER_BYTES)) {
+          ByteBuffer next = it.next();
+          buffers[count++] = next;
+          bytes += next.remaining();
+        }
+        if (count == 0) {
+          break;
+        }
+        // never hand out more than the budget, the rest of the last buffer waits for the next round
+        ByteBuffer last = buffers[count - 1];
+        int lastLimit = last.limit();
+        long excess = Math.max(0, bytes - limit);
+        last.limit(lastLimit - (int) excess);
+        try {
+          if (count == 1) {
+            channel.write(buffers[0]);
+          } else {
+            gathering.write(buffers, 0, count);
+          }
+        } finally {
+          last.limit(lastLimit);
+        }
+        long left = 0;
+        for (int i = 0; i < count; i++) {
+          if (left == 0 && !buffers[i].hasRemaining()) {
+            ws.outQueue.poll(); // Buffer finished. Remove it.
+          }
+          left += buffers[i].remaining();
+        }
+        total += bytes - left;
+        if (left > excess) {
+          break; // the channel did not take everything
+        }
+      }
+    } finally {
+      Arrays.fill(buffers, null);
+    }
+    return total;
+  }
 }
@@ -136,6 +136,25 @@ public interface WebSocket {
    */
   boolean hasBufferedData();
 
+  /**
+   * Returns the number of bytes which have been queued for sending but not yet written to the
+   * network, including the framing overhead
+   *
+   * @return the buffered amount in bytes
+   * @since 1.6.1
+   */
+  long getBufferedAmount();
+
+  /**
+   * Checks whether the buffered amount is below the write buffer water marks. Sending is still
+   * possible if this returns false, but producers should wait for the writability change before
+   * sending more data.
+   *
+   * @return true, if the websocket is writable
+   * @since 1.6.1
+   */
+  boolean isWritable();
+
   /**
    * Returns the address of the endpoint this socket is connected to, or {@code null} if it is
    * unconnected.
@@ -222,6 +241,15 @@ public interface WebSocket {
    **/
   <T> T getAttachment();
 
+  /**
+   * Returns the identifier of this connection. Every connection created in this process gets a
+   * different identifier.
+   *
+   * @return the connection id
+   * @since 1.6.1
+   */
+  long getId();
+
   /**
    * Does this websocket use an encrypted (wss/ssl) or unencrypted (ws) connection
    *
@@ -25,7 +25,9 @@
 
 package org.java_websocket;
 
+import java.nio.ByteBuffer;
 import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.PingFrame;
@@ -95,6 +97,46 @@ public abstract class WebSocketAdapter implements WebSocketListener {
     //To overwrite
   }
 
+  /**
+   * This default implementation does not do anything. Go ahead and overwrite it.
+   *
+   * @see org.java_websocket.WebSocketListener#onWebsocketWritabilityChanged(WebSocket, boolean)
+   */
+  @Override
+  public void onWebsocketWritabilityChanged(WebSocket conn, boolean writable) {
+    //To overwrite
+  }
+
+  /**
+   * This default implementation does not do anything. Go ahead and overwrite it.
+   *
+   * @see org.java_websocket.WebSocketListener#onWebsocketMessageStart(WebSocket, Opcode)
+   */
+  @Override
+  public void onWebsocketMessageStart(WebSocket conn, Opcode opcode) {
+    //To overwrite
+  }
+
+  /**
+   * This default implementation does not do anything. Go ahead and overwrite it.
+   *
+   * @see org.java_websocket.WebSocketListener#onWebsocketMessageFragment(WebSocket, ByteBuffer)
+   */
+  @Override
+  public void onWebsocketMessageFragment(WebSocket conn, ByteBuffer fragment) {
+    //To overwrite
+  }
+
+  /**
+   * This default implementation does not do anything. Go ahead and overwrite it.
+   *
+   * @see org.java_websocket.WebSocketListener#onWebsocketMessageEnd(WebSocket)
+   */
+  @Override
+  public void onWebsocketMessageEnd(WebSocket conn) {
+    //To overwrite
+  }
+
   /**
    * Default implementation for onPreparePing, returns a (cached) PingFrame that has no application
    * data.
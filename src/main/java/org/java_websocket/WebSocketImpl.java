@@ -35,7 +35,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.SSLSession;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.drafts.Draft_6455;
@@ -50,6 +52,7 @@ import org.java_websocket.exceptions.InvalidHandshakeException;
 import org.java_websocket.exceptions.LimitExceededException;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.FrameSink;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ClientHandshake;
@@ -85,6 +88,28 @@ public class WebSocketImpl implements WebSocket {
    */
   public static final int DEFAULT_WSS_PORT = 443;
 
+  /**
+   * The default number of buffered outgoing bytes at or below which a connection which was not
+   * writable becomes writable again
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+
+  /**
+   * The default number of buffered outgoing bytes above which a connection is no longer writable
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+  /**
+   * The default maximum number of bytes of an incomplete handshake which are buffered
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_MAX_HANDSHAKE_SIZE = 64 * 1024;
+
   /**
    * Logger instance
    *
@@ -93,11 +118,18 @@ public class WebSocketImpl implements WebSocket {
   private final Logger log = LoggerFactory.getLogger(WebSocketImpl.class);
 
   /**
-   * Queue of buffers that need to be sent to the client.
+   * The source of the connection ids
+   */
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
+  /**
+   * Queue of buffers that need to be sent to the client. The queue is lock-free, note that its
+   * size() is not a constant time operation.
    */
   public final BlockingQueue<ByteBuffer> outQueue;
   /**
-   * Queue of buffers that need to be processed
+   * Queue of buffers that need to be processed. The queue is lock-free, note that its size() is
+   * not a constant time operation.
    */
   public final BlockingQueue<ByteBuffer> inQueue;
   /**
@@ -162,6 +194,34 @@ public class WebSocketImpl implements WebSocket {
    */
   private long lastPong = System.nanoTime();
 
+  /**
+   * Attribute for the time at which data was received the last time
+   *
+   * @since 1.6.1
+   */
+  private volatile long lastActivity = System.nanoTime();
+
+  /**
+   * The connection lost check of the endpoint which is scheduled for this connection
+   *
+   * @since 1.6.1
+   */
+  volatile AbstractWebSocket.ConnectionTimer connectionLostCheck;
+
+  /**
+   * The idle check of the endpoint which is scheduled for this connection
+   *
+   * @since 1.6.1
+   */
+  volatile AbstractWebSocket.ConnectionTimer idleCheck;
+
+  /**
+   * The deadline of the opening handshake which is scheduled for this connection
+   *
+   * @since 1.6.1
+   */
+  volatile AbstractWebSocket.ConnectionTimer handshakeCheck;
+
   /**
    * Attribut to synchronize the write
    */
@@ -174,6 +234,81 @@ public class WebSocketImpl implements WebSocket {
    */
   private Object attachment;
 
+  /**
+   * Attribute for the id of this connection
+   *
+   * @since 1.6.1
+   */
+  private final long id = NEXT_ID.incrementAndGet();
+
+  /**
+   * Attribute for the share of the write quantum this connection receives per selector pass
+   *
+   * @since 1.6.1
+   */
+  private volatile int writeWeight = 1;
+
+  /**
+   * The number of bytes this connection may still write in the current round of the deficit round
+   * robin write scheduling. Only accessed by the thread which currently writes this connection.
+   *
+   * @since 1.6.1
+   */
+  private long writeDeficit = 0;
+
+  /**
+   * The number of bytes which were queued for writing but not yet written to the socket
+   *
+   * @since 1.6.1
+   */
+  private final AtomicLong bufferedAmount = new AtomicLong();
+
+  /**
+   * Attribute for the writability derived from the buffered amount and the water marks
+   *
+   * @since 1.6.1
+   */
+  private final AtomicBoolean writable = new AtomicBoolean(true);
+
+  /**
+   * Attribute whether a thread is currently writing the outQueue to the channel
+   *
+   * @since 1.6.1
+   */
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  /**
+   * Attribute for the low water mark of the outgoing buffer
+   *
+   * @since 1.6.1
+   */
+  private volatile int writeBufferLowWaterMark = DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+
+  /**
+   * Attribute for the high water mark of the outgoing buffer
+   *
+   * @since 1.6.1
+   */
+  private volatile int writeBufferHighWaterMark = DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+
+  /**
+   * Attribute for the maximum number of buffered bytes of an incomplete handshake
+   *
+   * @since 1.6.1
+   */
+  private volatile int maxHandshakeSize = DEFAULT_MAX_HANDSHAKE_SIZE;
+
+  /**
+   * Processes the frames as soon as the draft parsed them
+   */
+  private final FrameSink frameSink = new FrameSink() {
+    @Override
+    public void onFrame(Framedata frame) throws InvalidDataException {
+      log.trace("matched frame: {}", frame);
+      draft.processFrame(WebSocketImpl.this, frame);
+    }
+  };
+
   /**
    * Creates a websocket with server role
    *
@@ -203,8 +338,8 @@ public class WebSocketImpl implements WebSocket {
     if (listener == null || (draft == null && role == Role.SERVER)) {
       throw new IllegalArgumentException("parameters must not be null");
     }
-    this.outQueue = new LinkedBlockingQueue<>();
-    inQueue = new LinkedBlockingQueue<>();
+    this.outQueue = new LinkedTransferQueue<>();
+    inQueue = new LinkedTransferQueue<>();
     this.wsl = listener;
     this.role = Role.CLIENT;
     if (draft != null) {
@@ -219,10 +354,16 @@ public class WebSocketImpl implements WebSocket {
    */
   public void decode(ByteBuffer socketBuffer) {
     assert (socketBuffer.hasRemaining());
+    lastActivity = System.nanoTime();
     if (log.isTraceEnabled()) {
-      log.trace("process({}): ({})", socketBuffer.remaining(),
-              (socketBuffer.remaining() > 1000 ? "too big to display"
-                      : new String(socketBuffer.array(), socketBuffer.position(), socketBuffer.remaining())));
+      String content = "too big to display";
+      if (socketBuffer.remaining() <= 1000) {
+        // the buffer may be a direct buffer without an accessible array
+        byte[] bytes = new byte[socketBuffer.remaining()];
+        socketBuffer.duplicate().get(bytes);
+        content = new String(bytes);
+      }
+      log.trace("process({}): ({})", socketBuffer.remaining(), content);
     }
     if (readyState != ReadyState.NOT_YET_CONNECTED) {
       if (readyState == ReadyState.OPEN) {
@@ -251,8 +392,9 @@ public class WebSocketImpl implements WebSocket {
       socketBuffer = socketBufferNew;
     } else {
       if (tmpHandshakeBytes.remaining() < socketBufferNew.remaining()) {
-        ByteBuffer buf = ByteBuffer
-            .allocate(tmpHandshakeBytes.capacity() + socketBufferNew.remaining());
+        // grow geometrically, a handshake which arrives byte by byte must not be copied per byte
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(2 * tmpHandshakeBytes.capacity(),
+            tmpHandshakeBytes.position() + socketBufferNew.remaining()));
         tmpHandshakeBytes.flip();
         buf.put(tmpHandshakeBytes);
         tmpHandshakeBytes = buf;
@@ -370,32 +512,49 @@ public class WebSocketImpl implements WebSocket {
     } catch (IncompleteHandshakeException e) {
       if (tmpHandshakeBytes.capacity() == 0) {
         socketBuffer.reset();
+        if (socketBuffer.remaining() > maxHandshakeSize) {
+          closeConnectionDueToHandshakeSize();
+          return false;
+        }
         int newsize = e.getPreferredSize();
         if (newsize == 0) {
           newsize = socketBuffer.capacity() + 16;
         } else {
           assert (e.getPreferredSize() >= socketBuffer.remaining());
         }
-        tmpHandshakeBytes = ByteBuffer.allocate(newsize);
+        tmpHandshakeBytes = ByteBuffer.allocate(Math.min(newsize, maxHandshakeSize));
 
         tmpHandshakeBytes.put(socketBufferNew);
         // tmpHandshakeBytes.flip();
       } else {
         tmpHandshakeBytes.position(tmpHandshakeBytes.limit());
         tmpHandshakeBytes.limit(tmpHandshakeBytes.capacity());
+        if (tmpHandshakeBytes.position() > maxHandshakeSize) {
+          closeConnectionDueToHandshakeSize();
+        }
       }
     }
     return false;
   }
 
+  /**
+   * Close the connection if the handshake exceeds the maximum handshake size
+   */
+  private void closeConnectionDueToHandshakeSize() {
+    if (isFlushAndClose()) {
+      return;
+    }
+    log.trace("Closing due to a handshake larger than {} bytes", maxHandshakeSize);
+    tmpHandshakeBytes = ByteBuffer.allocate(0);
+    if (role == Role.SERVER) {
+      write(generateHttpResponseDueToError(431));
+    }
+    flushAndClose(CloseFrame.TOOBIG, "handshake exceeds " + maxHandshakeSize + " bytes", false);
+  }
+
   private void decodeFrames(ByteBuffer socketBuffer) {
-    List<Framedata> frames;
     try {
-      frames = draft.translateFrame(socketBuffer);
-      for (Framedata f : frames) {
-        log.trace("matched frame: {}", f);
-        draft.processFrame(this, f);
-      }
+      draft.translateFrame(socketBuffer, frameSink);
     } catch (LimitExceededException e) {
       if (e.getLimit() == Integer.MAX_VALUE) {
         log.error("Closing due to invalid size of frame", e);
@@ -450,6 +609,9 @@ public class WebSocketImpl implements WebSocket {
       case 404:
         errorCodeDescription = "404 WebSocket Upgrade Failure";
         break;
+      case 431:
+        errorCodeDescription = "431 Request Header Fields Too Large";
+        break;
       case 500:
       default:
         errorCodeDescription = "500 Internal Server Error";
@@ -694,6 +856,32 @@ public class WebSocketImpl implements WebSocket {
     send(Collections.singletonList(framedata));
   }
 
+  /**
+   * Send frames which were already serialized by a draft with the same {@link
+   * Draft#getFrameEncodingKey() frame encoding key} as the draft of this connection.
+   * <p>
+   * The buffers may be shared between connections: they are not modified, a duplicate of each
+   * buffer is queued.
+   *
+   * @param frames the serialized frames
+   * @throws IllegalArgumentException       the frames are null
+   * @throws WebsocketNotConnectedException websocket is not yet connected
+   * @since 1.6.1
+   */
+  public void sendEncodedFrames(List<ByteBuffer> frames) {
+    if (!isOpen()) {
+      throw new WebsocketNotConnectedException();
+    }
+    if (frames == null) {
+      throw new IllegalArgumentException();
+    }
+    List<ByteBuffer> outgoingFrames = new ArrayList<>(frames.size());
+    for (ByteBuffer frame : frames) {
+      outgoingFrames.add(frame.duplicate());
+    }
+    write(outgoingFrames);
+  }
+
   public void sendPing() throws NullPointerException {
     // Gets a PingFrame from WebSocketListener(wsl) and sends it.
     PingFrame pingFrame = wsl.onPreparePing(this);
@@ -709,6 +897,16 @@ public class WebSocketImpl implements WebSocket {
     return !this.outQueue.isEmpty();
   }
 
+  @Override
+  public long getBufferedAmount() {
+    return bufferedAmount.get();
+  }
+
+  @Override
+  public boolean isWritable() {
+    return writable.get();
+  }
+
   public void startHandshake(ClientHandshakeBuilder handshakedata)
       throws InvalidHandshakeException {
     // Store the Handshake Request we are about to send
@@ -735,12 +933,72 @@ public class WebSocketImpl implements WebSocket {
 
   private void write(ByteBuffer buf) {
     log.trace("write({}): {}", buf.remaining(),
-        buf.remaining() > 1000 ? "too big to display" : new String(buf.array()));
+        buf.remaining() > 1000 ? "too big to display"
+            : buf.hasArray() ? new String(buf.array()) : "shared buffer");
 
+    // account before queueing, otherwise the buffer could be written before the change is noticed
+    bufferedAmount.addAndGet(buf.remaining());
+    updateWritability();
     outQueue.add(buf);
     wsl.onWriteDemand(this);
   }
 
+  /**
+   * Reports bytes of the outQueue which have been written to the socket. This method is called by
+   * the thread which writes the outQueue and is not meant to be called by the user.
+   *
+   * @param amount the number of written bytes
+   * @since 1.6.1
+   */
+  public void decreaseBufferedAmount(long amount) {
+    bufferedAmount.addAndGet(-amount);
+    updateWritability();
+  }
+
+  /**
+   * Drops the content of the outQueue once the connection can no longer be written and subtracts
+   * it from the buffered amount
+   *
+   * @since 1.6.1
+   */
+  void clearOutQueue() {
+    long dropped = 0;
+    ByteBuffer buf;
+    while ((buf = outQueue.poll()) != null) {
+      dropped += buf.remaining();
+    }
+    if (dropped != 0) {
+      decreaseBufferedAmount(dropped);
+    }
+  }
+
+  /**
+   * Updates the writability according to the buffered amount and the water marks and notifies the
+   * listener on a change. Producers and the writing thread may race here, therefore the state is
+   * rechecked after every change until it matches the buffered amount.
+   */
+  private void updateWritability() {
+    while (true) {
+      long amount = bufferedAmount.get();
+      boolean current = writable.get();
+      boolean next;
+      if (current && amount > writeBufferHighWaterMark) {
+        next = false;
+      } else if (!current && amount <= writeBufferLowWaterMark) {
+        next = true;
+      } else {
+        return;
+      }
+      if (writable.compareAndSet(current, next)) {
+        try {
+          wsl.onWebsocketWritabilityChanged(this, next);
+        } catch (RuntimeException e) {
+          wsl.onWebsocketError(this, e);
+        }
+      }
+    }
+  }
+
   /**
    * Write a list of bytebuffer (frames in binary form) into the outgoing queue
    *
@@ -843,6 +1101,15 @@ public class WebSocketImpl implements WebSocket {
     return lastPong;
   }
 
+  /**
+   * Getter for the time at which data was received the last time
+   *
+   * @return the {@link System#nanoTime() time} of the last received data
+   */
+  long getLastActivity() {
+    return lastActivity;
+  }
+
   /**
    * Update the timestamp when the last pong was received
    */
@@ -895,6 +1162,11 @@ public class WebSocketImpl implements WebSocket {
     this.attachment = attachment;
   }
 
+  @Override
+  public long getId() {
+    return id;
+  }
+
   public ByteChannel getChannel() {
     return channel;
   }
@@ -911,5 +1183,129 @@ public class WebSocketImpl implements WebSocket {
     this.workerThread = workerThread;
   }
 
+  /**
+   * Getter for the write weight
+   *
+   * @return the multiple of the server's write quantum this connection may write per selector pass
+   * @see #setWriteWeight(int)
+   * @since 1.6.1
+   */
+  public int getWriteWeight() {
+    return writeWeight;
+  }
+
+  /**
+   * Setter for the write weight.
+   * <p>
+   * When a write quantum is configured on the server, every connection may write its weight times
+   * the quantum per selector pass before the other writable connections are served. Assigning a
+   * higher weight to a class of connections gives them a proportionally larger share of the
+   * outgoing bandwidth.
+   *
+   * @param writeWeight the weight, must be at least 1
+   * @since 1.6.1
+   */
+  public void setWriteWeight(int writeWeight) {
+    if (writeWeight < 1) {
+      throw new IllegalArgumentException("writeWeight must be at least 1");
+    }
+    this.writeWeight = writeWeight;
+  }
+
+  /**
+   * Setter for the water marks of the outgoing buffer.
+   * <p>
+   * Once more than <var>high</var> bytes are buffered the connection is no longer {@link
+   * #isWritable() writable}, and it becomes writable again when the buffered amount drops to
+   * <var>low</var> bytes or less. Sending is never refused, the water marks only tell the
+   * application when to throttle itself.
+   *
+   * @param low  the low water mark in bytes
+   * @param high the high water mark in bytes, must not be lower than <var>low</var>
+   * @since 1.6.1
+   */
+  public void setWriteBufferWaterMark(int low, int high) {
+    if (low < 0 || high < low) {
+      throw new IllegalArgumentException("water marks must satisfy 0 <= low <= high");
+    }
+    this.writeBufferLowWaterMark = low;
+    this.writeBufferHighWaterMark = high;
+    updateWritability();
+  }
+
+  /**
+   * Getter for the low water mark of the outgoing buffer
+   *
+   * @return the low water mark in bytes
+   * @since 1.6.1
+   */
+  public int getWriteBufferLowWaterMark() {
+    return writeBufferLowWaterMark;
+  }
+
+  /**
+   * Getter for the high water mark of the outgoing buffer
+   *
+   * @return the high water mark in bytes
+   * @since 1.6.1
+   */
+  public int getWriteBufferHighWaterMark() {
+    return writeBufferHighWaterMark;
+  }
+
+  /**
+   * Setter for the maximum size of a handshake.
+   * <p>
+   * The bytes of an incomplete handshake are buffered until it is complete. Once more than
+   * <var>maxHandshakeSize</var> bytes are buffered the connection is closed, a server answers with
+   * 431 Request Header Fields Too Large.
+   *
+   * @param maxHandshakeSize the maximum number of bytes of an incomplete handshake, at least 1
+   * @since 1.6.1
+   */
+  public void setMaxHandshakeSize(int maxHandshakeSize) {
+    if (maxHandshakeSize < 1) {
+      throw new IllegalArgumentException("maxHandshakeSize must be at least 1");
+    }
+    this.maxHandshakeSize = maxHandshakeSize;
+  }
+
+  /**
+   * Getter for the maximum size of a handshake
+   *
+   * @return the maximum number of bytes of an incomplete handshake
+   * @since 1.6.1
+   */
+  public int getMaxHandshakeSize() {
+    return maxHandshakeSize;
+  }
+
+  /**
+   * Claim the exclusive right to write the outQueue to the channel
+   *
+   * @return true, if the caller may write, false if an other thread is already writing
+   * @since 1.6.1
+   */
+  public boolean tryBeginWrite() {
+    return writing.compareAndSet(false, true);
+  }
+
+  /**
+   * Release the right to write which was claimed by {@link #tryBeginWrite()}
+   *
+   * @since 1.6.1
+   */
+  public void endWrite() {
+    writing.set(false);
+  }
+
+  long getWriteDeficit() {
+    return writeDeficit;
+  }
+
+  void setWriteDeficit(long writeDeficit) {
+    this.writeDeficit = writeDeficit;
+  }
+
 
 }
@@ -28,6 +28,7 @@ package org.java_websocket;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
@@ -99,6 +100,36 @@ public interface WebSocketListener {
    */
   void onWebsocketMessage(WebSocket conn, ByteBuffer blob);
 
+  /**
+   * Called when the first frame of a text or binary message has been received and the draft
+   * delivers messages as a stream.
+   *
+   * @param conn   The <code>WebSocket</code> instance this event is occurring on.
+   * @param opcode The type of the message, either {@link Opcode#TEXT} or {@link Opcode#BINARY}
+   * @see org.java_websocket.drafts.Draft_6455#setStreamingMessages(boolean)
+   * @since 1.6.1
+   */
+  void onWebsocketMessageStart(WebSocket conn, Opcode opcode);
+
+  /**
+   * Called for every non-empty frame payload of a message which is delivered as a stream.
+   *
+   * @param conn     The <code>WebSocket</code> instance this event is occurring on.
+   * @param fragment The next part of the message, only valid for the duration of this call
+   * @see org.java_websocket.drafts.Draft_6455#setStreamingMessages(boolean)
+   * @since 1.6.1
+   */
+  void onWebsocketMessageFragment(WebSocket conn, ByteBuffer fragment);
+
+  /**
+   * Called when the last frame of a message which is delivered as a stream has been received.
+   *
+   * @param conn The <code>WebSocket</code> instance this event is occurring on.
+   * @see org.java_websocket.drafts.Draft_6455#setStreamingMessages(boolean)
+   * @since 1.6.1
+   */
+  void onWebsocketMessageEnd(WebSocket conn);
+
   /**
    * Called after <var>onHandshakeReceived</var> returns <var>true</var>. Indicates that a complete
    * WebSocket connection has been established, and we are ready to send/receive data.
@@ -183,6 +214,16 @@ public interface WebSocketListener {
    */
   void onWriteDemand(WebSocket conn);
 
+  /**
+   * Called when the buffered amount of a connection crosses its high or low water mark.
+   *
+   * @param conn     The <code>WebSocket</code> instance this event is occurring on.
+   * @param writable Whether the connection is writable again or not writable anymore
+   * @see WebSocket#isWritable()
+   * @since 1.6.1
+   */
+  void onWebsocketWritabilityChanged(WebSocket conn, boolean writable);
+
   /**
    * @param conn The <code>WebSocket</code> instance this event is occurring on.
    * @return Returns the address of the endpoint this socket is bound to.
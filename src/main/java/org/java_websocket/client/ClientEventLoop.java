@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import org.java_websocket.SelectorTaskQueue;
+import org.java_websocket.SocketChannelIOHelper;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WrappedByteChannel;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.util.HashedWheelTimer;
+import org.java_websocket.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of selector threads which drives the socket I/O of many {@link WebSocketClient}s.
+ * <p>
+ * By default every client connects over a blocking socket and uses one thread to read and one
+ * thread to write. A client which was given an event loop via {@link
+ * WebSocketClient#setEventLoop(ClientEventLoop)} instead registers a non-blocking channel with one
+ * of the selectors of the loop, so the number of threads does not depend on the number of
+ * connections. Each selector reads into a single buffer which it reuses for all of its
+ * connections.
+ * <p>
+ * All callbacks of such a client are invoked by a selector thread. They must not block, in
+ * particular they must not call the blocking methods like {@link WebSocketClient#closeBlocking()}.
+ *
+ * @since 1.6.1
+ */
+public class ClientEventLoop {
+
+  private static final Logger log = LoggerFactory.getLogger(ClientEventLoop.class);
+
+  /**
+   * The resolution of the connect timeouts in milliseconds
+   */
+  private static final long CONNECT_TIMER_TICK = 10;
+
+  /**
+   * The size of the buffer each selector reads into
+   */
+  private static final int READ_BUFFER_SIZE = 65536;
+
+  private final Reactor[] reactors;
+
+  private final boolean daemon;
+
+  private final AtomicInteger nextReactor = new AtomicInteger();
+
+  /**
+   * The timer of the connect timeouts, its thread is only started by the first timeout
+   */
+  private final HashedWheelTimer connectTimer;
+
+  /**
+   * Runs the delegated tasks of the TLS handshakes, created on first use
+   */
+  private ExecutorService sslExecutor;
+
+  /**
+   * The context of wss connections, null for the default context
+   */
+  private volatile SSLContext sslContext;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Creates an event loop with one selector per available processor and daemon threads
+   *
+   * @throws IOException if a selector could not be opened
+   */
+  public ClientEventLoop() throws IOException {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates an event loop with daemon threads
+   *
+   * @param selectorCount the number of selector threads
+   * @throws IOException if a selector could not be opened
+   */
+  public ClientEventLoop(int selectorCount) throws IOException {
+    this(selectorCount, true);
+  }
+
+  /**
+   * @param selectorCount the number of selector threads
+   * @param daemon        whether the threads of the event loop should be daemon threads
+   * @throws IOException if a selector could not be opened
+   */
+  public ClientEventLoop(int selectorCount, boolean daemon) throws IOException {
+    if (selectorCount < 1) {
+      throw new IllegalArgumentException("selectorCount must be at least 1");
+    }
+    this.daemon = daemon;
+    this.connectTimer = new HashedWheelTimer(
+        new NamedThreadFactory("WebSocketClientTimer", daemon), CONNECT_TIMER_TICK,
+        TimeUnit.MILLISECONDS, 512);
+    reactors = new Reactor[selectorCount];
+    try {
+      for (int i = 0; i < selectorCount; i++) {
+        reactors[i] = new Reactor();
+      }
+    } catch (IOException e) {
+      for (Reactor reactor : reactors) {
+        if (reactor != null) {
+          reactor.closeSelector();
+        }
+      }
+      throw e;
+    }
+    for (Reactor reactor : reactors) {
+      reactor.start();
+    }
+  }
+
+  /**
+   * @return the number of selector threads
+   */
+  public int getSelectorCount() {
+    return reactors.length;
+  }
+
+  /**
+   * Set the SSLContext which is used for wss connections. The setting applies to connections
+   * which are established afterwards.
+   *
+   * @param sslContext the SSLContext, null to use {@link SSLContext#getDefault()}
+   */
+  public void setSSLContext(SSLContext sslContext) {
+    this.sslContext = sslContext;
+  }
+
+  /**
+   * @return the SSLContext which is used for wss connections
+   * @throws NoSuchAlgorithmException if no context was set and the default context is not
+   *                                  available
+   */
+  public SSLContext getSSLContext() throws NoSuchAlgorithmException {
+    SSLContext context = sslContext;
+    return context != null ? context : SSLContext.getDefault();
+  }
+
+  /**
+   * @return whether {@link #close()} was called
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Stop all selector threads. Connections which are still registered are closed abnormally.
+   *
+   * @throws InterruptedException if interrupted while waiting for the selector threads
+   */
+  public void close() throws InterruptedException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (sslExecutor != null) {
+        sslExecutor.shutdown();
+      }
+    }
+    for (Reactor reactor : reactors) {
+      reactor.interrupt();
+    }
+    for (Reactor reactor : reactors) {
+      if (reactor != Thread.currentThread()) {
+        reactor.join();
+      }
+      // registrations which raced with the shutdown
+      reactor.closePending();
+    }
+    connectTimer.stop();
+  }
+
+  /**
+   * @return whether the calling thread is one of the selector threads
+   */
+  boolean inEventLoop() {
+    Thread current = Thread.currentThread();
+    for (Reactor reactor : reactors) {
+      if (reactor == current) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Hand the channel of a client over to one of the selectors
+   *
+   * @param client         the client
+   * @param channel        the non-blocking channel, connected or with a pending connect
+   * @param connectTimeout the timeout of a pending connect in milliseconds, 0 for none
+   * @throws IllegalStateException if the event loop is closed
+   */
+  void register(final WebSocketClient client, final SocketChannel channel, int connectTimeout) {
+    if (closed) {
+      throw new IllegalStateException("The event loop is closed");
+    }
+    final Reactor reactor = reactors[(nextReactor.getAndIncrement() & Integer.MAX_VALUE)
+        % reactors.length];
+    if (connectTimeout > 0 && channel.isConnectionPending()) {
+      // the timer only hands the check over, so that it does not race with finishConnect
+      client.setConnectTimeoutTask(connectTimer.newTimeout(new Runnable() {
+        @Override
+        public void run() {
+          reactor.tasks.execute(new Runnable() {
+            @Override
+            public void run() {
+              if (client.getChannel() == channel && channel.isConnectionPending()
+                  && client.getReadyState() == ReadyState.NOT_YET_CONNECTED) {
+                client.failConnect(new SocketTimeoutException("connect timed out"));
+              }
+            }
+          });
+        }
+      }, connectTimeout, TimeUnit.MILLISECONDS));
+    }
+    reactor.register(client);
+  }
+
+  /**
+   * @return the number of connect timeouts which neither expired nor were cancelled
+   */
+  int getPendingConnectTimeouts() {
+    return connectTimer.getPendingCount();
+  }
+
+  /**
+   * @return the executor of the delegated TLS handshake tasks
+   */
+  synchronized ExecutorService getSSLExecutor() {
+    if (sslExecutor == null) {
+      sslExecutor = Executors.newCachedThreadPool(
+          new NamedThreadFactory("WebSocketClientSSL", daemon));
+      if (closed) {
+        sslExecutor.shutdown();
+      }
+    }
+    return sslExecutor;
+  }
+
+  /**
+   * A selector thread and the channels registered with it
+   */
+  private final class Reactor extends Thread {
+
+    private final Selector selector;
+
+    private final SelectorTaskQueue tasks;
+
+    /**
+     * Clients which are waiting to be registered with the selector
+     */
+    private final Queue<WebSocketClient> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Clients whose wrapped channel holds input which does not show up as readiness of the socket
+     */
+    private List<WebSocketClient> readMoreQueue = new ArrayList<>();
+
+    /**
+     * The buffer all connections of this selector are read into, the decoder copies what it keeps
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    Reactor() throws IOException {
+      selector = Selector.open();
+      tasks = new SelectorTaskQueue(selector);
+      tasks.setOwner(this);
+      setName("WebSocketClientReactor-" + getId());
+      setDaemon(daemon);
+      setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+        @Override
+        public void uncaughtException(Thread t, Throwable e) {
+          log.error("Uncaught exception in thread {}: {}", t.getName(), e);
+        }
+      });
+    }
+
+    void register(WebSocketClient client) {
+      pending.add(client);
+      tasks.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          if (readMoreQueue.isEmpty()) {
+            selector.select();
+          } else {
+            selector.selectNow();
+          }
+          tasks.runTasks();
+          registerPending();
+          List<WebSocketClient> readMore = readMoreQueue;
+          readMoreQueue = new ArrayList<>();
+          Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+          while (i.hasNext()) {
+            SelectionKey key = i.next();
+            i.remove();
+            WebSocketClient client = (WebSocketClient) key.attachment();
+            int readyOps = key.readyOps();
+            if (readMore.remove(client)) {
+              readyOps |= SelectionKey.OP_READ;
+            }
+            process(key, client, readyOps);
+          }
+          for (WebSocketClient client : readMore) {
+            SelectionKey key = client.getEngine().getSelectionKey();
+            if (key != null && key.selector() == selector) {
+              process(key, client, SelectionKey.OP_READ);
+            }
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // the loop is shut down
+      } catch (IOException e) {
+        log.error("IOException in the client event loop", e);
+      } finally {
+        closeConnections();
+      }
+    }
+
+    private void registerPending() {
+      WebSocketClient client;
+      while ((client = pending.poll()) != null) {
+        SocketChannel channel = client.getChannel();
+        try {
+          boolean connected = channel.isConnected();
+          SelectionKey key = channel
+              .register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+                  client);
+          client.onChannelRegistered(tasks, key);
+          if (connected) {
+            client.onChannelConnected(key);
+          }
+        } catch (Exception e) {
+          client.failConnect(e);
+        }
+      }
+    }
+
+    private void process(SelectionKey key, WebSocketClient client, int readyOps) {
+      try {
+        if (!key.isValid()) {
+          return;
+        }
+        if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+          finishConnect(key, client);
+          return;
+        }
+        WebSocketImpl engine = client.getEngine();
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+          doRead(engine);
+        }
+        if (key.isValid() && (readyOps & SelectionKey.OP_WRITE) != 0) {
+          doWrite(key, engine);
+        }
+        if (key.isValid() && engine.getChannel() instanceof WrappedByteChannel
+            && ((WrappedByteChannel) engine.getChannel()).isNeedRead()) {
+          readMoreQueue.add(client);
+        }
+      } catch (CancelledKeyException e) {
+        // the connection was closed by an other thread
+      } catch (IOException e) {
+        client.handleIOException(e);
+      } catch (RuntimeException e) {
+        // this catch case covers internal errors only and indicates a bug in this websocket implementation
+        client.onError(e);
+        client.getEngine().closeConnection(CloseFrame.ABNORMAL_CLOSE, e.getMessage());
+      }
+    }
+
+    private void finishConnect(SelectionKey key, WebSocketClient client) {
+      try {
+        if (!client.getChannel().finishConnect()) {
+          return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        client.onChannelConnected(key);
+      } catch (Exception e) {
+        client.failConnect(e);
+      }
+    }
+
+    private void doRead(WebSocketImpl engine) throws IOException {
+      ByteChannel channel = engine.getChannel();
+      if (SocketChannelIOHelper.read(readBuffer, engine, channel)) {
+        engine.decode(readBuffer);
+      }
+      if (channel instanceof WrappedByteChannel) {
+        // decode what the channel has already decrypted, a handshake in progress is continued by
+        // the next read
+        WrappedByteChannel wrapped = (WrappedByteChannel) channel;
+        while (wrapped.isNeedRead() && !engine.isClosed()) {
+          SocketChannelIOHelper.readMore(readBuffer, engine, wrapped);
+          if (!readBuffer.hasRemaining()) {
+            break;
+          }
+          engine.decode(readBuffer);
+        }
+      }
+      if (!channel.isOpen()) {
+        // a wrapped channel closes itself once the peer closed the TLS session
+        engine.eot();
+      }
+    }
+
+    private void doWrite(SelectionKey key, WebSocketImpl engine) throws IOException {
+      if (SocketChannelIOHelper.batch(engine, engine.getChannel()) && key.isValid()) {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    private void closeConnections() {
+      try {
+        for (SelectionKey key : selector.keys()) {
+          WebSocketClient client = (WebSocketClient) key.attachment();
+          if (client != null) {
+            client.getEngine().closeConnection(CloseFrame.ABNORMAL_CLOSE, "event loop closed");
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // nothing left to close
+      }
+      closePending();
+      closeSelector();
+    }
+
+    void closePending() {
+      WebSocketClient client;
+      while ((client = pending.poll()) != null) {
+        client.failConnect(new IOException("event loop closed"));
+      }
+    }
+
+    void closeSelector() {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.error("IOException during selector.close", e);
+      }
+    }
+  }
+}
@@ -36,6 +36,8 @@ import java.net.Socket;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
@@ -45,12 +47,15 @@ import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import org.java_websocket.AbstractWebSocket;
+import org.java_websocket.SSLSocketChannel2;
+import org.java_websocket.SelectorTaskQueue;
 import org.java_websocket.WebSocket;
 import org.java_websocket.WebSocketImpl;
 import org.java_websocket.drafts.Draft;
@@ -64,6 +69,7 @@ import org.java_websocket.handshake.HandshakeImpl1Client;
 import org.java_websocket.handshake.Handshakedata;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.util.HashedWheelTimer.Timeout;
 
 /**
  * A subclass must implement at least <var>onOpen</var>, <var>onClose</var>, and
@@ -73,6 +79,13 @@ import org.java_websocket.protocols.IProtocol;
  */
 public abstract class WebSocketClient extends AbstractWebSocket implements Runnable, WebSocket {
 
+  /**
+   * The default maximum number of bytes the write thread coalesces into a single write
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_WRITE_BATCH_SIZE = 64 * 1024;
+
   /**
    * The URI this channel is supposed to connect to.
    */
@@ -148,6 +161,39 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
    */
   private DnsResolver dnsResolver = null;
 
+  /**
+   * The event loop which drives the socket I/O instead of the read and the write thread, if any
+   *
+   * @since 1.6.1
+   */
+  private ClientEventLoop eventLoop = null;
+
+  /**
+   * The non-blocking channel of this client if it uses an event loop
+   */
+  private volatile SocketChannel channel = null;
+
+  /**
+   * The task queue of the selector the channel is registered with
+   */
+  private volatile SelectorTaskQueue selectorTasks = null;
+
+  /**
+   * The pending connect timeout of the event loop, null if there is none
+   */
+  private volatile Timeout connectTimeoutTask = null;
+
+  /**
+   * The maximum number of bytes the write thread coalesces into a single write
+   */
+  private volatile int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+  /**
+   * The time in nanoseconds the write thread waits for further frames before it flushes a batch
+   * which is smaller than the batch size
+   */
+  private volatile long writeLinger = 0;
+
   /**
    * Constructs a WebSocketClient instance and sets it to the connect to the specified URI. The
    * channel does not attampt to connect automatically. The connection will be established once you
@@ -258,6 +304,10 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
    * @return the socket used for this connection
    */
   public Socket getSocket() {
+    SocketChannel ch = channel;
+    if (socket == null && ch != null) {
+      return ch.socket();
+    }
     return socket;
   }
 
@@ -304,6 +354,83 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     this.dnsResolver = dnsResolver;
   }
 
+  /**
+   * Let an event loop drive the socket I/O of this client instead of a thread to connect and read
+   * and a thread to write per connection.<br> This method must be called before
+   * <code>connect</code>. All callbacks are invoked by a selector thread of the event loop
+   * afterwards and must not block. An event loop can not be combined with a proxy, a socket or a
+   * socket factory, wss connections use the {@link ClientEventLoop#getSSLContext() SSLContext} of
+   * the event loop.
+   *
+   * @param eventLoop the event loop to use, null to use dedicated threads again
+   * @since 1.6.1
+   */
+  public void setEventLoop(ClientEventLoop eventLoop) {
+    if (connectReadThread != null || channel != null) {
+      throw new IllegalStateException("Cannot call setEventLoop after the client is connected!");
+    }
+    this.eventLoop = eventLoop;
+  }
+
+  /**
+   * @return the event loop which drives the socket I/O of this client, or null if the client uses
+   * dedicated threads
+   * @since 1.6.1
+   */
+  public ClientEventLoop getEventLoop() {
+    return eventLoop;
+  }
+
+  /**
+   * Set the maximum number of bytes the write thread coalesces into a single write and flush. The
+   * write thread drains all frames which are queued at once, up to this many bytes, so small
+   * messages do not cost a write call and a TLS record each. A single larger frame is written as
+   * it is. The setting applies to the write thread which is started by the next connect and is
+   * ignored with an event loop.
+   *
+   * @param writeBatchSize the batch size in bytes, at least 1
+   * @since 1.6.1
+   */
+  public void setWriteBatchSize(int writeBatchSize) {
+    if (writeBatchSize < 1) {
+      throw new IllegalArgumentException("writeBatchSize must be at least 1");
+    }
+    this.writeBatchSize = writeBatchSize;
+  }
+
+  /**
+   * @return the maximum number of bytes the write thread coalesces into a single write
+   * @since 1.6.1
+   */
+  public int getWriteBatchSize() {
+    return writeBatchSize;
+  }
+
+  /**
+   * Set the time the write thread waits for further frames before it flushes a batch which did
+   * not reach the {@link #setWriteBatchSize(int) batch size} yet. A linger trades up to this much
+   * latency for fewer and larger writes. The default of 0 flushes as soon as the queue is empty.
+   *
+   * @param linger the linger, 0 to disable it
+   * @param unit   the unit of <var>linger</var>
+   * @since 1.6.1
+   */
+  public void setWriteLinger(long linger, TimeUnit unit) {
+    if (linger < 0) {
+      throw new IllegalArgumentException("linger must not be negative");
+    }
+    this.writeLinger = unit.toNanos(linger);
+  }
+
+  /**
+   * @param unit the unit of the result
+   * @return the time the write thread waits for further frames before it flushes a batch
+   * @since 1.6.1
+   */
+  public long getWriteLinger(TimeUnit unit) {
+    return unit.convert(writeLinger, TimeUnit.NANOSECONDS);
+  }
+
   /**
    * Reinitiates the websocket connection. This method does not block.
    *
@@ -334,7 +461,8 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
    */
   private void reset() {
     Thread current = Thread.currentThread();
-    if (current == writeThread || current == connectReadThread) {
+    if (current == writeThread || current == connectReadThread || (eventLoop != null && eventLoop
+        .inEventLoop())) {
       throw new IllegalStateException(
           "You cannot initialize a reconnect out of the websocket thread. Use reconnect in another thread to ensure a successful cleanup.");
     }
@@ -361,6 +489,11 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
         this.socket.close();
         this.socket = null;
       }
+      if (this.channel != null) {
+        this.channel.close();
+        this.channel = null;
+      }
+      this.selectorTasks = null;
     } catch (Exception e) {
       onError(e);
       engine.closeConnection(CloseFrame.ABNORMAL_CLOSE, e.getMessage());
@@ -369,15 +502,20 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     connectLatch = new CountDownLatch(1);
     closeLatch = new CountDownLatch(1);
     this.engine = new WebSocketImpl(this, this.draft);
+    this.engine.setWriteBufferWaterMark(getWriteBufferLowWaterMark(), getWriteBufferHighWaterMark());
   }
 
   /**
    * Initiates the websocket connection. This method does not block.
    */
   public void connect() {
-    if (connectReadThread != null) {
+    if (connectReadThread != null || channel != null) {
       throw new IllegalStateException("WebSocketClient objects are not reuseable");
     }
+    if (eventLoop != null) {
+      connectNonBlocking();
+      return;
+    }
     connectReadThread = new Thread(this);
     connectReadThread.setDaemon(isDaemon());
     connectReadThread.setName("WebSocketConnectReadThread-" + connectReadThread.getId());
@@ -423,6 +561,13 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
   public void close() {
     if (writeThread != null) {
       engine.close(CloseFrame.NORMAL);
+    } else if (channel != null) {
+      if (engine.getReadyState() == ReadyState.NOT_YET_CONNECTED) {
+        // abort the pending connect or opening handshake
+        engine.closeConnection(CloseFrame.NEVER_CONNECTED, "");
+      } else {
+        engine.close(CloseFrame.NORMAL);
+      }
     }
   }
 
@@ -464,6 +609,17 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     engine.setAttachment(attachment);
   }
 
+  /**
+   * Returns the id of the current connection, a reconnect creates a new connection with a new id
+   *
+   * @return the connection id
+   * @since 1.6.1
+   */
+  @Override
+  public long getId() {
+    return engine.getId();
+  }
+
   @Override
   protected Collection<WebSocket> getConnections() {
     return Collections.singletonList((WebSocket) engine);
@@ -553,6 +709,111 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     }
   }
 
+  /**
+   * Open a non-blocking channel and hand it over to the event loop. Errors are reported by the
+   * calling thread.
+   */
+  private void connectNonBlocking() {
+    if (proxy != Proxy.NO_PROXY || socketFactory != null || socket != null) {
+      throw new IllegalStateException(
+          "A proxy, a socket or a socket factory can not be used together with an event loop");
+    }
+    try {
+      SocketChannel ch = SocketChannel.open();
+      channel = ch;
+      engine.setChannel(ch);
+      ch.configureBlocking(false);
+      Socket s = ch.socket();
+      s.setTcpNoDelay(isTcpNoDelay());
+      s.setReuseAddress(isReuseAddr());
+      int receiveBufferSize = getReceiveBufferSize();
+      if (receiveBufferSize > 0) {
+        s.setReceiveBufferSize(receiveBufferSize);
+      }
+      InetAddress address =
+          dnsResolver == null ? InetAddress.getByName(uri.getHost()) : dnsResolver.resolve(uri);
+      ch.connect(new InetSocketAddress(address, getPort()));
+      eventLoop.register(this, ch, connectTimeout);
+    } catch (/*IOException | SecurityException | UnresolvedAddressException | IllegalStateException */Exception e) {
+      failConnect(e);
+    }
+  }
+
+  /**
+   * Called by the event loop once the channel is registered with a selector
+   *
+   * @param tasks the task queue of the selector
+   * @param key   the key of the channel
+   */
+  void onChannelRegistered(SelectorTaskQueue tasks, SelectionKey key) {
+    selectorTasks = tasks;
+    engine.setSelectionKey(key);
+  }
+
+  /**
+   * Called by the event loop once the channel is connected, starts the TLS and the opening
+   * handshake
+   *
+   * @param key the key of the channel
+   * @throws Exception if the handshake could not be started
+   */
+  void onChannelConnected(SelectionKey key) throws Exception {
+    cancelConnectTimeout();
+    if ("wss".equals(uri.getScheme())) {
+      SSLEngine sslEngine = eventLoop.getSSLContext().createSSLEngine(uri.getHost(), getPort());
+      sslEngine.setUseClientMode(true);
+      SSLParameters sslParameters = sslEngine.getSSLParameters();
+      onSetSSLParameters(sslParameters);
+      sslEngine.setSSLParameters(sslParameters);
+      engine.setChannel(
+          new SSLSocketChannel2(channel, sslEngine, eventLoop.getSSLExecutor(), key));
+    }
+    sendHandshake();
+  }
+
+  /**
+   * Report an error which prevented the connection from being established and close it
+   *
+   * @param e the cause
+   */
+  void failConnect(Exception e) {
+    cancelConnectTimeout();
+    if (engine.isClosed()) {
+      return;
+    }
+    onWebsocketError(engine, e);
+    engine.closeConnection(CloseFrame.NEVER_CONNECTED, e.getMessage());
+  }
+
+  /**
+   * @param timeout the connect timeout which the event loop scheduled for the current connection
+   */
+  void setConnectTimeoutTask(Timeout timeout) {
+    connectTimeoutTask = timeout;
+  }
+
+  private void cancelConnectTimeout() {
+    Timeout timeout = connectTimeoutTask;
+    if (timeout != null) {
+      timeout.cancel();
+      connectTimeoutTask = null;
+    }
+  }
+
+  /**
+   * @return the non-blocking channel of this client, null if it does not use an event loop
+   */
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * @return the engine of the current connection
+   */
+  WebSocketImpl getEngine() {
+    return engine;
+  }
+
   private void upgradeSocketToSSL()
       throws NoSuchAlgorithmException, KeyManagementException, IOException {
     SSLSocketFactory factory;
@@ -666,6 +927,21 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     onMessage(blob);
   }
 
+  @Override
+  public final void onWebsocketMessageStart(WebSocket conn, Opcode opcode) {
+    onMessageStart(opcode);
+  }
+
+  @Override
+  public final void onWebsocketMessageFragment(WebSocket conn, ByteBuffer fragment) {
+    onMessageFragment(fragment);
+  }
+
+  @Override
+  public final void onWebsocketMessageEnd(WebSocket conn) {
+    onMessageEnd();
+  }
+
   /**
    * Calls subclass' implementation of <var>onOpen</var>.
    */
@@ -682,6 +958,7 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
   @Override
   public final void onWebsocketClose(WebSocket conn, int code, String reason, boolean remote) {
     stopConnectionLostTimer();
+    cancelConnectTimeout();
     if (writeThread != null) {
       writeThread.interrupt();
     }
@@ -700,7 +977,16 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 
   @Override
   public final void onWriteDemand(WebSocket conn) {
-    // nothing to do
+    // without an event loop the write thread takes the frames from the outQueue
+    SelectorTaskQueue tasks = selectorTasks;
+    if (tasks != null && conn == engine && engine.getSelectionKey() != null) {
+      tasks.requestWrite(engine);
+    }
+  }
+
+  @Override
+  public final void onWebsocketWritabilityChanged(WebSocket conn, boolean writable) {
+    onWritabilityChanged(this, writable);
   }
 
   @Override
@@ -746,16 +1032,18 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 
   @Override
   public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
-    if (socket != null) {
-      return (InetSocketAddress) socket.getLocalSocketAddress();
+    Socket s = getSocket();
+    if (s != null) {
+      return (InetSocketAddress) s.getLocalSocketAddress();
     }
     return null;
   }
 
   @Override
   public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
-    if (socket != null) {
-      return (InetSocketAddress) socket.getRemoteSocketAddress();
+    Socket s = getSocket();
+    if (s != null) {
+      return (InetSocketAddress) s.getRemoteSocketAddress();
     }
     return null;
   }
@@ -808,13 +1096,72 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     //To overwrite
   }
 
+  /**
+   * Called when a message starts which is delivered as a stream. Only used if the draft has {@link
+   * org.java_websocket.drafts.Draft_6455#setStreamingMessages(boolean) streaming messages} enabled,
+   * the message is then passed to {@link #onMessageFragment(ByteBuffer)} piece by piece instead of
+   * to <var>onMessage</var>.
+   *
+   * @param opcode {@link Opcode#TEXT} or {@link Opcode#BINARY}
+   * @see #onMessageEnd()
+   * @since 1.6.1
+   **/
+  public void onMessageStart(Opcode opcode) {
+    //To overwrite
+  }
+
+  /**
+   * Callback for the next part of a message which is delivered as a stream. The parts of a text
+   * message are UTF-8 encoded and a multibyte character may be split between two parts.
+   *
+   * @param fragment The received part, only valid until this method returns
+   * @see #onMessageStart(Opcode)
+   * @since 1.6.1
+   **/
+  public void onMessageFragment(ByteBuffer fragment) {
+    //To overwrite
+  }
+
+  /**
+   * Called when a message which is delivered as a stream is complete.
+   *
+   * @see #onMessageStart(Opcode)
+   * @since 1.6.1
+   **/
+  public void onMessageEnd() {
+    //To overwrite
+  }
+
+  /**
+   * Called when the buffered amount of this client crosses one of its write buffer water marks.
+   * The callback may be invoked by the thread sending data as well as by the write thread.
+   *
+   * @param conn     The <code>WebSocket</code> instance this event is occurring on.
+   * @param writable true, if the buffered amount dropped to the low water mark, false, if it
+   *                 exceeded the high water mark
+   * @see #isWritable()
+   * @see #setWriteBufferWaterMark(int, int)
+   * @since 1.6.1
+   */
+  public void onWritabilityChanged(WebSocket conn, boolean writable) {
+    //To overwrite
+  }
+
 
   private class WebsocketWriteThread implements Runnable {
 
     private final WebSocketClient webSocketClient;
 
+    /**
+     * The frames of the current batch which have not been written yet
+     */
+    private final byte[] batch;
+
+    private int batchLength = 0;
+
     WebsocketWriteThread(WebSocketClient webSocketClient) {
       this.webSocketClient = webSocketClient;
+      this.batch = new byte[writeBatchSize];
     }
 
     @Override
@@ -837,19 +1184,103 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     private void runWriteData() throws IOException {
       try {
         while (!Thread.interrupted()) {
-          ByteBuffer buffer = engine.outQueue.take();
-          ostream.write(buffer.array(), 0, buffer.limit());
-          ostream.flush();
+          writeBatch(engine.outQueue.take(), writeLinger);
         }
       } catch (InterruptedException e) {
-        for (ByteBuffer buffer : engine.outQueue) {
-          ostream.write(buffer.array(), 0, buffer.limit());
-          ostream.flush();
+        ByteBuffer buffer;
+        while ((buffer = engine.outQueue.poll()) != null) {
+          try {
+            writeBatch(buffer, 0);
+          } catch (InterruptedException ex) {
+            // unreachable without a linger
+          }
         }
         Thread.currentThread().interrupt();
       }
     }
 
+    /**
+     * Write <var>first</var> together with the frames queued behind it, up to the batch size, and
+     * flush once
+     *
+     * @param first  the first frame of the batch
+     * @param linger the time to wait for further frames if the queue runs empty
+     * @throws IOException          if write or flush did not work
+     * @throws InterruptedException if interrupted while lingering, the batch is flushed before
+     */
+    private void writeBatch(ByteBuffer first, long linger)
+        throws IOException, InterruptedException {
+      long amount = 0;
+      long deadline = linger > 0 ? System.nanoTime() + linger : 0;
+      ByteBuffer buffer = first;
+      try {
+        while (buffer != null) {
+          amount += buffer.remaining();
+          append(buffer);
+          if (amount >= batch.length) {
+            break;
+          }
+          buffer = engine.outQueue.poll();
+          if (buffer == null && linger > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+              buffer = engine.outQueue.poll(remaining, TimeUnit.NANOSECONDS);
+            }
+          }
+        }
+      } finally {
+        writePending();
+        ostream.flush();
+        engine.decreaseBufferedAmount(amount);
+      }
+    }
+
+    /**
+     * Copy a frame into the batch, frames which do not fit into an empty batch are written directly
+     *
+     * @param buffer the frame, its position is not changed
+     * @throws IOException if write did not work
+     */
+    private void append(ByteBuffer buffer) throws IOException {
+      int length = buffer.remaining();
+      if (length > batch.length - batchLength) {
+        writePending();
+      }
+      if (length > batch.length) {
+        if (buffer.hasArray()) {
+          ostream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        } else {
+          ByteBuffer chunk = buffer.duplicate();
+          while (chunk.hasRemaining()) {
+            int size = Math.min(chunk.remaining(), batch.length);
+            chunk.get(batch, 0, size);
+            ostream.write(batch, 0, size);
+          }
+        }
+        return;
+      }
+      if (buffer.hasArray()) {
+        System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position(), batch,
+            batchLength, length);
+      } else {
+        buffer.duplicate().get(batch, batchLength, length);
+      }
+      batchLength += length;
+    }
+
+    /**
+     * Hand the batch to the output stream without flushing it
+     *
+     * @throws IOException if write did not work
+     */
+    private void writePending() throws IOException {
+      if (batchLength > 0) {
+        int length = batchLength;
+        batchLength = 0;
+        ostream.write(batch, 0, length);
+      }
+    }
+
     /**
      * Closing the socket
      */
@@ -932,6 +1363,22 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
     return engine.hasBufferedData();
   }
 
+  @Override
+  public long getBufferedAmount() {
+    return engine.getBufferedAmount();
+  }
+
+  @Override
+  public boolean isWritable() {
+    return engine.isWritable();
+  }
+
+  @Override
+  public void setWriteBufferWaterMark(int low, int high) {
+    super.setWriteBufferWaterMark(low, high);
+    engine.setWriteBufferWaterMark(low, high);
+  }
+
   @Override
   public void close(int code) {
     engine.close(code);
@@ -979,11 +1426,14 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 
   @Override
   public boolean hasSSLSupport() {
-    return socket instanceof SSLSocket;
+    return socket instanceof SSLSocket || engine.hasSSLSupport();
   }
 
   @Override
   public SSLSession getSSLSession() {
+    if (engine.hasSSLSupport()) {
+      return engine.getSSLSession();
+    }
     if (!hasSSLSupport()) {
       throw new IllegalArgumentException(
           "This websocket uses ws instead of wss. No SSLSession available.");
@@ -1001,7 +1451,7 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
    *
    * @param e the IOException causing a eot.
    */
-  private void handleIOException(IOException e) {
+  void handleIOException(IOException e) {
     if (e instanceof SSLException) {
       onError(e);
     }
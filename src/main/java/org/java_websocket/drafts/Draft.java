@@ -42,6 +42,7 @@ import org.java_websocket.framing.BinaryFrame;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.ContinuousFrame;
 import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.FrameSink;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.TextFrame;
 import org.java_websocket.handshake.ClientHandshake;
@@ -192,6 +193,30 @@ public abstract class Draft {
 
   public abstract ByteBuffer createBinaryFrame(Framedata framedata);
 
+  /**
+   * Returns a key which identifies how this draft serializes outgoing frames. Drafts with equal keys
+   * create the same bytes for a frame, so a frame serialized once may be sent on the connections of
+   * all of them.
+   *
+   * @return the key or null, if frames have to be serialized for every connection
+   * @since 1.6.1
+   */
+  public Object getFrameEncodingKey() {
+    return null;
+  }
+
+  /**
+   * Returns a draft which serializes frames like this one, but shares no state with it. Frames for
+   * all connections with the same {@link #getFrameEncodingKey() frame encoding key} are serialized
+   * with such a copy, so the state of the connection which uses this draft is never touched.
+   *
+   * @return the copy or null, if frames have to be serialized for every connection
+   * @since 1.6.1
+   */
+  public Draft copyFrameEncoder() {
+    return null;
+  }
+
   public abstract List<Framedata> createFrames(ByteBuffer binary, boolean mask);
 
   public abstract List<Framedata> createFrames(String text, boolean mask);
@@ -303,6 +328,21 @@ public abstract class Draft {
 
   public abstract List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException;
 
+  /**
+   * Parse the frames of a received buffer and hand every complete frame to the sink. The default
+   * implementation passes on the result of {@link #translateFrame(ByteBuffer)}.
+   *
+   * @param buffer the received data
+   * @param sink   the receiver of the complete frames
+   * @throws InvalidDataException if a frame is invalid
+   * @since 1.6.1
+   */
+  public void translateFrame(ByteBuffer buffer, FrameSink sink) throws InvalidDataException {
+    for (Framedata frame : translateFrame(buffer)) {
+      sink.onFrame(frame);
+    }
+  }
+
   public abstract CloseHandshakeType getCloseHandshakeType();
 
   /**
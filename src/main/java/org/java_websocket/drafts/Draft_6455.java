@@ -25,26 +25,25 @@
 
 package org.java_websocket.drafts;
 
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
 import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
 import org.java_websocket.enums.CloseHandshakeType;
 import org.java_websocket.enums.HandshakeState;
 import org.java_websocket.enums.Opcode;
 import org.java_websocket.enums.ReadyState;
 import org.java_websocket.enums.Role;
-import org.java_websocket.exceptions.IncompleteException;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.exceptions.InvalidFrameException;
 import org.java_websocket.exceptions.InvalidHandshakeException;
@@ -54,6 +53,7 @@ import org.java_websocket.extensions.DefaultExtension;
 import org.java_websocket.extensions.IExtension;
 import org.java_websocket.framing.BinaryFrame;
 import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.FrameSink;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.FramedataImpl1;
 import org.java_websocket.framing.TextFrame;
@@ -65,6 +65,7 @@ import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.protocols.IProtocol;
 import org.java_websocket.protocols.Protocol;
 import org.java_websocket.util.Base64;
+import org.java_websocket.util.ByteBufferUtils;
 import org.java_websocket.util.Charsetfunctions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -153,9 +154,50 @@ public class Draft_6455 extends Draft {
   private final List<ByteBuffer> byteBufferList;
 
   /**
-   * Attribute for the current incomplete frame
+   * The part of the current frame the parser is waiting for
    */
-  private ByteBuffer incompleteframe;
+  private ParseState parseState = ParseState.HEADER;
+
+  /**
+   * The number of bytes still missing of the current header field
+   */
+  private int fieldRemaining = 2;
+
+  /**
+   * The bytes of the current header field which were read so far
+   */
+  private long fieldValue;
+
+  /**
+   * The first two bytes of the current frame
+   */
+  private int frameHeader;
+
+  /**
+   * The opcode of the current frame
+   */
+  private Opcode frameOpcode;
+
+  /**
+   * The payload length of the current frame
+   */
+  private int payloadLength;
+
+  /**
+   * The masking key of the current frame
+   */
+  private int maskKey;
+
+  /**
+   * The payload of the current frame if it spans several reads, otherwise null
+   */
+  private ByteBuffer incompletePayload;
+
+  /**
+   * The number of payload bytes of the current frame which were passed on as parts of a streamed
+   * message already
+   */
+  private int payloadDelivered;
 
   /**
    * Attribute for the reusable random instance
@@ -169,6 +211,34 @@ public class Draft_6455 extends Draft {
    */
   private int maxFrameSize;
 
+  /**
+   * Attribute whether complete data frames are delivered as slices of the read buffer
+   *
+   * @since 1.6.1
+   */
+  private boolean zeroCopyPayloads = false;
+
+  /**
+   * Attribute whether text and binary messages are passed to the listener frame by frame
+   *
+   * @since 1.6.1
+   */
+  private boolean streamingMessages = false;
+
+  /**
+   * Attribute for the opcode of the message which is currently streamed, null between messages
+   *
+   * @since 1.6.1
+   */
+  private Opcode streamingOpcode;
+
+  /**
+   * Attribute for the utf8 validation state of the text message which is currently streamed
+   *
+   * @since 1.6.1
+   */
+  private int streamingUtf8State;
+
   /**
    * Constructor for the websocket protocol specified by RFC 6455 with default extensions
    *
@@ -381,6 +451,65 @@ public class Draft_6455 extends Draft {
     return maxFrameSize;
   }
 
+  /**
+   * Deliver the payload of complete, uncompressed text and binary frames without copying it.
+   * <p>
+   * When enabled, such a frame is unmasked in place and its payload is a read-only slice of the
+   * buffer which was read from the socket. The slice is only valid for the duration of the
+   * onMessage callback, because the read buffer is reused afterwards: a listener which keeps the
+   * data has to copy it. Fragmented, compressed and control frames are always copied.
+   *
+   * @param zeroCopyPayloads whether the payload should be a slice of the read buffer
+   * @since 1.6.1
+   */
+  public void setZeroCopyPayloads(boolean zeroCopyPayloads) {
+    this.zeroCopyPayloads = zeroCopyPayloads;
+  }
+
+  /**
+   * @return whether payloads are delivered as slices of the read buffer
+   * @see #setZeroCopyPayloads(boolean)
+   * @since 1.6.1
+   */
+  public boolean isZeroCopyPayloads() {
+    return zeroCopyPayloads;
+  }
+
+  /**
+   * Pass text and binary messages to the listener as they are received instead of assembling them
+   * first.
+   * <p>
+   * When enabled, every text and binary message results in a call of
+   * {@link WebSocketListener#onWebsocketMessageStart(org.java_websocket.WebSocket, Opcode)}, one
+   * call of {@link WebSocketListener#onWebsocketMessageFragment(org.java_websocket.WebSocket,
+   * ByteBuffer)} per non-empty fragment and a call of
+   * {@link WebSocketListener#onWebsocketMessageEnd(org.java_websocket.WebSocket)}. The onMessage
+   * callbacks are not used. A frame which is not received at once is passed on in parts as they
+   * arrive, so a fragment holds at most the data of one read and the maximum frame size does not
+   * apply. Fragments are not retained by the draft, which is why the memory needed for a message
+   * is bounded by the read buffer and not by the size of the message or its frames. Frames which
+   * are compressed by an extension are the exception: they are decoded as a whole, so each of them
+   * is collected first and the maximum frame size still applies. With
+   * {@link #setZeroCopyPayloads(boolean)} a part is a slice of the read buffer which is only valid
+   * during the callback. Text messages are still validated, an invalid UTF-8 sequence closes the
+   * connection after the fragments before it have been delivered.
+   *
+   * @param streamingMessages whether messages should be passed on frame by frame
+   * @since 1.6.1
+   */
+  public void setStreamingMessages(boolean streamingMessages) {
+    this.streamingMessages = streamingMessages;
+  }
+
+  /**
+   * @return whether messages are passed to the listener frame by frame
+   * @see #setStreamingMessages(boolean)
+   * @since 1.6.1
+   */
+  public boolean isStreamingMessages() {
+    return streamingMessages;
+  }
+
   /**
    * Getter for all available protocols for this draft
    *
@@ -461,7 +590,10 @@ public class Draft_6455 extends Draft {
     for (IProtocol knownProtocol : getKnownProtocols()) {
       newProtocols.add(knownProtocol.copyInstance());
     }
-    return new Draft_6455(newExtensions, newProtocols, maxFrameSize);
+    Draft_6455 draft = new Draft_6455(newExtensions, newProtocols, maxFrameSize);
+    draft.setZeroCopyPayloads(zeroCopyPayloads);
+    draft.setStreamingMessages(streamingMessages);
+    return draft;
   }
 
   @Override
@@ -475,6 +607,36 @@ public class Draft_6455 extends Draft {
     return createByteBufferFromFramedata(framedata);
   }
 
+  @Override
+  public Object getFrameEncodingKey() {
+    IExtension extension = getExtension();
+    // frames of a client are masked with a random key
+    if (role != Role.SERVER || !(extension instanceof DefaultExtension)) {
+      return null;
+    }
+    Object extensionKey = ((DefaultExtension) extension).getFrameEncodingKey();
+    if (extensionKey == null) {
+      return null;
+    }
+    return Arrays.asList(getClass(), extensionKey);
+  }
+
+  @Override
+  public Draft copyFrameEncoder() {
+    if (getFrameEncodingKey() == null) {
+      return null;
+    }
+    Draft copy = copyInstance();
+    if (copy.getClass() != getClass()) {
+      // a subclass which does not copy itself may serialize frames differently
+      return null;
+    }
+    Draft_6455 encoder = (Draft_6455) copy;
+    encoder.setParseMode(role);
+    encoder.negotiatedExtension = getExtension().copyInstance();
+    return encoder;
+  }
+
   private ByteBuffer createByteBufferFromFramedata(Framedata framedata) {
     ByteBuffer mes = framedata.getPayloadData();
     boolean mask = role == Role.CLIENT;
@@ -509,12 +671,13 @@ public class Draft_6455 extends Draft {
       throw new IllegalStateException("Size representation not supported/specified");
     }
     if (mask) {
-      ByteBuffer maskkey = ByteBuffer.allocate(4);
-      maskkey.putInt(reuseableRandom.nextInt());
-      buf.put(maskkey.array());
-      for (int i = 0; mes.hasRemaining(); i++) {
-        buf.put((byte) (mes.get() ^ maskkey.get(i % 4)));
-      }
+      int maskKey = reuseableRandom.nextInt();
+      buf.putInt(maskKey);
+      // the frame buffer is ours, so the payload is copied first and masked in place
+      int payloadStart = buf.position();
+      int payloadLength = mes.remaining();
+      buf.put(mes);
+      ByteBufferUtils.mask(buf, payloadStart, payloadLength, maskKey);
     } else {
       buf.put(mes);
       //Reset the position of the bytebuffer e.g. for additional use
@@ -525,53 +688,297 @@ public class Draft_6455 extends Draft {
     return buf;
   }
 
-  private Framedata translateSingleFrame(ByteBuffer buffer)
-      throws IncompleteException, InvalidDataException {
-    if (buffer == null) {
+  /**
+   * Parse the frames of a received buffer and hand every complete frame to the sink.
+   * <p>
+   * The parser is resumable: a frame may be split at any byte across several buffers. The header
+   * state is kept between calls, the payload of a frame which spans several buffers is collected in
+   * a buffer of its announced size. With {@link #setStreamingMessages(boolean)} the payload of an
+   * uncompressed data frame is not collected, every received part of it is passed on as a frame of
+   * its own instead. The buffer is consumed completely.
+   *
+   * @param buffer the received data
+   * @param sink   the receiver of the complete frames
+   * @throws InvalidDataException if a frame is invalid, the frames before it were passed to the
+   *                              sink already
+   * @since 1.6.1
+   */
+  @Override
+  public void translateFrame(ByteBuffer buffer, FrameSink sink) throws InvalidDataException {
+    if (buffer == null || sink == null) {
       throw new IllegalArgumentException();
     }
-    int maxpacketsize = buffer.remaining();
-    int realpacketsize = 2;
-    translateSingleFrameCheckPacketSize(maxpacketsize, realpacketsize);
-    byte b1 = buffer.get(/*0*/);
-    boolean fin = b1 >> 8 != 0;
-    boolean rsv1 = (b1 & 0x40) != 0;
-    boolean rsv2 = (b1 & 0x20) != 0;
-    boolean rsv3 = (b1 & 0x10) != 0;
-    byte b2 = buffer.get(/*1*/);
-    boolean mask = (b2 & -128) != 0;
-    int payloadlength = (byte) (b2 & ~(byte) 128);
-    Opcode optcode = toOpcode((byte) (b1 & 15));
-
-    if (!(payloadlength >= 0 && payloadlength <= 125)) {
-      TranslatedPayloadMetaData payloadData = translateSingleFramePayloadLength(buffer, optcode,
-          payloadlength, maxpacketsize, realpacketsize);
-      payloadlength = payloadData.getPayloadLength();
-      realpacketsize = payloadData.getRealPackageSize();
-    }
-    translateSingleFrameCheckLengthLimit(payloadlength);
-    realpacketsize += (mask ? 4 : 0);
-    realpacketsize += payloadlength;
-    translateSingleFrameCheckPacketSize(maxpacketsize, realpacketsize);
-
-    ByteBuffer payload = ByteBuffer.allocate(checkAlloc(payloadlength));
-    if (mask) {
-      byte[] maskskey = new byte[4];
-      buffer.get(maskskey);
-      for (int i = 0; i < payloadlength; i++) {
-        payload.put((byte) (buffer.get(/*payloadstart + i*/) ^ maskskey[i % 4]));
+    while (true) {
+      switch (parseState) {
+        case HEADER:
+          if (!readField(buffer)) {
+            return;
+          }
+          onHeader((int) fieldValue);
+          break;
+        case EXTENDED_LENGTH:
+          if (!readField(buffer)) {
+            return;
+          }
+          onPayloadLength(fieldValue);
+          break;
+        case MASKING_KEY:
+          if (!readField(buffer)) {
+            return;
+          }
+          maskKey = (int) fieldValue;
+          parseState = ParseState.PAYLOAD;
+          break;
+        default:
+          if (!readPayload(buffer, sink)) {
+            return;
+          }
+          break;
       }
+    }
+  }
+
+  /**
+   * Read the bytes of the current header field which are available
+   *
+   * @param buffer the received data
+   * @return true, if the field is complete
+   */
+  private boolean readField(ByteBuffer buffer) {
+    while (fieldRemaining > 0) {
+      if (!buffer.hasRemaining()) {
+        return false;
+      }
+      fieldValue = (fieldValue << 8) | (buffer.get() & 0xFF);
+      fieldRemaining--;
+    }
+    return true;
+  }
+
+  /**
+   * Wait for the next header field
+   *
+   * @param state  the state of the field
+   * @param length the number of bytes of the field
+   */
+  private void expectField(ParseState state, int length) {
+    parseState = state;
+    fieldRemaining = length;
+    fieldValue = 0;
+  }
+
+  /**
+   * Process the first two bytes of a frame
+   *
+   * @param header the first byte in the high and the second byte in the low bits
+   * @throws InvalidFrameException if the opcode is unknown or a control frame is too large
+   * @throws LimitExceededException if the payload length exceeds the limit
+   */
+  private void onHeader(int header) throws InvalidFrameException, LimitExceededException {
+    frameHeader = header;
+    frameOpcode = toOpcode((byte) ((header >> 8) & 15));
+    int length = header & 0x7F;
+    if (length <= 125) {
+      onPayloadLength(length);
+      return;
+    }
+    if (frameOpcode == Opcode.PING || frameOpcode == Opcode.PONG
+        || frameOpcode == Opcode.CLOSING) {
+      log.trace("Invalid frame: more than 125 octets");
+      throw new InvalidFrameException("more than 125 octets");
+    }
+    expectField(ParseState.EXTENDED_LENGTH, length == 126 ? 2 : 8);
+  }
+
+  /**
+   * Process the complete payload length of a frame
+   *
+   * @param length the payload length
+   * @throws LimitExceededException if the payload length exceeds the limit
+   */
+  private void onPayloadLength(long length) throws LimitExceededException {
+    if (isStreamedFrame()) {
+      // the payload of a streamed frame is never collected, only the int range applies
+      checkPayloadLength(length, Integer.MAX_VALUE);
+    } else {
+      checkPayloadLength(length, maxFrameSize);
+    }
+    payloadLength = (int) length;
+    if ((frameHeader & 0x80) != 0) {
+      expectField(ParseState.MASKING_KEY, 4);
     } else {
-      payload.put(buffer.array(), buffer.position(), payload.limit());
-      buffer.position(buffer.position() + payload.limit());
+      maskKey = 0;
+      parseState = ParseState.PAYLOAD;
     }
+  }
+
+  /**
+   * Read the payload of the current frame and pass the frame on if it is complete
+   *
+   * @param buffer the received data
+   * @param sink   the receiver of the frame
+   * @return true, if the frame is complete
+   * @throws InvalidDataException if the frame is invalid
+   */
+  private boolean readPayload(ByteBuffer buffer, FrameSink sink) throws InvalidDataException {
+    boolean masked = (frameHeader & 0x80) != 0;
+    ByteBuffer payload;
+    if (payloadDelivered > 0 || (incompletePayload == null && buffer.remaining() < payloadLength
+        && isStreamedFrame())) {
+      return readPayloadPart(buffer, sink, masked);
+    } else if (incompletePayload == null && buffer.remaining() >= payloadLength) {
+      payload = takePayload(buffer, masked);
+    } else if (!buffer.hasRemaining()) {
+      // allocate the payload buffer not before its first byte arrives
+      return false;
+    } else {
+      if (incompletePayload == null) {
+        incompletePayload = ByteBuffer.allocate(checkAlloc(payloadLength));
+      }
+      ByteBuffer source = buffer.duplicate();
+      source.limit(source.position() + Math.min(source.remaining(), incompletePayload.remaining()));
+      incompletePayload.put(source);
+      buffer.position(source.position());
+      if (incompletePayload.hasRemaining()) {
+        return false;
+      }
+      payload = incompletePayload;
+      incompletePayload = null;
+      if (masked) {
+        ByteBufferUtils.mask(payload, 0, payloadLength, maskKey);
+      }
+      payload.flip();
+    }
+    // the payload is consumed, so the next frame starts here even if this one is invalid
+    expectField(ParseState.HEADER, 2);
+    sink.onFrame(createFrame(frameHeader, frameOpcode, payload));
+    return true;
+  }
+
+  /**
+   * Pass the received part of the payload of a streamed frame on as a frame of its own
+   * <p>
+   * The first part keeps the opcode of the frame, the following parts are continuous frames. Only
+   * the last part keeps the fin bit, so the listener sees the parts as fragments of the message.
+   *
+   * @param buffer the received data
+   * @param sink   the receiver of the part
+   * @param masked whether the payload is masked
+   * @return true, if the frame is complete
+   * @throws InvalidDataException if the part is invalid
+   */
+  private boolean readPayloadPart(ByteBuffer buffer, FrameSink sink, boolean masked)
+      throws InvalidDataException {
+    if (!buffer.hasRemaining()) {
+      return false;
+    }
+    int length = Math.min(buffer.remaining(), payloadLength - payloadDelivered);
+    // the key is rotated, so the part is unmasked as if it started at the beginning of the frame
+    int partKey = Integer.rotateLeft(maskKey, 8 * (payloadDelivered % 4));
+    ByteBuffer source = buffer.duplicate();
+    source.limit(source.position() + length);
+    ByteBuffer payload;
+    if (zeroCopyPayloads && !buffer.isReadOnly()) {
+      if (masked) {
+        ByteBufferUtils.mask(buffer, buffer.position(), length, partKey);
+      }
+      payload = source.slice().asReadOnlyBuffer();
+    } else {
+      payload = ByteBuffer.allocate(length);
+      payload.put(source);
+      if (masked) {
+        ByteBufferUtils.mask(payload, 0, length, partKey);
+      }
+      payload.flip();
+    }
+    buffer.position(source.limit());
+    Opcode opcode = payloadDelivered == 0 ? frameOpcode : Opcode.CONTINUOUS;
+    payloadDelivered += length;
+    int header = frameHeader;
+    boolean complete = payloadDelivered == payloadLength;
+    if (complete) {
+      payloadDelivered = 0;
+      expectField(ParseState.HEADER, 2);
+    } else {
+      header &= ~0x8000;
+    }
+    sink.onFrame(createFrame(header, opcode, payload));
+    return complete;
+  }
 
-    FramedataImpl1 frame = FramedataImpl1.get(optcode);
-    frame.setFin(fin);
-    frame.setRSV1(rsv1);
-    frame.setRSV2(rsv2);
-    frame.setRSV3(rsv3);
-    payload.flip();
+  /**
+   * Check if the payload of the current frame is passed on in parts as it is received
+   * <p>
+   * This applies to the text and binary frames of a streamed message which is not encoded by an
+   * extension, encoded frames have to be decoded as a whole.
+   *
+   * @return true, if the payload is not collected
+   */
+  private boolean isStreamedFrame() {
+    if (!streamingMessages || (frameHeader & 0x7000) != 0) {
+      return false;
+    }
+    if (frameOpcode == Opcode.TEXT || frameOpcode == Opcode.BINARY) {
+      return true;
+    }
+    return frameOpcode == Opcode.CONTINUOUS && (currentDecodingExtension == null
+        || currentDecodingExtension == defaultExtension);
+  }
+
+  /**
+   * Take the whole payload of the current frame from the received buffer
+   *
+   * @param buffer the received data, contains at least the payload
+   * @param masked whether the payload is masked
+   * @return the unmasked payload
+   * @throws InvalidDataException if the payload cannot be allocated
+   */
+  private ByteBuffer takePayload(ByteBuffer buffer, boolean masked)
+      throws InvalidDataException {
+    boolean fin = (frameHeader & 0x8000) != 0;
+    boolean rsv = (frameHeader & 0x7000) != 0;
+    ByteBuffer payload;
+    if (zeroCopyPayloads && fin && !rsv && !buffer.isReadOnly() && (
+        frameOpcode == Opcode.BINARY || frameOpcode == Opcode.TEXT)) {
+      // the read buffer is owned by the connection, so the payload is unmasked where it is
+      if (masked) {
+        ByteBufferUtils.mask(buffer, buffer.position(), payloadLength, maskKey);
+      }
+      ByteBuffer source = buffer.duplicate();
+      source.limit(source.position() + payloadLength);
+      payload = source.slice().asReadOnlyBuffer();
+      buffer.position(source.limit());
+    } else {
+      payload = ByteBuffer.allocate(checkAlloc(payloadLength));
+      ByteBuffer source = buffer.duplicate();
+      source.limit(source.position() + payload.limit());
+      payload.put(source);
+      buffer.position(source.position());
+      if (masked) {
+        // unmask the copy in place, the received buffer is left untouched
+        ByteBufferUtils.mask(payload, 0, payloadLength, maskKey);
+      }
+      payload.flip();
+    }
+    return payload;
+  }
+
+  /**
+   * Create and validate a received frame
+   *
+   * @param header  the first two bytes of the frame
+   * @param opcode  the opcode of the frame
+   * @param payload the unmasked payload
+   * @return the decoded frame
+   * @throws InvalidDataException if the frame is invalid
+   */
+  private Framedata createFrame(int header, Opcode opcode, ByteBuffer payload)
+      throws InvalidDataException {
+    FramedataImpl1 frame = FramedataImpl1.get(opcode);
+    frame.setFin((header & 0x8000) != 0);
+    frame.setRSV1((header & 0x4000) != 0);
+    frame.setRSV2((header & 0x2000) != 0);
+    frame.setRSV3((header & 0x1000) != 0);
     frame.setPayload(payload);
     if (frame.getOpcode() != Opcode.CONTINUOUS) {
       // Prioritize the negotiated extension
@@ -590,69 +997,28 @@ public class Draft_6455 extends Draft {
     if (log.isTraceEnabled()) {
       log.trace("afterDecoding({}): {}", frame.getPayloadData().remaining(),
           (frame.getPayloadData().remaining() > 1000 ? "too big to display"
-              : new String(frame.getPayloadData().array())));
+              : frame.getPayloadData().isReadOnly() ? "read-only slice"
+                  : new String(frame.getPayloadData().array())));
     }
     frame.isValid();
     return frame;
   }
 
   /**
-   * Translate the buffer depending when it has an extended payload length (126 or 127)
+   * Check if the payload length exceeds the allowed limit
    *
-   * @param buffer            the buffer to read from
-   * @param optcode           the decoded optcode
-   * @param oldPayloadlength  the old payload length
-   * @param maxpacketsize     the max packet size allowed
-   * @param oldRealpacketsize the real packet size
-   * @return the new payload data containing new payload length and new packet size
-   * @throws InvalidFrameException  thrown if a control frame has an invalid length
-   * @throws IncompleteException    if the maxpacketsize is smaller than the realpackagesize
+   * @param length the payload length
+   * @param limit  the maximum payload length
    * @throws LimitExceededException if the payload length is to big
    */
-  private TranslatedPayloadMetaData translateSingleFramePayloadLength(ByteBuffer buffer,
-      Opcode optcode, int oldPayloadlength, int maxpacketsize, int oldRealpacketsize)
-      throws InvalidFrameException, IncompleteException, LimitExceededException {
-    int payloadlength = oldPayloadlength;
-    int realpacketsize = oldRealpacketsize;
-    if (optcode == Opcode.PING || optcode == Opcode.PONG || optcode == Opcode.CLOSING) {
-      log.trace("Invalid frame: more than 125 octets");
-      throw new InvalidFrameException("more than 125 octets");
-    }
-    if (payloadlength == 126) {
-      realpacketsize += 2; // additional length bytes
-      translateSingleFrameCheckPacketSize(maxpacketsize, realpacketsize);
-      byte[] sizebytes = new byte[3];
-      sizebytes[1] = buffer.get(/*1 + 1*/);
-      sizebytes[2] = buffer.get(/*1 + 2*/);
-      payloadlength = new BigInteger(sizebytes).intValue();
-    } else {
-      realpacketsize += 8; // additional length bytes
-      translateSingleFrameCheckPacketSize(maxpacketsize, realpacketsize);
-      byte[] bytes = new byte[8];
-      for (int i = 0; i < 8; i++) {
-        bytes[i] = buffer.get(/*1 + i*/);
-      }
-      long length = new BigInteger(bytes).longValue();
-      translateSingleFrameCheckLengthLimit(length);
-      payloadlength = (int) length;
-    }
-    return new TranslatedPayloadMetaData(payloadlength, realpacketsize);
-  }
-
-  /**
-   * Check if the frame size exceeds the allowed limit
-   *
-   * @param length the current payload length
-   * @throws LimitExceededException if the payload length is to big
-   */
-  private void translateSingleFrameCheckLengthLimit(long length) throws LimitExceededException {
+  private void checkPayloadLength(long length, int limit) throws LimitExceededException {
     if (length > Integer.MAX_VALUE) {
       log.trace("Limit exedeed: Payloadsize is to big...");
       throw new LimitExceededException("Payloadsize is to big...");
     }
-    if (length > maxFrameSize) {
-      log.trace("Payload limit reached. Allowed: {} Current: {}", maxFrameSize, length);
-      throw new LimitExceededException("Payload limit reached.", maxFrameSize);
+    if (length > limit) {
+      log.trace("Payload limit reached. Allowed: {} Current: {}", limit, length);
+      throw new LimitExceededException("Payload limit reached.", limit);
     }
     if (length < 0) {
       log.trace("Limit underflow: Payloadsize is to little...");
@@ -660,21 +1026,6 @@ public class Draft_6455 extends Draft {
     }
   }
 
-  /**
-   * Check if the max packet size is smaller than the real packet size
-   *
-   * @param maxpacketsize  the max packet size
-   * @param realpacketsize the real packet size
-   * @throws IncompleteException if the maxpacketsize is smaller than the realpackagesize
-   */
-  private void translateSingleFrameCheckPacketSize(int maxpacketsize, int realpacketsize)
-      throws IncompleteException {
-    if (maxpacketsize < realpacketsize) {
-      log.trace("Incomplete frame: maxpacketsize < realpacketsize");
-      throw new IncompleteException(realpacketsize);
-    }
-  }
-
   /**
    * Get a byte that can set RSV bits when OR(|)'d. 0 1 2 3 4 5 6 7 +-+-+-+-+-------+ |F|R|R|R|
    * opcode| |I|S|S|S|  (4)  | |N|V|V|V|       | | |1|2|3|       |
@@ -722,56 +1073,14 @@ public class Draft_6455 extends Draft {
 
   @Override
   public List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException {
-    while (true) {
-      List<Framedata> frames = new LinkedList<>();
-      Framedata cur;
-      if (incompleteframe != null) {
-        // complete an incomplete frame
-        try {
-          buffer.mark();
-          int availableNextByteCount = buffer.remaining();// The number of bytes received
-          int expectedNextByteCount = incompleteframe
-              .remaining();// The number of bytes to complete the incomplete frame
-
-          if (expectedNextByteCount > availableNextByteCount) {
-            // did not receive enough bytes to complete the frame
-            incompleteframe.put(buffer.array(), buffer.position(), availableNextByteCount);
-            buffer.position(buffer.position() + availableNextByteCount);
-            return Collections.emptyList();
-          }
-          incompleteframe.put(buffer.array(), buffer.position(), expectedNextByteCount);
-          buffer.position(buffer.position() + expectedNextByteCount);
-          cur = translateSingleFrame((ByteBuffer) incompleteframe.duplicate().position(0));
-          frames.add(cur);
-          incompleteframe = null;
-        } catch (IncompleteException e) {
-          // extending as much as suggested
-          ByteBuffer extendedframe = ByteBuffer.allocate(checkAlloc(e.getPreferredSize()));
-          assert (extendedframe.limit() > incompleteframe.limit());
-          incompleteframe.rewind();
-          extendedframe.put(incompleteframe);
-          incompleteframe = extendedframe;
-          continue;
-        }
+    final List<Framedata> frames = new ArrayList<>();
+    translateFrame(buffer, new FrameSink() {
+      @Override
+      public void onFrame(Framedata frame) {
+        frames.add(frame);
       }
-
-      // Read as much as possible full frames
-      while (buffer.hasRemaining()) {
-        buffer.mark();
-        try {
-          cur = translateSingleFrame(buffer);
-          frames.add(cur);
-        } catch (IncompleteException e) {
-          // remember the incomplete data
-          buffer.reset();
-          int pref = e.getPreferredSize();
-          incompleteframe = ByteBuffer.allocate(checkAlloc(pref));
-          incompleteframe.put(buffer);
-          break;
-        }
-      }
-      return frames;
-    }
+    });
+    return frames;
   }
 
   @Override
@@ -802,7 +1111,10 @@ public class Draft_6455 extends Draft {
 
   @Override
   public void reset() {
-    incompleteframe = null;
+    expectField(ParseState.HEADER, 2);
+    incompletePayload = null;
+    payloadDelivered = 0;
+    streamingOpcode = null;
     if (negotiatedExtension != null) {
       negotiatedExtension.reset();
     }
@@ -900,6 +1212,9 @@ public class Draft_6455 extends Draft {
     } else if (curop == Opcode.PONG) {
       webSocketImpl.updateLastPong();
       webSocketImpl.getWebSocketListener().onWebsocketPong(webSocketImpl, frame);
+    } else if (streamingMessages && (curop == Opcode.TEXT || curop == Opcode.BINARY
+        || curop == Opcode.CONTINUOUS)) {
+      processFrameStreaming(webSocketImpl, frame, curop);
     } else if (!frame.isFin() || curop == Opcode.CONTINUOUS) {
       processFrameContinuousAndNonFin(webSocketImpl, frame, curop);
     } else if (currentContinuousFrame != null) {
@@ -947,6 +1262,61 @@ public class Draft_6455 extends Draft {
     }
   }
 
+  /**
+   * Pass the payload of a data frame to the listener without assembling the message
+   *
+   * @param webSocketImpl the websocket implementation to use
+   * @param frame         the current frame
+   * @param curop         the current Opcode
+   * @throws InvalidDataException if there is a protocol error or the text is not valid utf8
+   */
+  private void processFrameStreaming(WebSocketImpl webSocketImpl, Framedata frame, Opcode curop)
+      throws InvalidDataException {
+    WebSocketListener listener = webSocketImpl.getWebSocketListener();
+    if (curop == Opcode.CONTINUOUS) {
+      if (streamingOpcode == null) {
+        log.error("Protocol error: Continuous frame sequence was not started.");
+        throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR,
+            "Continuous frame sequence was not started.");
+      }
+    } else {
+      if (streamingOpcode != null) {
+        log.error("Protocol error: Continuous frame sequence not completed.");
+        throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR,
+            "Continuous frame sequence not completed.");
+      }
+      streamingOpcode = curop;
+      streamingUtf8State = Charsetfunctions.UTF8_ACCEPT;
+      try {
+        listener.onWebsocketMessageStart(webSocketImpl, curop);
+      } catch (RuntimeException e) {
+        logRuntimeException(webSocketImpl, e);
+      }
+    }
+    ByteBuffer payload = frame.getPayloadData();
+    if (streamingOpcode == Opcode.TEXT) {
+      streamingUtf8State = Charsetfunctions.updateUTF8State(streamingUtf8State, payload);
+      if (streamingUtf8State == Charsetfunctions.UTF8_REJECT || (frame.isFin()
+          && streamingUtf8State != Charsetfunctions.UTF8_ACCEPT)) {
+        log.error("Protocol error: Payload is not UTF8");
+        throw new InvalidDataException(CloseFrame.NO_UTF8);
+      }
+    }
+    if (frame.isFin()) {
+      streamingOpcode = null;
+    }
+    try {
+      if (payload.hasRemaining()) {
+        listener.onWebsocketMessageFragment(webSocketImpl, payload);
+      }
+      if (frame.isFin()) {
+        listener.onWebsocketMessageEnd(webSocketImpl);
+      }
+    } catch (RuntimeException e) {
+      logRuntimeException(webSocketImpl, e);
+    }
+  }
+
   /**
    * Process the frame if it is a binary frame
    *
@@ -1192,22 +1562,10 @@ public class Draft_6455 extends Draft {
     return totalSize;
   }
 
-  private class TranslatedPayloadMetaData {
-
-    private int payloadLength;
-    private int realPackageSize;
-
-    private int getPayloadLength() {
-      return payloadLength;
-    }
-
-    private int getRealPackageSize() {
-      return realPackageSize;
-    }
-
-    TranslatedPayloadMetaData(int newPayloadLength, int newRealPackageSize) {
-      this.payloadLength = newPayloadLength;
-      this.realPackageSize = newRealPackageSize;
-    }
+  /**
+   * The parts of a frame in the order they are received
+   */
+  private enum ParseState {
+    HEADER, EXTENDED_LENGTH, MASKING_KEY, PAYLOAD
   }
 }
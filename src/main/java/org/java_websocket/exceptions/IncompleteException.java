@@ -27,7 +27,10 @@ package org.java_websocket.exceptions;
 
 /**
  * Exception which indicates that the frame is not yet complete
+ *
+ * @deprecated Draft_6455 parses frames incrementally and no longer throws this exception
  */
+@Deprecated
 public class IncompleteException extends Exception {
 
   /**
@@ -86,6 +86,20 @@ public class DefaultExtension implements IExtension {
     //Nothing to do here. No internal stats.
   }
 
+  /**
+   * Returns a key which identifies how this extension encodes frames. Extensions with equal keys
+   * encode a frame to the same bytes and keep no state between messages, so a frame encoded by one
+   * of them may be sent on the connections of the others.
+   * <p>
+   * Subclasses are excluded unless they override this method.
+   *
+   * @return the key or null, if the encoding depends on the state of this instance
+   * @since 1.6.1
+   */
+  public Object getFrameEncodingKey() {
+    return getClass() == DefaultExtension.class ? DefaultExtension.class : null;
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName();
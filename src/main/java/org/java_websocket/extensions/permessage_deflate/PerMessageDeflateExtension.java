@@ -2,6 +2,7 @@ package org.java_websocket.extensions.permessage_deflate;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.zip.DataFormatException;
@@ -221,16 +222,27 @@ public class PerMessageDeflateExtension extends CompressionExtension {
       return;
     }
 
-    byte[] payloadData = inputFrame.getPayloadData().array();
-    if (payloadData.length < threshold) {
+    ByteBuffer payload = inputFrame.getPayloadData();
+    if (payload.remaining() < threshold) {
       return;
     }
+    byte[] payloadData;
+    int payloadOffset;
+    if (payload.hasArray()) {
+      payloadData = payload.array();
+      payloadOffset = payload.arrayOffset() + payload.position();
+    } else {
+      // read-only and direct buffers do not expose their content as an array
+      payloadData = new byte[payload.remaining()];
+      payload.duplicate().get(payloadData);
+      payloadOffset = 0;
+    }
     // Only the first frame's RSV1 must be set.
     if (!(inputFrame instanceof ContinuousFrame)) {
       ((DataFrame) inputFrame).setRSV1(true);
     }
 
-    deflater.setInput(payloadData);
+    deflater.setInput(payloadData, payloadOffset, payload.remaining());
     // Compressed output buffer.
     ByteArrayOutputStream output = new ByteArrayOutputStream();
     // Temporary buffer to hold compressed output.
@@ -339,6 +351,18 @@ public class PerMessageDeflateExtension extends CompressionExtension {
         + (clientNoContextTakeover ? "; " + CLIENT_NO_CONTEXT_TAKEOVER : "");
   }
 
+  /**
+   * Without context takeover every message is compressed on its own, so the result only depends
+   * on the compression level and the threshold.
+   */
+  @Override
+  public Object getFrameEncodingKey() {
+    if (!serverNoContextTakeover) {
+      return null;
+    }
+    return Arrays.asList(getClass(), compressionLevel, threshold);
+  }
+
   @Override
   public IExtension copyInstance() {
     PerMessageDeflateExtension clone = new PerMessageDeflateExtension(this.getCompressionLevel());
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which limits the rate at which new connections are accepted. It is only used by
+ * the selector thread and therefore not thread-safe.
+ *
+ * @since 1.6.1
+ */
+final class AcceptRateLimiter {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final int rate;
+  private final int capacity;
+
+  /**
+   * The time up to which the tokens are used up. The bucket holds one token per elapsed token
+   * interval since then, up to its capacity.
+   */
+  private long consumedUntil;
+
+  /**
+   * @param rate     the number of accepts per second
+   * @param capacity the number of accepts which may happen in a burst
+   * @param now      the current {@link System#nanoTime() time}, the bucket starts full
+   */
+  AcceptRateLimiter(int rate, int capacity, long now) {
+    if (rate < 1 || capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.rate = rate;
+    this.capacity = capacity;
+    this.consumedUntil = now - capacity * nanosPerToken();
+  }
+
+  /**
+   * Take a token if one is available
+   *
+   * @param now the current {@link System#nanoTime() time}
+   * @return true, if a token was taken
+   */
+  boolean tryAcquire(long now) {
+    long earliest = now - capacity * nanosPerToken();
+    if (consumedUntil < earliest) {
+      consumedUntil = earliest;
+    }
+    long next = consumedUntil + nanosPerToken();
+    if (next > now) {
+      return false;
+    }
+    consumedUntil = next;
+    return true;
+  }
+
+  /**
+   * Return a token which was taken but not used
+   */
+  void refund() {
+    consumedUntil -= nanosPerToken();
+  }
+
+  /**
+   * @param now the current {@link System#nanoTime() time}
+   * @return the nanoseconds until the next token is available, 0 if there is one
+   */
+  long nanosUntilAvailable(long now) {
+    return Math.max(0, consumedUntil + nanosPerToken() - now);
+  }
+
+  int getRate() {
+    return rate;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  private long nanosPerToken() {
+    return Math.max(1, NANOS_PER_SECOND / rate);
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the partitions of broadcasts on a pool of threads.
+ * <p>
+ * Every partition has a lane which runs its tasks one after the other in submission order. A
+ * connection always belongs to the same partition, so it receives the broadcasts in the order in
+ * which they were started although different partitions are served in parallel.
+ *
+ * @since 1.6.1
+ */
+final class BroadcastExecutor {
+
+  private final Logger log = LoggerFactory.getLogger(BroadcastExecutor.class);
+
+  private final ExecutorService pool;
+
+  private final Lane[] lanes;
+
+  /**
+   * The number of submitted tasks which are not finished yet
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * Set for the threads while they run a task of a lane
+   */
+  private final ThreadLocal<Boolean> inLane = new ThreadLocal<>();
+
+  /**
+   * @param laneCount     the number of partitions, a power of two
+   * @param threadFactory the factory for the threads of the pool
+   */
+  BroadcastExecutor(int laneCount, ThreadFactory threadFactory) {
+    if (laneCount < 1 || Integer.bitCount(laneCount) != 1) {
+      throw new IllegalArgumentException("laneCount must be a power of two");
+    }
+    lanes = new Lane[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      lanes[i] = new Lane();
+    }
+    pool = Executors.newFixedThreadPool(laneCount, threadFactory);
+  }
+
+  int getLaneCount() {
+    return lanes.length;
+  }
+
+  /**
+   * @return true, if no submitted task is waiting or running
+   */
+  boolean isIdle() {
+    return pending.get() == 0;
+  }
+
+  /**
+   * @return true, if the calling thread currently runs a task of this executor
+   */
+  boolean isLaneThread() {
+    return inLane.get() != null;
+  }
+
+  /**
+   * Run <var>task</var> after all tasks which were submitted to the same lane before
+   *
+   * @param lane the lane of the partition
+   * @param task the task to run
+   */
+  void execute(int lane, Runnable task) {
+    pending.incrementAndGet();
+    lanes[lane].add(task);
+  }
+
+  /**
+   * Shut the pool down after the submitted tasks are run, later tasks are run by the caller
+   */
+  void shutdown() {
+    pool.shutdown();
+  }
+
+  private final class Lane implements Runnable {
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    void add(Runnable task) {
+      tasks.add(task);
+      schedule();
+    }
+
+    private void schedule() {
+      if (!scheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        pool.execute(this);
+      } catch (RejectedExecutionException e) {
+        // the server is stopped, the caller has to do the work
+        run();
+      }
+    }
+
+    @Override
+    public void run() {
+      inLane.set(Boolean.TRUE);
+      try {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            log.error("Exception during broadcast", e);
+          } finally {
+            pending.decrementAndGet();
+          }
+        }
+      } finally {
+        inLane.remove();
+        scheduled.set(false);
+      }
+      // a task may have been added after the queue was found empty
+      if (!tasks.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+}
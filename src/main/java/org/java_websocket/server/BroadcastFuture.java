@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The completion of a broadcast which is split into partitions. It is done once every partition
+ * queued the message for all of its recipients.
+ *
+ * @since 1.6.1
+ */
+final class BroadcastFuture implements Future<Void> {
+
+  private final AtomicInteger remaining;
+
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+  /**
+   * @param partitions the number of partitions which have to finish
+   */
+  BroadcastFuture(int partitions) {
+    remaining = new AtomicInteger(partitions);
+    if (partitions == 0) {
+      done.countDown();
+    }
+  }
+
+  /**
+   * Called by each partition when it queued the message for all its recipients
+   */
+  void partitionDone() {
+    if (remaining.decrementAndGet() == 0) {
+      done.countDown();
+    }
+  }
+
+  /**
+   * Remember the first exception which was thrown while queueing the message
+   *
+   * @param e the exception
+   */
+  void fail(RuntimeException e) {
+    failure.compareAndSet(null, e);
+  }
+
+  /**
+   * Wait for the broadcast without being interruptible and throw its failure, if any
+   */
+  void join() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    RuntimeException e = failure.get();
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public Void get() throws InterruptedException, ExecutionException {
+    done.await();
+    return result();
+  }
+
+  @Override
+  public Void get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return result();
+  }
+
+  private Void result() throws ExecutionException {
+    RuntimeException e = failure.get();
+    if (e != null) {
+      throw new ExecutionException(e);
+    }
+    return null;
+  }
+}
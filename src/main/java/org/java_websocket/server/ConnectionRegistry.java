@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.java_websocket.WebSocket;
+
+/**
+ * A concurrent set of connections which is split into independently locked shards.
+ * <p>
+ * Adding and removing a connection only locks the shard of its {@link WebSocket#getId() id} and
+ * takes constant time. Reads never lock: {@link #contains(Object)} and {@link #get(long)} probe a
+ * single shard, iteration walks the shards without copying them. Iteration is weakly consistent,
+ * it reflects every connection which is registered for the whole iteration and may or may not
+ * reflect concurrent changes. {@link #forEachConnection(ConnectionVisitor)} iterates without any
+ * allocation.
+ * <p>
+ * This is the default connection container of the {@link WebSocketServer}, it needs no external
+ * synchronization.
+ *
+ * @since 1.6.1
+ */
+public class ConnectionRegistry extends AbstractSet<WebSocket> {
+
+  /**
+   * Receives the connections of {@link #forEachConnection(ConnectionVisitor)}
+   *
+   * @since 1.6.1
+   */
+  public interface ConnectionVisitor {
+
+    /**
+     * Called once for every visited connection
+     *
+     * @param conn the connection
+     */
+    void visit(WebSocket conn);
+  }
+
+  /**
+   * Marks a slot whose connection was removed, so that probing continues past it
+   */
+  private static final Object TOMBSTONE = new Object();
+
+  private static final int INITIAL_SHARD_CAPACITY = 16;
+
+  private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+  private final Shard[] shards;
+
+  /**
+   * Creates a registry with four shards per available processor
+   */
+  public ConnectionRegistry() {
+    this(4 * AVAILABLE_PROCESSORS);
+  }
+
+  /**
+   * @param shardCount the number of shards, rounded up to the next power of two
+   */
+  public ConnectionRegistry(int shardCount) {
+    if (shardCount < 1 || shardCount > 1 << 16) {
+      throw new IllegalArgumentException("shardCount must be between 1 and 65536");
+    }
+    int count = Integer.highestOneBit(shardCount - 1) << 1;
+    if (shardCount == 1) {
+      count = 1;
+    }
+    shards = new Shard[count];
+    for (int i = 0; i < count; i++) {
+      shards[i] = new Shard();
+    }
+  }
+
+  @Override
+  public boolean add(WebSocket conn) {
+    long id = conn.getId();
+    return shardFor(id).add(conn, id);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!(o instanceof WebSocket)) {
+      return false;
+    }
+    WebSocket conn = (WebSocket) o;
+    long id = conn.getId();
+    return shardFor(id).remove(conn, id);
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof WebSocket)) {
+      return false;
+    }
+    WebSocket conn = (WebSocket) o;
+    return get(conn.getId()) == conn;
+  }
+
+  /**
+   * Get a registered connection by its id
+   *
+   * @param id the {@link WebSocket#getId() id} of the connection
+   * @return the connection or null, if no connection with this id is registered
+   */
+  public WebSocket get(long id) {
+    return shardFor(id).get(id);
+  }
+
+  /**
+   * Visit all registered connections without allocating an iterator
+   *
+   * @param visitor the visitor to call for every connection
+   */
+  public void forEachConnection(ConnectionVisitor visitor) {
+    forEachConnection(0, 1, visitor);
+  }
+
+  /**
+   * Visit the connections of one partition without allocating an iterator. Every connection
+   * belongs to the partition {@link #partitionOf(long, int)} of its id, so the partitions may be
+   * visited by different threads.
+   *
+   * @param partition  the partition to visit
+   * @param partitions the number of partitions, a power of two which is not larger than the number
+   *                   of shards
+   * @param visitor    the visitor to call for every connection of the partition
+   */
+  public void forEachConnection(int partition, int partitions, ConnectionVisitor visitor) {
+    if (partitions < 1 || partitions > shards.length || Integer.bitCount(partitions) != 1
+        || partition < 0 || partition >= partitions) {
+      throw new IllegalArgumentException("invalid partition " + partition + " of " + partitions);
+    }
+    for (int s = partition; s < shards.length; s += partitions) {
+      AtomicReferenceArray<Object> table = shards[s].table;
+      for (int i = 0; i < table.length(); i++) {
+        Object o = table.get(i);
+        if (o != null && o != TOMBSTONE) {
+          visitor.visit((WebSocket) o);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the partition of a connection. The result does not depend on the number of shards.
+   *
+   * @param id         the {@link WebSocket#getId() id} of the connection
+   * @param partitions the number of partitions, a power of two
+   * @return the partition between 0 and <var>partitions</var> - 1
+   */
+  public static int partitionOf(long id, int partitions) {
+    return (int) (hash(id) >>> 32) & (partitions - 1);
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.size;
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Shard shard : shards) {
+      if (shard.size != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Iterator<WebSocket> iterator() {
+    return new RegistryIterator();
+  }
+
+  /**
+   * @return the number of shards
+   */
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  private Shard shardFor(long id) {
+    return shards[partitionOf(id, shards.length)];
+  }
+
+  private static long hash(long id) {
+    return id * 0x9E3779B97F4A7C15L;
+  }
+
+  /**
+   * An open addressing hash table with linear probing. Writers are serialized by the monitor of
+   * the shard and never set a slot of a published table back to null, so readers may probe
+   * without locking.
+   */
+  private static final class Shard {
+
+    private volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<>(
+        INITIAL_SHARD_CAPACITY);
+
+    /**
+     * The number of registered connections
+     */
+    private volatile int size;
+
+    /**
+     * The number of slots which are not null, guarded by the monitor
+     */
+    private int used;
+
+    WebSocket get(long id) {
+      AtomicReferenceArray<Object> t = table;
+      int mask = t.length() - 1;
+      for (int i = (int) hash(id) & mask; ; i = (i + 1) & mask) {
+        Object o = t.get(i);
+        if (o == null) {
+          return null;
+        }
+        if (o != TOMBSTONE && ((WebSocket) o).getId() == id) {
+          return (WebSocket) o;
+        }
+      }
+    }
+
+    synchronized boolean add(WebSocket conn, long id) {
+      AtomicReferenceArray<Object> t = table;
+      int mask = t.length() - 1;
+      int free = -1;
+      int i = (int) hash(id) & mask;
+      for (Object o; (o = t.get(i)) != null; i = (i + 1) & mask) {
+        if (o == TOMBSTONE) {
+          if (free < 0) {
+            free = i;
+          }
+        } else if (((WebSocket) o).getId() == id) {
+          return false;
+        }
+      }
+      if (free < 0) {
+        free = i;
+        used++;
+      }
+      t.set(free, conn);
+      size++;
+      if (used * 4 >= t.length() * 3) {
+        rehash();
+      }
+      return true;
+    }
+
+    synchronized boolean remove(WebSocket conn, long id) {
+      AtomicReferenceArray<Object> t = table;
+      int mask = t.length() - 1;
+      for (int i = (int) hash(id) & mask; ; i = (i + 1) & mask) {
+        Object o = t.get(i);
+        if (o == null) {
+          return false;
+        }
+        if (o == conn) {
+          t.set(i, TOMBSTONE);
+          size--;
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Copy the connections into a new table which drops the tombstones and is at most half full
+     */
+    private void rehash() {
+      AtomicReferenceArray<Object> old = table;
+      int capacity = INITIAL_SHARD_CAPACITY;
+      while (capacity < size * 4) {
+        capacity <<= 1;
+      }
+      AtomicReferenceArray<Object> t = new AtomicReferenceArray<>(capacity);
+      int mask = capacity - 1;
+      for (int j = 0; j < old.length(); j++) {
+        Object o = old.get(j);
+        if (o != null && o != TOMBSTONE) {
+          int i = (int) hash(((WebSocket) o).getId()) & mask;
+          while (t.get(i) != null) {
+            i = (i + 1) & mask;
+          }
+          t.set(i, o);
+        }
+      }
+      used = size;
+      table = t;
+    }
+  }
+
+  /**
+   * Walks the tables of the shards as they were published when the iterator reached them
+   */
+  private final class RegistryIterator implements Iterator<WebSocket> {
+
+    private int shard = -1;
+    private AtomicReferenceArray<Object> table;
+    private int slot;
+    private WebSocket next;
+    private WebSocket last;
+
+    RegistryIterator() {
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public WebSocket next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      advance();
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      ConnectionRegistry.this.remove(last);
+      last = null;
+    }
+
+    private void advance() {
+      next = null;
+      while (true) {
+        if (table != null) {
+          while (slot < table.length()) {
+            Object o = table.get(slot++);
+            if (o != null && o != TOMBSTONE) {
+              next = (WebSocket) o;
+              return;
+            }
+          }
+        }
+        if (++shard >= shards.length) {
+          return;
+        }
+        table = shards[shard].table;
+        slot = 0;
+      }
+    }
+  }
+}
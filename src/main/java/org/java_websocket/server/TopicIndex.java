@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.java_websocket.WebSocket;
+
+/**
+ * The subscriptions of the connections of a server to named topics.
+ * <p>
+ * Every topic keeps its subscribers in a {@link ConnectionRegistry}, so publishing to a topic only
+ * visits its subscribers and never locks. A topic exists as long as it has subscribers. The topics
+ * of every connection are tracked as well, so that all subscriptions of a closed connection are
+ * removed without visiting the other topics.
+ *
+ * @since 1.6.1
+ */
+final class TopicIndex {
+
+  /**
+   * The subscribers per topic
+   */
+  private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+
+  /**
+   * The topics per connection
+   */
+  private final ConcurrentHashMap<WebSocket, Subscription> subscriptions =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Subscribe a connection to a topic
+   *
+   * @param conn  the connection
+   * @param topic the topic
+   * @return true, if the connection was not yet subscribed to the topic
+   */
+  boolean subscribe(WebSocket conn, String topic) {
+    while (true) {
+      Subscription subscription = subscriptions.get(conn);
+      if (subscription == null) {
+        subscription = new Subscription();
+        Subscription previous = subscriptions.putIfAbsent(conn, subscription);
+        if (previous != null) {
+          subscription = previous;
+        }
+      }
+      synchronized (subscription) {
+        if (subscription.removed) {
+          continue;
+        }
+        if (!subscription.topics.add(topic)) {
+          return false;
+        }
+        addSubscriber(topic, conn);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Unsubscribe a connection from a topic
+   *
+   * @param conn  the connection
+   * @param topic the topic
+   * @return true, if the connection was subscribed to the topic
+   */
+  boolean unsubscribe(WebSocket conn, String topic) {
+    Subscription subscription = subscriptions.get(conn);
+    if (subscription == null) {
+      return false;
+    }
+    synchronized (subscription) {
+      if (!subscription.topics.remove(topic)) {
+        return false;
+      }
+      removeSubscriber(topic, conn);
+      if (subscription.topics.isEmpty()) {
+        subscription.removed = true;
+        subscriptions.remove(conn, subscription);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Unsubscribe a connection from all its topics
+   *
+   * @param conn the connection
+   */
+  void unsubscribeAll(WebSocket conn) {
+    Subscription subscription = subscriptions.get(conn);
+    if (subscription == null) {
+      return;
+    }
+    synchronized (subscription) {
+      for (String topic : subscription.topics) {
+        removeSubscriber(topic, conn);
+      }
+      subscription.topics.clear();
+      subscription.removed = true;
+      subscriptions.remove(conn, subscription);
+    }
+  }
+
+  /**
+   * @param topic the topic
+   * @return the live subscribers of the topic or null, if the topic has no subscribers
+   */
+  ConnectionRegistry getSubscribers(String topic) {
+    Topic t = topics.get(topic);
+    return t == null ? null : t.subscribers;
+  }
+
+  /**
+   * @param conn the connection
+   * @return a copy of the topics the connection is subscribed to
+   */
+  Set<String> getTopics(WebSocket conn) {
+    Subscription subscription = subscriptions.get(conn);
+    if (subscription == null) {
+      return Collections.emptySet();
+    }
+    synchronized (subscription) {
+      return new HashSet<>(subscription.topics);
+    }
+  }
+
+  /**
+   * @return a live view of the topics which have at least one subscriber
+   */
+  Set<String> getTopics() {
+    return Collections.unmodifiableSet(topics.keySet());
+  }
+
+  private void addSubscriber(String topic, WebSocket conn) {
+    while (true) {
+      Topic t = topics.get(topic);
+      if (t == null) {
+        t = new Topic();
+        Topic previous = topics.putIfAbsent(topic, t);
+        if (previous != null) {
+          t = previous;
+        }
+      }
+      synchronized (t) {
+        if (!t.removed) {
+          t.subscribers.add(conn);
+          return;
+        }
+      }
+    }
+  }
+
+  private void removeSubscriber(String topic, WebSocket conn) {
+    Topic t = topics.get(topic);
+    if (t == null) {
+      return;
+    }
+    synchronized (t) {
+      if (t.subscribers.remove(conn) && t.subscribers.isEmpty()) {
+        t.removed = true;
+        topics.remove(topic, t);
+      }
+    }
+  }
+
+  /**
+   * The subscribers of one topic. A single shard suffices, publishing walks it without locking.
+   * Writers are serialized by the monitor, a removed topic is never used again.
+   */
+  private static final class Topic {
+
+    private final ConnectionRegistry subscribers = new ConnectionRegistry(1);
+
+    private boolean removed;
+  }
+
+  /**
+   * The topics of one connection, guarded by the monitor. A removed subscription is never used
+   * again.
+   */
+  private static final class Subscription {
+
+    private final Set<String> topics = new HashSet<>();
+
+    private boolean removed;
+  }
+}
@@ -31,8 +31,10 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -41,19 +43,25 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.java_websocket.AbstractWebSocket;
+import org.java_websocket.SelectorTaskQueue;
 import org.java_websocket.SocketChannelIOHelper;
 import org.java_websocket.WebSocket;
 import org.java_websocket.WebSocketFactory;
@@ -61,12 +69,15 @@ import org.java_websocket.WebSocketImpl;
 import org.java_websocket.WebSocketServerFactory;
 import org.java_websocket.WrappedByteChannel;
 import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.exceptions.WrappedIOException;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.server.ConnectionRegistry.ConnectionVisitor;
+import org.java_websocket.util.ByteBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,6 +90,55 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 
   private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
+  /**
+   * The default number of bytes a connection may write per selector pass
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_WRITE_QUANTUM = 64 * 1024;
+
+  /**
+   * The default number of write attempts of a sending thread before the rest is left to the
+   * selector
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_DIRECT_WRITE_SPIN_COUNT = 4;
+
+  /**
+   * The default number of clients from which on a broadcast is queued in parallel
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_PARALLEL_BROADCAST_THRESHOLD = 1024;
+
+  /**
+   * The default number of connections accepted per readiness of the server socket
+   *
+   * @since 1.6.1
+   */
+  public static final int DEFAULT_ACCEPT_BATCH_SIZE = 16;
+
+  /**
+   * The default time in nanoseconds within which a new connection has to complete its handshake
+   *
+   * @since 1.6.1
+   */
+  public static final long DEFAULT_HANDSHAKE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * The load difference between the current worker of a connection and the least loaded worker at
+   * which an idle connection is moved
+   */
+  private static final int REBALANCE_THRESHOLD = 2;
+
+  /**
+   * The default decode time after which a connection is considered heavy in run-to-completion mode
+   *
+   * @since 1.6.1
+   */
+  public static final long DEFAULT_HEAVY_DECODE_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(1);
+
   /**
    * Logger instance
    *
@@ -104,6 +164,14 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    * The 'Selector' used to get event keys from the underlying socket.
    */
   private Selector selector;
+  /**
+   * The task queue of the selector which accepts the connections
+   */
+  private SelectorTaskQueue selectorTasks;
+  /**
+   * The task queues of all selectors of this server by their selector
+   */
+  private final Map<Selector, SelectorTaskQueue> taskQueues = new ConcurrentHashMap<>();
   /**
    * The Draft of the WebSocket protocol the Server is adhering to.
    */
@@ -116,9 +184,13 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
   protected List<WebSocketWorker> decoders;
 
   private List<WebSocketImpl> iqueue;
-  private BlockingQueue<ByteBuffer> buffers;
+  /**
+   * The pool the read buffers are taken from
+   *
+   * @since 1.6.1
+   */
+  private ByteBufferPool bufferPool = new ByteBufferPool();
   private int queueinvokes = 0;
-  private final AtomicInteger queuesize = new AtomicInteger(0);
 
   private WebSocketServerFactory wsf = new DefaultWebSocketServerFactory();
 
@@ -130,6 +202,149 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    */
   private int maxPendingConnections = -1;
 
+  /**
+   * Attribute for the number of selector threads driving the socket I/O of the accepted
+   * connections. With a value of 1 the selector thread accepts, reads and writes for every
+   * connection itself.
+   *
+   * @since 1.6.1
+   */
+  private int selectorCount = 1;
+
+  /**
+   * The reactors which own the accepted connections when more than one selector is configured
+   *
+   * @since 1.6.1
+   */
+  private List<WebSocketReactor> reactors = Collections.emptyList();
+
+  /**
+   * Counter to distribute accepted connections over the reactors
+   *
+   * @since 1.6.1
+   */
+  private int reactorInvokes = 0;
+
+  /**
+   * The selection key of the server socket channel
+   */
+  private SelectionKey serverKey;
+
+  /**
+   * Attribute for the number of connections accepted per readiness of the server socket
+   *
+   * @since 1.6.1
+   */
+  private volatile int acceptBatchSize = DEFAULT_ACCEPT_BATCH_SIZE;
+
+  /**
+   * Attribute for the number of connections accepted per second, 0 if unlimited
+   *
+   * @since 1.6.1
+   */
+  private volatile int maxAcceptRate = 0;
+
+  /**
+   * The token bucket of the accept rate, only used by the selector thread
+   */
+  private AcceptRateLimiter acceptRateLimiter;
+
+  /**
+   * The time at which accepting continues after the accept rate was exceeded, only used by the
+   * selector thread
+   */
+  private long acceptResumeTime;
+
+  private boolean acceptPaused = false;
+
+  private final AtomicLong acceptedCount = new AtomicLong();
+  private final AtomicLong acceptThrottleCount = new AtomicLong();
+  private final AtomicLong fullAcceptBatchCount = new AtomicLong();
+  private final AtomicLong failedAcceptCount = new AtomicLong();
+
+  /**
+   * Attribute for the time in nanoseconds within which a new connection has to complete its
+   * handshake, 0 if there is no deadline
+   *
+   * @since 1.6.1
+   */
+  private volatile long handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+
+  /**
+   * Attribute for the maximum number of bytes of an incomplete handshake
+   *
+   * @since 1.6.1
+   */
+  private volatile int maxHandshakeSize = WebSocketImpl.DEFAULT_MAX_HANDSHAKE_SIZE;
+
+  private final AtomicLong handshakeTimeoutCount = new AtomicLong();
+
+  /**
+   * Attribute for the number of bytes a connection with the write weight 1 may write per selector
+   * pass
+   *
+   * @since 1.6.1
+   */
+  private volatile int writeQuantum = DEFAULT_WRITE_QUANTUM;
+
+  /**
+   * Attribute for the number of write attempts of a sending thread, 0 if sending threads never
+   * write
+   *
+   * @since 1.6.1
+   */
+  private volatile int directWriteSpinCount = DEFAULT_DIRECT_WRITE_SPIN_COUNT;
+
+  /**
+   * Attribute whether broadcast frames are serialized into direct buffers
+   *
+   * @since 1.6.1
+   */
+  private volatile boolean directBroadcastBuffers = false;
+
+  /**
+   * Attribute for the number of threads which queue a broadcast in parallel
+   *
+   * @since 1.6.1
+   */
+  private int broadcastParallelism = AVAILABLE_PROCESSORS;
+
+  /**
+   * Attribute for the number of clients from which on a broadcast is queued in parallel
+   *
+   * @since 1.6.1
+   */
+  private volatile int parallelBroadcastThreshold = DEFAULT_PARALLEL_BROADCAST_THRESHOLD;
+
+  /**
+   * The executor of the parallel broadcasts, created on first use
+   */
+  private volatile BroadcastExecutor broadcastExecutor;
+
+  private final Object broadcastLock = new Object();
+
+  /**
+   * The subscriptions of the connections to topics
+   *
+   * @since 1.6.1
+   */
+  private final TopicIndex topicIndex = new TopicIndex();
+
+  /**
+   * Attribute whether incoming data is decoded by the selector thread which read it
+   *
+   * @since 1.6.1
+   */
+  private boolean runToCompletion = false;
+
+  /**
+   * Attribute for the decode time in nanoseconds after which a connection is handed to the workers
+   * in run-to-completion mode
+   *
+   * @since 1.6.1
+   */
+  private long heavyDecodeThreshold = DEFAULT_HEAVY_DECODE_THRESHOLD;
+
   /**
    * Creates a WebSocketServer that will attempt to listen on port <var>WebSocketImpl.DEFAULT_PORT</var>.
    *
@@ -178,7 +393,7 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    * @see #WebSocketServer(InetSocketAddress, int, List, Collection) more details here
    */
   public WebSocketServer(InetSocketAddress address, int decodercount, List<Draft> drafts) {
-    this(address, decodercount, drafts, new HashSet<WebSocket>());
+    this(address, decodercount, drafts, new ConnectionRegistry());
   }
 
   // Small internal helper function to get around limitations of Java constructors.
@@ -222,8 +437,9 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    *                             that does not require synchronization like a {@link
    *                             CopyOnWriteArraySet}. In that case make sure that you overload
    *                             {@link #removeConnection(WebSocket)} and {@link
-   *                             #addConnection(WebSocket)}.<br> By default a {@link HashSet} will
-   *                             be used.
+   *                             #addConnection(WebSocket)}.<br> By default a {@link
+   *                             ConnectionRegistry} will be used, which needs no
+   *                             synchronization.
    * @see #removeConnection(WebSocket) for more control over syncronized operation
    * @see <a href="https://github.com/TooTallNate/Java-WebSocket/wiki/Drafts" > more about
    * drafts</a>
@@ -248,7 +464,6 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     iqueue = new LinkedList<>();
 
     decoders = new ArrayList<>(decodercount);
-    buffers = new LinkedBlockingQueue<>();
     for (int i = 0; i < decodercount; i++) {
       WebSocketWorker ex = new WebSocketWorker();
       decoders.add(ex);
@@ -312,7 +527,10 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 
     synchronized (this) {
       if (selectorthread != null && selector != null) {
-        selector.wakeup();
+        selectorTasks.wakeup();
+        for (WebSocketReactor reactor : reactors) {
+          reactor.wakeup();
+        }
         selectorthread.join(timeout);
       }
     }
@@ -325,16 +543,43 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
   /**
    * Returns  all currently connected clients. This collection does not allow any modification e.g.
    * removing a client.
+   * <p>
+   * With the default {@link ConnectionRegistry} this is a weakly consistent view of the connected
+   * clients instead of a copy.
    *
    * @return A unmodifiable collection of all currently connected clients
    * @since 1.3.8
    */
   public Collection<WebSocket> getConnections() {
+    if (connections instanceof ConnectionRegistry) {
+      return Collections.unmodifiableCollection(connections);
+    }
     synchronized (connections) {
       return Collections.unmodifiableCollection(new ArrayList<>(connections));
     }
   }
 
+  /**
+   * Get a connected client by its {@link WebSocket#getId() id}
+   *
+   * @param id the id of the connection
+   * @return the connection or null, if no connection with this id is connected
+   * @since 1.6.1
+   */
+  public WebSocket getConnection(long id) {
+    if (connections instanceof ConnectionRegistry) {
+      return ((ConnectionRegistry) connections).get(id);
+    }
+    synchronized (connections) {
+      for (WebSocket conn : connections) {
+        if (conn.getId() == id) {
+          return conn;
+        }
+      }
+    }
+    return null;
+  }
+
   public InetSocketAddress getAddress() {
     return this.address;
   }
@@ -364,6 +609,13 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
         w.setDaemon(daemon);
       }
     }
+    for (WebSocketReactor reactor : reactors) {
+      if (reactor.isAlive()) {
+        throw new IllegalStateException("Cannot call setDaemon after server is already started!");
+      } else {
+        reactor.setDaemon(daemon);
+      }
+    }
   }
 
   /**
@@ -399,150 +651,714 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     return maxPendingConnections;
   }
 
-  // Runnable IMPLEMENTATION /////////////////////////////////////////////////
-  public void run() {
-    if (!doEnsureSingleThread()) {
-      return;
+  /**
+   * Set the number of selector threads used for the socket I/O of the accepted connections.
+   * <p>
+   * With the default value of 1 the selector thread accepts, reads and writes for every connection.
+   * With a higher value the selector thread only accepts new connections and hands each of them to
+   * one of <var>selectorCount</var> reactor threads, which own the reads and writes of their
+   * connections from then on.
+   *
+   * @param selectorCount the number of selector threads, must be at least 1
+   * @throws IllegalStateException if the server is already started
+   * @since 1.6.1
+   */
+  public void setSelectorCount(int selectorCount) {
+    if (selectorCount < 1) {
+      throw new IllegalArgumentException("you need at least 1 selector");
     }
-    if (!doSetupSelectorAndServerThread()) {
-      return;
+    if (selectorthread != null) {
+      throw new IllegalStateException(
+          "Cannot call setSelectorCount after server is already started!");
     }
-    try {
-      int shutdownCount = 5;
-      int selectTimeout = 0;
-      while (!selectorthread.isInterrupted() && shutdownCount != 0) {
-        SelectionKey key = null;
-        try {
-          if (isclosed.get()) {
-            selectTimeout = 5;
-          }
-          int keyCount = selector.select(selectTimeout);
-          if (keyCount == 0 && isclosed.get()) {
-            shutdownCount--;
-          }
-          Set<SelectionKey> keys = selector.selectedKeys();
-          Iterator<SelectionKey> i = keys.iterator();
-
-          while (i.hasNext()) {
-            key = i.next();
-
-            if (!key.isValid()) {
-              continue;
-            }
-
-            if (key.isAcceptable()) {
-              doAccept(key, i);
-              continue;
-            }
+    this.selectorCount = selectorCount;
+  }
 
-            if (key.isReadable() && !doRead(key, i)) {
-              continue;
-            }
+  /**
+   * Returns the number of selector threads used for the socket I/O of the accepted connections.
+   *
+   * @return the number of selector threads
+   * @see #setSelectorCount(int)
+   * @since 1.6.1
+   */
+  public int getSelectorCount() {
+    return selectorCount;
+  }
 
-            if (key.isWritable()) {
-              doWrite(key);
-            }
-          }
-          doAdditionalRead();
-        } catch (CancelledKeyException e) {
-          // an other thread may cancel the key
-        } catch (ClosedByInterruptException e) {
-          return; // do the same stuff as when InterruptedException is thrown
-        } catch (WrappedIOException ex) {
-          handleIOException(key, ex.getConnection(), ex.getIOException());
-        } catch (IOException ex) {
-          handleIOException(key, null, ex);
-        } catch (InterruptedException e) {
-          // FIXME controlled shutdown (e.g. take care of buffermanagement)
-          Thread.currentThread().interrupt();
-        }
-      }
-    } catch (RuntimeException e) {
-      // should hopefully never occur
-      handleFatal(null, e);
-    } finally {
-      doServerShutdown();
+  /**
+   * Set the number of connections which are accepted at once when the server socket becomes ready.
+   * <p>
+   * A larger batch drains the accept backlog faster during a burst of new connections, a smaller
+   * one returns to the reads and writes of the existing connections sooner.
+   *
+   * @param acceptBatchSize the maximum number of connections accepted per readiness, at least 1
+   * @see #getFullAcceptBatchCount()
+   * @since 1.6.1
+   */
+  public void setAcceptBatchSize(int acceptBatchSize) {
+    if (acceptBatchSize < 1) {
+      throw new IllegalArgumentException("acceptBatchSize must be at least 1");
     }
+    this.acceptBatchSize = acceptBatchSize;
   }
 
   /**
-   * Do an additional read
+   * Returns the number of connections which are accepted at once
    *
-   * @throws InterruptedException thrown by taking a buffer
-   * @throws IOException          if an error happened during read
+   * @return the accept batch size
+   * @see #setAcceptBatchSize(int)
+   * @since 1.6.1
    */
-  private void doAdditionalRead() throws InterruptedException, IOException {
-    WebSocketImpl conn;
-    while (!iqueue.isEmpty()) {
-      conn = iqueue.remove(0);
-      WrappedByteChannel c = ((WrappedByteChannel) conn.getChannel());
-      ByteBuffer buf = takeBuffer();
-      try {
-        if (SocketChannelIOHelper.readMore(buf, conn, c)) {
-          iqueue.add(conn);
-        }
-        if (buf.hasRemaining()) {
-          conn.inQueue.put(buf);
-          queue(conn);
-        } else {
-          pushBuffer(buf);
-        }
-      } catch (IOException e) {
-        pushBuffer(buf);
-        throw e;
-      }
-    }
+  public int getAcceptBatchSize() {
+    return acceptBatchSize;
   }
 
   /**
-   * Execute a accept operation
+   * Limit the rate at which new connections are accepted.
+   * <p>
+   * The accepts are metered by a token bucket which holds up to one {@link #setAcceptBatchSize(int)
+   * batch} of tokens. While it is empty the server socket is not selected for accepting, the new
+   * connections wait in the accept backlog of the operating system instead of taking the selector
+   * thread away from the existing connections.
    *
-   * @param key the selectionkey to read off
-   * @param i   the iterator for the selection keys
-   * @throws InterruptedException thrown by taking a buffer
-   * @throws IOException          if an error happened during accept
+   * @param maxAcceptRate the maximum number of connections accepted per second, 0 to disable the
+   *                      limit
+   * @see #getAcceptThrottleCount()
+   * @since 1.6.1
    */
-  private void doAccept(SelectionKey key, Iterator<SelectionKey> i)
-      throws IOException, InterruptedException {
-    if (!onConnect(key)) {
-      key.cancel();
-      return;
+  public void setMaxAcceptRate(int maxAcceptRate) {
+    if (maxAcceptRate < 0) {
+      throw new IllegalArgumentException("maxAcceptRate must not be negative");
     }
+    this.maxAcceptRate = maxAcceptRate;
+  }
 
-    SocketChannel channel = server.accept();
-    if (channel == null) {
-      return;
-    }
-    channel.configureBlocking(false);
-    Socket socket = channel.socket();
-    socket.setTcpNoDelay(isTcpNoDelay());
-    socket.setKeepAlive(true);
-    WebSocketImpl w = wsf.createWebSocket(this, drafts);
-    w.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, w));
-    try {
-      w.setChannel(wsf.wrapChannel(channel, w.getSelectionKey()));
-      i.remove();
-      allocateBuffers(w);
-    } catch (IOException ex) {
-      if (w.getSelectionKey() != null) {
-        w.getSelectionKey().cancel();
-      }
+  /**
+   * Returns the maximum number of connections accepted per second
+   *
+   * @return the accept rate limit, 0 if unlimited
+   * @see #setMaxAcceptRate(int)
+   * @since 1.6.1
+   */
+  public int getMaxAcceptRate() {
+    return maxAcceptRate;
+  }
 
-      handleIOException(w.getSelectionKey(), null, ex);
-    }
+  /**
+   * Returns the number of connections which were accepted
+   *
+   * @return the number of accepted connections
+   * @since 1.6.1
+   */
+  public long getAcceptedCount() {
+    return acceptedCount.get();
   }
 
   /**
-   * Execute a read operation
+   * Returns how often accepting was paused because the {@link #setMaxAcceptRate(int) accept rate}
+   * was exceeded
    *
-   * @param key the selectionkey to read off
-   * @param i   the iterator for the selection keys
-   * @return true, if the read was successful, or false if there was an error
-   * @throws InterruptedException thrown by taking a buffer
-   * @throws IOException          if an error happened during read
+   * @return the number of pauses
+   * @since 1.6.1
    */
-  private boolean doRead(SelectionKey key, Iterator<SelectionKey> i)
-      throws InterruptedException, WrappedIOException {
+  public long getAcceptThrottleCount() {
+    return acceptThrottleCount.get();
+  }
+
+  /**
+   * Returns how often a whole {@link #setAcceptBatchSize(int) batch} was accepted at once. Each
+   * time more connections may have been waiting in the accept backlog, a steadily growing value
+   * means that the backlog fills up.
+   *
+   * @return the number of full accept batches
+   * @since 1.6.1
+   */
+  public long getFullAcceptBatchCount() {
+    return fullAcceptBatchCount.get();
+  }
+
+  /**
+   * Returns the number of connections which were dropped while being accepted, e.g. because they
+   * were reset by the peer while they waited in the accept backlog or because they could not be
+   * registered
+   *
+   * @return the number of failed accepts
+   * @since 1.6.1
+   */
+  public long getFailedAcceptCount() {
+    return failedAcceptCount.get();
+  }
+
+  /**
+   * Set the time within which a new connection has to complete its handshake.
+   * <p>
+   * Connections which are still not connected at their deadline are closed with {@link
+   * CloseFrame#NEVER_CONNECTED}. Every deadline is a single timeout of the shared {@link
+   * #getTimer() timer}, expiring it never visits the other connections. A new timeout applies to
+   * the connections accepted afterwards.
+   *
+   * @param timeout the handshake timeout, 0 to disable it
+   * @param unit    the unit of <var>timeout</var>
+   * @see #getHandshakeTimeoutCount()
+   * @since 1.6.1
+   */
+  public void setHandshakeTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative");
+    }
+    this.handshakeTimeout = unit.toNanos(timeout);
+  }
+
+  /**
+   * Returns the time within which a new connection has to complete its handshake
+   *
+   * @param unit the unit of the result
+   * @return the handshake timeout, 0 if disabled
+   * @see #setHandshakeTimeout(long, TimeUnit)
+   * @since 1.6.1
+   */
+  public long getHandshakeTimeout(TimeUnit unit) {
+    return unit.convert(handshakeTimeout, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Set the maximum size of the handshake of a new connection
+   *
+   * @param maxHandshakeSize the maximum number of bytes of an incomplete handshake, at least 1
+   * @see WebSocketImpl#setMaxHandshakeSize(int)
+   * @since 1.6.1
+   */
+  public void setMaxHandshakeSize(int maxHandshakeSize) {
+    if (maxHandshakeSize < 1) {
+      throw new IllegalArgumentException("maxHandshakeSize must be at least 1");
+    }
+    this.maxHandshakeSize = maxHandshakeSize;
+  }
+
+  /**
+   * Returns the maximum size of the handshake of a new connection
+   *
+   * @return the maximum number of bytes of an incomplete handshake
+   * @see #setMaxHandshakeSize(int)
+   * @since 1.6.1
+   */
+  public int getMaxHandshakeSize() {
+    return maxHandshakeSize;
+  }
+
+  /**
+   * Returns the number of connections which were closed because they did not complete their
+   * handshake in time
+   *
+   * @return the number of handshake timeouts
+   * @see #setHandshakeTimeout(long, TimeUnit)
+   * @since 1.6.1
+   */
+  public long getHandshakeTimeoutCount() {
+    return handshakeTimeoutCount.get();
+  }
+
+  /**
+   * Set the number of bytes a connection may write per selector pass.
+   * <p>
+   * Writable connections are served by deficit round robin: in every pass each connection may
+   * write the quantum times its {@link WebSocketImpl#setWriteWeight(int) write weight}, so a single
+   * connection with a large backlog cannot delay the writes of all other connections. A value of 0
+   * disables the limit and every connection writes as much as the socket accepts.
+   *
+   * @param writeQuantum the quantum in bytes, 0 for no limit
+   * @since 1.6.1
+   */
+  public void setWriteQuantum(int writeQuantum) {
+    if (writeQuantum < 0) {
+      throw new IllegalArgumentException("writeQuantum must not be negative");
+    }
+    this.writeQuantum = writeQuantum;
+  }
+
+  /**
+   * Returns the number of bytes a connection may write per selector pass
+   *
+   * @return the quantum in bytes, 0 for no limit
+   * @see #setWriteQuantum(int)
+   * @since 1.6.1
+   */
+  public int getWriteQuantum() {
+    return writeQuantum;
+  }
+
+  /**
+   * Set how often a sending thread tries to write to the socket itself.
+   * <p>
+   * If a connection has nothing else queued and no other thread is writing, the thread which sends
+   * a frame writes it to the socket right away instead of waiting for the next selector pass. It
+   * retries as long as the socket accepts data, at most <var>directWriteSpinCount</var> times, and
+   * only the remainder is written by the selector. Handshake responses and secure connections are
+   * always written by the selector. A value of 0 disables direct writes.
+   *
+   * @param directWriteSpinCount the maximum number of write attempts, 0 to disable direct writes
+   * @since 1.6.1
+   */
+  public void setDirectWriteSpinCount(int directWriteSpinCount) {
+    if (directWriteSpinCount < 0) {
+      throw new IllegalArgumentException("directWriteSpinCount must not be negative");
+    }
+    this.directWriteSpinCount = directWriteSpinCount;
+  }
+
+  /**
+   * Returns how often a sending thread tries to write to the socket itself
+   *
+   * @return the maximum number of write attempts, 0 if direct writes are disabled
+   * @see #setDirectWriteSpinCount(int)
+   * @since 1.6.1
+   */
+  public int getDirectWriteSpinCount() {
+    return directWriteSpinCount;
+  }
+
+  /**
+   * Set whether broadcast frames are serialized into direct buffers.
+   * <p>
+   * A broadcast serializes its frames once for all connections which encode frames the same way
+   * and queues read-only views of these buffers. Heap buffers are copied into a temporary direct
+   * buffer on every socket write, a direct buffer is copied only once for all connections.
+   *
+   * @param directBroadcastBuffers true to serialize broadcasts into direct buffers
+   * @since 1.6.1
+   */
+  public void setDirectBroadcastBuffers(boolean directBroadcastBuffers) {
+    this.directBroadcastBuffers = directBroadcastBuffers;
+  }
+
+  /**
+   * Returns whether broadcast frames are serialized into direct buffers
+   *
+   * @return true, if broadcasts use direct buffers
+   * @see #setDirectBroadcastBuffers(boolean)
+   * @since 1.6.1
+   */
+  public boolean isDirectBroadcastBuffers() {
+    return directBroadcastBuffers;
+  }
+
+  /**
+   * Set the number of threads which queue the messages of a broadcast in parallel.
+   * <p>
+   * The clients of a large broadcast and of every {@link #broadcastAsync(String, Collection) async
+   * broadcast} are split into partitions, one per thread. The value is rounded down to a power of
+   * two and limited by the number of shards of the {@link ConnectionRegistry}. With a value of 1 a
+   * synchronous broadcast is queued by the calling thread.
+   *
+   * @param broadcastParallelism the number of broadcast threads
+   * @throws IllegalStateException if the server is already started
+   * @since 1.6.1
+   */
+  public void setBroadcastParallelism(int broadcastParallelism) {
+    if (selectorthread != null) {
+      throw new IllegalStateException(
+          "Cannot call setBroadcastParallelism after server is already started!");
+    }
+    if (broadcastParallelism < 1) {
+      throw new IllegalArgumentException("broadcastParallelism must be at least 1");
+    }
+    this.broadcastParallelism = broadcastParallelism;
+  }
+
+  /**
+   * Returns the number of threads which queue the messages of a broadcast in parallel
+   *
+   * @return the number of broadcast threads
+   * @see #setBroadcastParallelism(int)
+   * @since 1.6.1
+   */
+  public int getBroadcastParallelism() {
+    return broadcastParallelism;
+  }
+
+  /**
+   * Set the number of clients from which on a synchronous broadcast is queued in parallel by the
+   * broadcast threads. Smaller broadcasts are queued by the calling thread, unless an earlier
+   * broadcast is still being queued.
+   *
+   * @param parallelBroadcastThreshold the number of clients
+   * @since 1.6.1
+   */
+  public void setParallelBroadcastThreshold(int parallelBroadcastThreshold) {
+    if (parallelBroadcastThreshold < 0) {
+      throw new IllegalArgumentException("parallelBroadcastThreshold must not be negative");
+    }
+    this.parallelBroadcastThreshold = parallelBroadcastThreshold;
+  }
+
+  /**
+   * Returns the number of clients from which on a synchronous broadcast is queued in parallel
+   *
+   * @return the number of clients
+   * @see #setParallelBroadcastThreshold(int)
+   * @since 1.6.1
+   */
+  public int getParallelBroadcastThreshold() {
+    return parallelBroadcastThreshold;
+  }
+
+  /**
+   * Enable or disable the run-to-completion mode.
+   * <p>
+   * By default every read buffer is handed to a worker thread for decoding. In run-to-completion
+   * mode the selector thread which read the data decodes it right away, which saves the handoff and
+   * the context switch for the common case of small messages. A connection whose input takes longer
+   * than the {@link #setHeavyDecodeThreshold(long, TimeUnit) heavy decode threshold} to decode is
+   * handed to the worker threads for the rest of its lifetime, so it cannot stall the other
+   * connections of the selector.
+   * <p>
+   * In this mode the callbacks like onOpen and onMessage are called by the selector threads for
+   * connections which are not heavy, therefore they must not block.
+   *
+   * @param runToCompletion true to decode on the selector threads
+   * @throws IllegalStateException if the server is already started
+   * @since 1.6.1
+   */
+  public void setRunToCompletion(boolean runToCompletion) {
+    if (selectorthread != null) {
+      throw new IllegalStateException(
+          "Cannot call setRunToCompletion after server is already started!");
+    }
+    this.runToCompletion = runToCompletion;
+  }
+
+  /**
+   * Returns whether incoming data is decoded by the selector threads
+   *
+   * @return true, if the run-to-completion mode is enabled
+   * @see #setRunToCompletion(boolean)
+   * @since 1.6.1
+   */
+  public boolean isRunToCompletion() {
+    return runToCompletion;
+  }
+
+  /**
+   * Set the decode time after which a connection is handed to the worker threads in
+   * run-to-completion mode
+   *
+   * @param threshold the decode time of a single read buffer
+   * @param unit      the unit of <var>threshold</var>
+   * @throws IllegalStateException if the server is already started
+   * @see #setRunToCompletion(boolean)
+   * @since 1.6.1
+   */
+  public void setHeavyDecodeThreshold(long threshold, TimeUnit unit) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    if (selectorthread != null) {
+      throw new IllegalStateException(
+          "Cannot call setHeavyDecodeThreshold after server is already started!");
+    }
+    this.heavyDecodeThreshold = unit.toNanos(threshold);
+  }
+
+  /**
+   * Returns the decode time after which a connection is handed to the worker threads in
+   * run-to-completion mode
+   *
+   * @param unit the unit of the result
+   * @return the threshold in the given unit
+   * @since 1.6.1
+   */
+  public long getHeavyDecodeThreshold(TimeUnit unit) {
+    return unit.convert(heavyDecodeThreshold, TimeUnit.NANOSECONDS);
+  }
+
+  // Runnable IMPLEMENTATION /////////////////////////////////////////////////
+  public void run() {
+    if (!doEnsureSingleThread()) {
+      return;
+    }
+    if (!doSetupSelectorAndServerThread()) {
+      return;
+    }
+    try {
+      int shutdownCount = 5;
+      int selectTimeout = 0;
+      while (!selectorthread.isInterrupted() && shutdownCount != 0) {
+        SelectionKey key = null;
+        try {
+          if (isclosed.get()) {
+            selectTimeout = 5;
+          }
+          int keyCount = selector.select(acceptSelectTimeout(selectTimeout));
+          if (keyCount == 0 && isclosed.get() && reactorsIdle()) {
+            shutdownCount--;
+          }
+          selectorTasks.runTasks();
+          resumeAccept();
+          Set<SelectionKey> keys = selector.selectedKeys();
+          Iterator<SelectionKey> i = keys.iterator();
+
+          while (i.hasNext()) {
+            key = i.next();
+
+            if (!key.isValid()) {
+              continue;
+            }
+
+            if (key.isAcceptable()) {
+              doAccept(key, i);
+              continue;
+            }
+
+            if (key.isReadable() && !doRead(key, i, iqueue)) {
+              continue;
+            }
+
+            if (key.isWritable()) {
+              doWrite(key);
+            }
+          }
+          doAdditionalRead(iqueue);
+        } catch (CancelledKeyException e) {
+          // an other thread may cancel the key
+        } catch (ClosedByInterruptException e) {
+          return; // do the same stuff as when InterruptedException is thrown
+        } catch (WrappedIOException ex) {
+          handleIOException(key, ex.getConnection(), ex.getIOException());
+        } catch (IOException ex) {
+          handleIOException(key, null, ex);
+        } catch (InterruptedException e) {
+          // FIXME controlled shutdown (e.g. take care of buffermanagement)
+          Thread.currentThread().interrupt();
+        }
+      }
+    } catch (RuntimeException e) {
+      // should hopefully never occur
+      handleFatal(null, e);
+    } finally {
+      doServerShutdown();
+    }
+  }
+
+  /**
+   * Do an additional read
+   *
+   * @param iqueue the connections of the calling selector which have decoded data left
+   * @throws InterruptedException thrown by taking a buffer
+   * @throws IOException          if an error happened during read
+   */
+  private void doAdditionalRead(List<WebSocketImpl> iqueue)
+      throws InterruptedException, IOException {
+    WebSocketImpl conn;
+    while (!iqueue.isEmpty()) {
+      conn = iqueue.remove(0);
+      WrappedByteChannel c = ((WrappedByteChannel) conn.getChannel());
+      ByteBuffer buf = takeBuffer();
+      try {
+        if (SocketChannelIOHelper.readMore(buf, conn, c)) {
+          iqueue.add(conn);
+        }
+        if (buf.hasRemaining()) {
+          dispatch(conn, buf);
+        } else {
+          pushBuffer(buf);
+        }
+      } catch (IOException e) {
+        pushBuffer(buf);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Execute a batch of accept operations
+   *
+   * @param key the selectionkey to read off
+   * @param i   the iterator for the selection keys
+   * @throws InterruptedException thrown by taking a buffer
+   */
+  private void doAccept(SelectionKey key, Iterator<SelectionKey> i)
+      throws InterruptedException {
+    i.remove();
+    AcceptRateLimiter limiter = getAcceptRateLimiter();
+    int batchSize = acceptBatchSize;
+    int accepted = 0;
+    while (accepted < batchSize) {
+      if (limiter != null && !limiter.tryAcquire(System.nanoTime())) {
+        pauseAccept(limiter);
+        return;
+      }
+      if (!onConnect(key)) {
+        key.cancel();
+        return;
+      }
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (IOException e) {
+        // e.g. the connection was reset while it was waiting in the backlog
+        failedAcceptCount.incrementAndGet();
+        log.trace("Could not accept connection", e);
+        return;
+      }
+      if (channel == null) {
+        if (limiter != null) {
+          limiter.refund();
+        }
+        return;
+      }
+      accepted++;
+      acceptedCount.incrementAndGet();
+      if (reactors.isEmpty()) {
+        try {
+          registerChannel(channel, selector);
+        } catch (IOException e) {
+          failedAcceptCount.incrementAndGet();
+          log.trace("Could not register accepted channel", e);
+          closeChannel(channel);
+        }
+      } else {
+        reactors.get(reactorInvokes % reactors.size()).register(channel);
+        reactorInvokes++;
+      }
+    }
+    fullAcceptBatchCount.incrementAndGet();
+  }
+
+  /**
+   * Get the token bucket for the current accept rate
+   *
+   * @return the token bucket or null, if the accept rate is unlimited
+   */
+  private AcceptRateLimiter getAcceptRateLimiter() {
+    int rate = maxAcceptRate;
+    int capacity = Math.max(1, Math.min(rate, acceptBatchSize));
+    if (rate == 0) {
+      acceptRateLimiter = null;
+    } else if (acceptRateLimiter == null || acceptRateLimiter.getRate() != rate
+        || acceptRateLimiter.getCapacity() != capacity) {
+      acceptRateLimiter = new AcceptRateLimiter(rate, capacity, System.nanoTime());
+    }
+    return acceptRateLimiter;
+  }
+
+  /**
+   * Stop selecting the server socket for accepting until the token bucket has a token again
+   *
+   * @param limiter the empty token bucket
+   */
+  private void pauseAccept(AcceptRateLimiter limiter) {
+    long now = System.nanoTime();
+    acceptResumeTime = now + limiter.nanosUntilAvailable(now);
+    acceptPaused = true;
+    acceptThrottleCount.incrementAndGet();
+    serverKey.interestOps(0);
+  }
+
+  /**
+   * Select the server socket for accepting again, if the pause of the accept rate is over
+   */
+  private void resumeAccept() {
+    if (acceptPaused && System.nanoTime() - acceptResumeTime >= 0) {
+      acceptPaused = false;
+      if (serverKey.isValid()) {
+        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+      }
+    }
+  }
+
+  /**
+   * Shorten the select timeout so that the selector wakes up when accepting is resumed
+   *
+   * @param selectTimeout the select timeout in milliseconds, 0 for no timeout
+   * @return the timeout to use
+   */
+  private long acceptSelectTimeout(long selectTimeout) {
+    if (!acceptPaused) {
+      return selectTimeout;
+    }
+    // round up, a select which returns early would only be repeated
+    long pause = TimeUnit.NANOSECONDS.toMillis(acceptResumeTime - System.nanoTime()) + 1;
+    pause = Math.max(1, pause);
+    return selectTimeout == 0 ? pause : Math.min(selectTimeout, pause);
+  }
+
+  @Override
+  protected void onHandshakeTimeout(WebSocket conn) {
+    handshakeTimeoutCount.incrementAndGet();
+    log.trace("Closing connection which did not complete its handshake in time: {}", conn);
+    super.onHandshakeTimeout(conn);
+  }
+
+  private static void closeChannel(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // there is nothing that must be done here
+    }
+  }
+
+  /**
+   * Configures an accepted channel, creates its websocket and registers it with the given
+   * selector. This runs on the thread of that selector, so the selector thread only accepts when
+   * there are reactors.
+   *
+   * @param channel     the accepted channel
+   * @param ownSelector the selector which will drive the I/O of the new connection
+   * @throws InterruptedException thrown by allocating a buffer
+   * @throws IOException          if the channel could not be registered
+   */
+  private void registerChannel(SocketChannel channel, Selector ownSelector)
+      throws IOException, InterruptedException {
+    channel.configureBlocking(false);
+    Socket socket = channel.socket();
+    socket.setTcpNoDelay(isTcpNoDelay());
+    socket.setKeepAlive(true);
+    WebSocketImpl w = wsf.createWebSocket(this, drafts);
+    w.setWriteBufferWaterMark(getWriteBufferLowWaterMark(), getWriteBufferHighWaterMark());
+    w.setMaxHandshakeSize(maxHandshakeSize);
+    w.setSelectionKey(channel.register(ownSelector, SelectionKey.OP_READ, w));
+    try {
+      w.setChannel(wsf.wrapChannel(channel, w.getSelectionKey()));
+      allocateBuffers(w);
+      long timeout = handshakeTimeout;
+      if (timeout > 0) {
+        startHandshakeTimer(w, timeout);
+      }
+    } catch (IOException ex) {
+      if (w.getSelectionKey() != null) {
+        w.getSelectionKey().cancel();
+      }
+
+      handleIOException(w.getSelectionKey(), null, ex);
+    }
+  }
+
+  /**
+   * Check whether no reactor had any ready keys during its last select
+   *
+   * @return true, if all reactors are idle
+   */
+  private boolean reactorsIdle() {
+    for (WebSocketReactor reactor : reactors) {
+      if (!reactor.isIdle()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Execute a read operation
+   *
+   * @param key    the selectionkey to read off
+   * @param i      the iterator for the selection keys
+   * @param iqueue the connections of the calling selector which have decoded data left
+   * @return true, if the read was successful, or false if there was an error
+   * @throws InterruptedException thrown by taking a buffer
+   * @throws IOException          if an error happened during read
+   */
+  private boolean doRead(SelectionKey key, Iterator<SelectionKey> i, List<WebSocketImpl> iqueue)
+      throws InterruptedException, WrappedIOException {
     WebSocketImpl conn = (WebSocketImpl) key.attachment();
     ByteBuffer buf = takeBuffer();
     if (conn.getChannel() == null) {
@@ -554,8 +1370,7 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     try {
       if (SocketChannelIOHelper.read(buf, conn, conn.getChannel())) {
         if (buf.hasRemaining()) {
-          conn.inQueue.put(buf);
-          queue(conn);
+          dispatch(conn, buf);
           i.remove();
           if (conn.getChannel() instanceof WrappedByteChannel && ((WrappedByteChannel) conn
               .getChannel()).isNeedRead()) {
@@ -574,6 +1389,34 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     return true;
   }
 
+  /**
+   * Decode a read buffer on the calling selector thread in run-to-completion mode or hand it to a
+   * worker otherwise. The buffer must not be used by the caller afterwards.
+   *
+   * @param conn the connection the data was read from
+   * @param buf  the read data
+   * @throws InterruptedException thrown by queueing the buffer
+   */
+  private void dispatch(WebSocketImpl conn, ByteBuffer buf) throws InterruptedException {
+    if (!runToCompletion || conn.getWorkerThread() != null) {
+      conn.inQueue.put(buf);
+      queue(conn);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      conn.decode(buf);
+    } catch (Exception e) {
+      log.error("Error while reading from remote connection", e);
+    } finally {
+      pushBuffer(buf);
+    }
+    if (System.nanoTime() - start > heavyDecodeThreshold) {
+      // from now on the workers decode this connection, queue() keeps it there
+      conn.setWorkerThread(leastLoadedWorker());
+    }
+  }
+
   /**
    * Execute a write operation
    *
@@ -582,13 +1425,53 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    */
   private void doWrite(SelectionKey key) throws WrappedIOException {
     WebSocketImpl conn = (WebSocketImpl) key.attachment();
+    if (!conn.tryBeginWrite()) {
+      // a sending thread is writing, OP_WRITE stays registered for what it leaves behind
+      return;
+    }
     try {
-      if (SocketChannelIOHelper.batch(conn, conn.getChannel()) && key.isValid()) {
+      if (SocketChannelIOHelper.batch(conn, conn.getChannel(), writeQuantum) && key.isValid()) {
         key.interestOps(SelectionKey.OP_READ);
       }
     } catch (IOException e) {
       throw new WrappedIOException(conn, e);
+    } finally {
+      conn.endWrite();
+    }
+  }
+
+  /**
+   * Write the outQueue of a connection from the sending thread
+   *
+   * @param conn the connection which queued a frame
+   * @return true, if everything was written and no selector pass is required
+   */
+  private boolean doDirectWrite(WebSocketImpl conn) {
+    int spinCount = directWriteSpinCount;
+    ByteChannel channel = conn.getChannel();
+    // the handshake response is left to the selector, so the connection is registered first
+    if (spinCount == 0 || channel instanceof WrappedByteChannel || !conn.isOpen()
+        || conn.isFlushAndClose() || !hasSingleElement(conn.outQueue) || !conn.tryBeginWrite()) {
+      return false;
+    }
+    try {
+      for (int i = 0; i < spinCount; i++) {
+        long buffered = conn.getBufferedAmount();
+        if (SocketChannelIOHelper.batch(conn, channel, 0)) {
+          return true;
+        }
+        if (conn.getBufferedAmount() == buffered) {
+          // the socket buffer is full
+          break;
+        }
+      }
+    } catch (IOException e) {
+      // the selector runs into the same error and closes the connection
+      log.trace("Direct write failed", e);
+    } finally {
+      conn.endWrite();
     }
+    return false;
   }
 
   /**
@@ -616,11 +1499,24 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
         socket.bind(address, getMaxPendingConnections());
       }
       selector = Selector.open();
-      server.register(selector, server.validOps());
+      selectorTasks = new SelectorTaskQueue(selector);
+      selectorTasks.setOwner(selectorthread);
+      taskQueues.put(selector, selectorTasks);
+      serverKey = server.register(selector, server.validOps());
+      if (selectorCount > 1) {
+        List<WebSocketReactor> newReactors = new ArrayList<>(selectorCount);
+        for (int i = 0; i < selectorCount; i++) {
+          newReactors.add(new WebSocketReactor());
+        }
+        reactors = newReactors;
+      }
       startConnectionLostTimer();
       for (WebSocketWorker ex : decoders) {
         ex.start();
       }
+      for (WebSocketReactor reactor : reactors) {
+        reactor.start();
+      }
       onStart();
     } catch (IOException ex) {
       handleFatal(null, ex);
@@ -652,11 +1548,19 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    */
   private void doServerShutdown() {
     stopConnectionLostTimer();
+    synchronized (broadcastLock) {
+      if (broadcastExecutor != null) {
+        broadcastExecutor.shutdown();
+      }
+    }
     if (decoders != null) {
       for (WebSocketWorker w : decoders) {
         w.interrupt();
       }
     }
+    for (WebSocketReactor reactor : reactors) {
+      reactor.interrupt();
+    }
     if (selector != null) {
       try {
         selector.close();
@@ -675,41 +1579,148 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     }
   }
 
+  /**
+   * Called when a new connection was registered. The read buffers are managed by the {@link
+   * #getBufferPool() buffer pool}, so this does nothing by default.
+   *
+   * @param c the new connection
+   * @throws InterruptedException may be thrown by overriding implementations
+   */
   protected void allocateBuffers(WebSocket c) throws InterruptedException {
-    if (queuesize.get() >= 2 * decoders.size() + 1) {
-      return;
-    }
-    queuesize.incrementAndGet();
-    buffers.put(createBuffer());
+    // the buffer pool grows on demand
   }
 
+  /**
+   * Called when a connection was closed. The read buffers are managed by the {@link
+   * #getBufferPool() buffer pool}, so this does nothing by default.
+   *
+   * @param c the closed connection
+   * @throws InterruptedException may be thrown by overriding implementations
+   */
   protected void releaseBuffers(WebSocket c) throws InterruptedException {
-    // queuesize.decrementAndGet();
-    // takeBuffer();
+    // the buffer pool shrinks on its own
   }
 
   public ByteBuffer createBuffer() {
+    return bufferPool.acquire(getReadBufferSize());
+  }
+
+  /**
+   * Getter for the pool the read buffers are taken from, e.g. to monitor its hit, miss and
+   * overflow counters
+   *
+   * @return the buffer pool of this server
+   * @since 1.6.1
+   */
+  public ByteBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Setter for the pool the read buffers are taken from. Must be called before the server is
+   * started.
+   *
+   * @param bufferPool the buffer pool to use
+   * @throws IllegalStateException if the server is already started
+   * @since 1.6.1
+   */
+  public void setBufferPool(ByteBufferPool bufferPool) {
+    if (bufferPool == null) {
+      throw new IllegalArgumentException();
+    }
+    if (selectorthread != null) {
+      throw new IllegalStateException("Cannot call setBufferPool after server is already started!");
+    }
+    this.bufferPool = bufferPool;
+  }
+
+  private int getReadBufferSize() {
     int receiveBufferSize = getReceiveBufferSize();
-    return ByteBuffer.allocate(receiveBufferSize > 0 ? receiveBufferSize : DEFAULT_READ_BUFFER_SIZE);
+    return receiveBufferSize > 0 ? receiveBufferSize : DEFAULT_READ_BUFFER_SIZE;
   }
 
+  /**
+   * Hands the latest buffer of the inQueue of <var>ws</var> to a worker.
+   * <p>
+   * A new connection is assigned to the least loaded worker. An assigned connection is moved to
+   * the least loaded worker when its current worker is busy and the connection itself has no input
+   * queued or in decoding apart from the new buffer. Since the previous worker is done with the
+   * connection at that point, its frames are never decoded concurrently or out of order.
+   *
+   * @param ws the connection with the new buffer
+   * @throws InterruptedException if interrupted while queueing
+   */
   protected void queue(WebSocketImpl ws) throws InterruptedException {
-    if (ws.getWorkerThread() == null) {
-      ws.setWorkerThread(decoders.get(queueinvokes % decoders.size()));
-      queueinvokes++;
+    WebSocketWorker worker = ws.getWorkerThread();
+    if (worker == null) {
+      worker = leastLoadedWorker();
+      ws.setWorkerThread(worker);
+    } else if (worker.getLoad() >= REBALANCE_THRESHOLD && hasSingleElement(ws.inQueue) && !worker
+        .isDecoding(ws)) {
+      WebSocketWorker leastLoaded = leastLoadedWorker();
+      if (leastLoaded.getLoad() + REBALANCE_THRESHOLD <= worker.getLoad()) {
+        worker = leastLoaded;
+        ws.setWorkerThread(worker);
+      }
     }
-    ws.getWorkerThread().put(ws);
+    worker.put(ws);
   }
 
-  private ByteBuffer takeBuffer() throws InterruptedException {
-    return buffers.take();
+  /**
+   * Checks whether <var>queue</var> holds exactly one element without counting all elements
+   *
+   * @param queue the queue to check
+   * @return true, if the queue has a single element
+   */
+  private static boolean hasSingleElement(Queue<?> queue) {
+    Iterator<?> it = queue.iterator();
+    if (!it.hasNext()) {
+      return false;
+    }
+    it.next();
+    return !it.hasNext();
   }
 
-  private void pushBuffer(ByteBuffer buf) throws InterruptedException {
-    if (buffers.size() > queuesize.intValue()) {
-      return;
+  /**
+   * Finds the worker with the fewest queued buffers. The search starts at a rotating offset so that
+   * equally loaded workers are used in turn.
+   *
+   * @return the least loaded worker
+   */
+  private WebSocketWorker leastLoadedWorker() {
+    int size = decoders.size();
+    int start = (queueinvokes++ & Integer.MAX_VALUE) % size;
+    WebSocketWorker leastLoaded = decoders.get(start);
+    for (int i = 1; i < size && leastLoaded.getLoad() > 0; i++) {
+      WebSocketWorker worker = decoders.get((start + i) % size);
+      if (worker.getLoad() < leastLoaded.getLoad()) {
+        leastLoaded = worker;
+      }
+    }
+    return leastLoaded;
+  }
+
+  /**
+   * Returns the current load of each worker thread, which is the number of read buffers queued for
+   * or being decoded by the worker.
+   *
+   * @return the loads in the order of the workers
+   * @since 1.6.1
+   */
+  public List<Integer> getWorkerLoads() {
+    List<Integer> loads = new ArrayList<>(decoders.size());
+    for (WebSocketWorker worker : decoders) {
+      loads.add(worker.getLoad());
     }
-    buffers.put(buf);
+    return loads;
+  }
+
+  private ByteBuffer takeBuffer() {
+    return createBuffer();
+  }
+
+  private void pushBuffer(ByteBuffer buf) {
+    bufferPool.release(buf);
   }
 
   private void handleIOException(SelectionKey key, WebSocket conn, IOException ex) {
@@ -753,6 +1764,9 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
         w.interrupt();
       }
     }
+    for (WebSocketReactor reactor : reactors) {
+      reactor.interrupt();
+    }
     if (selectorthread != null) {
       selectorthread.interrupt();
     }
@@ -769,21 +1783,42 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     onMessage(conn, blob);
   }
 
+  @Override
+  public final void onWebsocketMessageStart(WebSocket conn, Opcode opcode) {
+    onMessageStart(conn, opcode);
+  }
+
+  @Override
+  public final void onWebsocketMessageFragment(WebSocket conn, ByteBuffer fragment) {
+    onMessageFragment(conn, fragment);
+  }
+
+  @Override
+  public final void onWebsocketMessageEnd(WebSocket conn) {
+    onMessageEnd(conn);
+  }
+
   @Override
   public final void onWebsocketOpen(WebSocket conn, Handshakedata handshake) {
+    stopHandshakeTimer(conn);
     if (addConnection(conn)) {
+      startConnectionTimers(conn);
       onOpen(conn, (ClientHandshake) handshake);
     }
   }
 
   @Override
   public final void onWebsocketClose(WebSocket conn, int code, String reason, boolean remote) {
-    selector.wakeup();
+    selectorTasks.wakeup();
     try {
-      if (removeConnection(conn)) {
+      boolean removed = removeConnection(conn);
+      // a closed connection must not be a subscriber anymore while onClose runs
+      topicIndex.unsubscribeAll(conn);
+      if (removed) {
         onClose(conn, code, reason, remote);
       }
     } finally {
+      stopConnectionTimers(conn);
       try {
         releaseBuffers(conn);
       } catch (InterruptedException e) {
@@ -805,17 +1840,20 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    * @return Removing connection successful
    */
   protected boolean removeConnection(WebSocket ws) {
-    boolean removed = false;
-    synchronized (connections) {
-      if (this.connections.contains(ws)) {
-        removed = this.connections.remove(ws);
-      } else {
-        //Don't throw an assert error if the ws is not in the list. e.g. when the other endpoint did not send any handshake. see #512
-        log.trace(
-            "Removing connection which is not in the connections collection! Possible no handshake received! {}",
-            ws);
+    boolean removed;
+    if (connections instanceof ConnectionRegistry) {
+      removed = connections.remove(ws);
+    } else {
+      synchronized (connections) {
+        removed = connections.remove(ws);
       }
     }
+    if (!removed) {
+      //Don't throw an assert error if the ws is not in the list. e.g. when the other endpoint did not send any handshake. see #512
+      log.trace(
+          "Removing connection which is not in the connections collection! Possible no handshake received! {}",
+          ws);
+    }
     if (isclosed.get() && connections.isEmpty()) {
       selectorthread.interrupt();
     }
@@ -829,6 +1867,9 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
    */
   protected boolean addConnection(WebSocket ws) {
     if (!isclosed.get()) {
+      if (connections instanceof ConnectionRegistry) {
+        return connections.add(ws);
+      }
       synchronized (connections) {
         return this.connections.add(ws);
       }
@@ -844,16 +1885,19 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     onError(conn, ex);
   }
 
+  @Override
+  public final void onWebsocketWritabilityChanged(WebSocket conn, boolean writable) {
+    onWritabilityChanged(conn, writable);
+  }
+
   @Override
   public final void onWriteDemand(WebSocket w) {
     WebSocketImpl conn = (WebSocketImpl) w;
-    try {
-      conn.getSelectionKey().interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-    } catch (CancelledKeyException e) {
-      // the thread which cancels key is responsible for possible cleanup
-      conn.outQueue.clear();
+    if (doDirectWrite(conn)) {
+      return;
     }
-    selector.wakeup();
+    // the connection may be owned by a reactor instead of the selector thread
+    taskQueues.get(conn.getSelectionKey().selector()).requestWrite(conn);
   }
 
   @Override
@@ -977,6 +2021,57 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
   public void onMessage(WebSocket conn, ByteBuffer message) {
   }
 
+  /**
+   * Called when a message starts which is delivered as a stream. Only used if the draft of the
+   * connection has {@link org.java_websocket.drafts.Draft_6455#setStreamingMessages(boolean)
+   * streaming messages} enabled, the message is then passed to {@link #onMessageFragment(WebSocket,
+   * ByteBuffer)} piece by piece instead of to <var>onMessage</var>.
+   *
+   * @param conn   The <code>WebSocket</code> instance this event is occurring on.
+   * @param opcode {@link Opcode#TEXT} or {@link Opcode#BINARY}
+   * @see #onMessageEnd(WebSocket)
+   * @since 1.6.1
+   **/
+  public void onMessageStart(WebSocket conn, Opcode opcode) {
+  }
+
+  /**
+   * Callback for the next part of a message which is delivered as a stream. The parts of a text
+   * message are UTF-8 encoded and a multibyte character may be split between two parts.
+   *
+   * @param conn     The <code>WebSocket</code> instance this event is occurring on.
+   * @param fragment The received part, only valid until this method returns
+   * @see #onMessageStart(WebSocket, Opcode)
+   * @since 1.6.1
+   **/
+  public void onMessageFragment(WebSocket conn, ByteBuffer fragment) {
+  }
+
+  /**
+   * Called when a message which is delivered as a stream is complete.
+   *
+   * @param conn The <code>WebSocket</code> instance this event is occurring on.
+   * @see #onMessageStart(WebSocket, Opcode)
+   * @since 1.6.1
+   **/
+  public void onMessageEnd(WebSocket conn) {
+  }
+
+  /**
+   * Called when the buffered amount of a connection crosses one of its write buffer water marks.
+   * The callback may be invoked by the thread sending data as well as by the thread writing to the
+   * socket.
+   *
+   * @param conn     The <code>WebSocket</code> instance this event is occurring on.
+   * @param writable true, if the buffered amount dropped to the low water mark, false, if it
+   *                 exceeded the high water mark
+   * @see WebSocket#isWritable()
+   * @see #setWriteBufferWaterMark(int, int)
+   * @since 1.6.1
+   */
+  public void onWritabilityChanged(WebSocket conn, boolean writable) {
+  }
+
   /**
    * Send a text to all connected endpoints
    *
@@ -1044,12 +2139,283 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
   }
 
   /**
-   * Private method to cache all the frames to improve memory footprint and conversion time
+   * Send a text to all connected endpoints without waiting until it is queued for all of them
+   *
+   * @param text the text to send to the endpoints
+   * @return the completion of the broadcast
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(String text) {
+    return broadcastAsync(text, connections);
+  }
+
+  /**
+   * Send a byte array to all connected endpoints without waiting until it is queued for all of
+   * them
+   *
+   * @param data the data to send to the endpoints
+   * @return the completion of the broadcast
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(byte[] data) {
+    return broadcastAsync(data, connections);
+  }
+
+  /**
+   * Send a ByteBuffer to all connected endpoints without waiting until it is queued for all of
+   * them
+   *
+   * @param data the data to send to the endpoints
+   * @return the completion of the broadcast
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(ByteBuffer data) {
+    return broadcastAsync(data, connections);
+  }
+
+  /**
+   * Send a byte array to a specific collection of websocket connections without waiting until it is
+   * queued for all of them
+   *
+   * @param data    the data to send to the endpoints
+   * @param clients a collection of endpoints to whom the data has to be send
+   * @return the completion of the broadcast
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(byte[] data, Collection<WebSocket> clients) {
+    if (data == null || clients == null) {
+      throw new IllegalArgumentException();
+    }
+    return broadcastAsync(ByteBuffer.wrap(data), clients);
+  }
+
+  /**
+   * Send a ByteBuffer to a specific collection of websocket connections without waiting until it is
+   * queued for all of them
+   *
+   * @param data    the data to send to the endpoints
+   * @param clients a collection of endpoints to whom the data has to be send
+   * @return the completion of the broadcast
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(ByteBuffer data, Collection<WebSocket> clients) {
+    if (data == null || clients == null) {
+      throw new IllegalArgumentException();
+    }
+    return doBroadcast(data, clients, true);
+  }
+
+  /**
+   * Send a text to a specific collection of websocket connections without waiting until it is
+   * queued for all of them.
+   * <p>
+   * The clients are split into partitions which are served by the broadcast threads in parallel.
+   * Every client receives the broadcasts in the order in which they were started. The returned
+   * future is done when the message is queued for every client, a message sent to a client
+   * directly before that may overtake the broadcast.
+   *
+   * @param text    the text to send to the endpoints
+   * @param clients a collection of endpoints to whom the text has to be send
+   * @return the completion of the broadcast, it fails with the first exception thrown while
+   * queueing the message
+   * @see #setBroadcastParallelism(int)
+   * @since 1.6.1
+   */
+  public Future<Void> broadcastAsync(String text, Collection<WebSocket> clients) {
+    if (text == null || clients == null) {
+      throw new IllegalArgumentException();
+    }
+    return doBroadcast(text, clients, true);
+  }
+
+  /**
+   * Subscribe a connection to a topic. Its subscriptions are removed when it is closed.
+   *
+   * @param conn  the connection
+   * @param topic the topic
+   * @return true, if the connection was not yet subscribed to the topic and is not closed
+   * @see #publish(String, String)
+   * @since 1.6.1
+   */
+  public boolean subscribe(WebSocket conn, String topic) {
+    if (conn == null || topic == null) {
+      throw new IllegalArgumentException();
+    }
+    if (!topicIndex.subscribe(conn, topic)) {
+      return false;
+    }
+    if (conn.isClosed()) {
+      // the subscription may have missed the cleanup of the connection
+      topicIndex.unsubscribe(conn, topic);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Unsubscribe a connection from a topic
+   *
+   * @param conn  the connection
+   * @param topic the topic
+   * @return true, if the connection was subscribed to the topic
+   * @since 1.6.1
+   */
+  public boolean unsubscribe(WebSocket conn, String topic) {
+    if (conn == null || topic == null) {
+      throw new IllegalArgumentException();
+    }
+    return topicIndex.unsubscribe(conn, topic);
+  }
+
+  /**
+   * Get the subscribers of a topic
+   *
+   * @param topic the topic
+   * @return an unmodifiable live view of the subscribers, empty if the topic has no subscribers
+   * @since 1.6.1
+   */
+  public Collection<WebSocket> getSubscribers(String topic) {
+    Collection<WebSocket> subscribers = topicIndex.getSubscribers(topic);
+    if (subscribers == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableCollection(subscribers);
+  }
+
+  /**
+   * Get the topics a connection is subscribed to
+   *
+   * @param conn the connection
+   * @return a copy of the topics of the connection
+   * @since 1.6.1
+   */
+  public Set<String> getTopics(WebSocket conn) {
+    return topicIndex.getTopics(conn);
+  }
+
+  /**
+   * Get the topics which have at least one subscriber
+   *
+   * @return an unmodifiable live view of the topics
+   * @since 1.6.1
+   */
+  public Set<String> getTopics() {
+    return topicIndex.getTopics();
+  }
+
+  /**
+   * Send a text to all subscribers of a topic
+   *
+   * @param topic the topic
+   * @param text  the text to send to the subscribers
+   * @see #publish(String, ByteBuffer)
+   * @since 1.6.1
+   */
+  public void publish(String topic, String text) {
+    if (topic == null || text == null) {
+      throw new IllegalArgumentException();
+    }
+    Collection<WebSocket> subscribers = topicIndex.getSubscribers(topic);
+    if (subscribers != null) {
+      doBroadcast(text, subscribers);
+    }
+  }
+
+  /**
+   * Send a byte array to all subscribers of a topic
+   *
+   * @param topic the topic
+   * @param data  the data to send to the subscribers
+   * @see #publish(String, ByteBuffer)
+   * @since 1.6.1
+   */
+  public void publish(String topic, byte[] data) {
+    if (topic == null || data == null) {
+      throw new IllegalArgumentException();
+    }
+    publish(topic, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Send a ByteBuffer to all subscribers of a topic.
+   * <p>
+   * This works like a {@link #broadcast(ByteBuffer, Collection) broadcast} to the subscribers: the
+   * frames are serialized once per frame encoding key and many subscribers are served in parallel.
+   * The cost only depends on the number of subscribers of the topic, not on the number of
+   * connections of the server.
+   *
+   * @param topic the topic
+   * @param data  the data to send to the subscribers
+   * @since 1.6.1
+   */
+  public void publish(String topic, ByteBuffer data) {
+    if (topic == null || data == null) {
+      throw new IllegalArgumentException();
+    }
+    Collection<WebSocket> subscribers = topicIndex.getSubscribers(topic);
+    if (subscribers != null) {
+      doBroadcast(data, subscribers);
+    }
+  }
+
+  /**
+   * Send a text to all subscribers of a topic without waiting until it is queued for all of them
+   *
+   * @param topic the topic
+   * @param text  the text to send to the subscribers
+   * @return the completion of the publication
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> publishAsync(String topic, String text) {
+    if (topic == null || text == null) {
+      throw new IllegalArgumentException();
+    }
+    return doPublish(topic, text);
+  }
+
+  /**
+   * Send a ByteBuffer to all subscribers of a topic without waiting until it is queued for all of
+   * them
+   *
+   * @param topic the topic
+   * @param data  the data to send to the subscribers
+   * @return the completion of the publication
+   * @see #broadcastAsync(String, Collection)
+   * @since 1.6.1
+   */
+  public Future<Void> publishAsync(String topic, ByteBuffer data) {
+    if (topic == null || data == null) {
+      throw new IllegalArgumentException();
+    }
+    return doPublish(topic, data);
+  }
+
+  private Future<Void> doPublish(String topic, Object data) {
+    Collection<WebSocket> subscribers = topicIndex.getSubscribers(topic);
+    if (subscribers == null) {
+      return new BroadcastFuture(0);
+    }
+    return doBroadcast(data, subscribers, true);
+  }
+
+  /**
+   * Private method to serialize the frames once per frame encoding key and to queue them for the
+   * clients, in parallel if there are many of them
    *
    * @param data    the data to broadcast
    * @param clients the clients to send the message to
    */
   private void doBroadcast(Object data, Collection<WebSocket> clients) {
+    doBroadcast(data, clients, false).join();
+  }
+
+  private BroadcastFuture doBroadcast(Object data, Collection<WebSocket> clients, boolean async) {
     String strData = null;
     if (data instanceof String) {
       strData = (String) data;
@@ -1059,46 +2425,341 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
       byteData = (ByteBuffer) data;
     }
     if (strData == null && byteData == null) {
-      return;
+      return new BroadcastFuture(0);
+    }
+    BroadcastExecutor executor = broadcastExecutor;
+    // a broadcast may only bypass the lanes if it cannot overtake an earlier one
+    if (async || executor != null && !executor.isIdle()
+        || clients.size() >= parallelBroadcastThreshold) {
+      executor = getBroadcastExecutor();
+    }
+    if (executor == null || executor.isLaneThread()
+        || !async && executor.getLaneCount() == 1 && executor.isIdle()) {
+      BroadcastFuture future = new BroadcastFuture(1);
+      Broadcast broadcast = new Broadcast(strData, byteData, future);
+      Collection<WebSocket> clientCopy;
+      if (clients instanceof ConnectionRegistry) {
+        // iteration is weakly consistent, there is no need for a copy
+        clientCopy = clients;
+      } else {
+        synchronized (clients) {
+          clientCopy = new ArrayList<>(clients);
+        }
+      }
+      for (WebSocket client : clientCopy) {
+        broadcast.visit(client);
+      }
+      future.partitionDone();
+      return future;
+    }
+    return doParallelBroadcast(executor, new Broadcast(strData, byteData,
+        new BroadcastFuture(executor.getLaneCount())), clients);
+  }
+
+  /**
+   * Queue a broadcast on the lanes of the broadcast executor, every lane serves one partition of
+   * the clients
+   */
+  private BroadcastFuture doParallelBroadcast(BroadcastExecutor executor,
+      final Broadcast broadcast, Collection<WebSocket> clients) {
+    final int lanes = executor.getLaneCount();
+    if (clients instanceof ConnectionRegistry
+        && ((ConnectionRegistry) clients).getShardCount() >= lanes) {
+      final ConnectionRegistry registry = (ConnectionRegistry) clients;
+      for (int i = 0; i < lanes; i++) {
+        final int partition = i;
+        executor.execute(partition, new Runnable() {
+          @Override
+          public void run() {
+            try {
+              registry.forEachConnection(partition, lanes, broadcast);
+            } finally {
+              broadcast.future.partitionDone();
+            }
+          }
+        });
+      }
+      return broadcast.future;
+    }
+    final List<List<WebSocket>> partitions = new ArrayList<>(lanes);
+    for (int i = 0; i < lanes; i++) {
+      partitions.add(new ArrayList<WebSocket>());
     }
-    Map<Draft, List<Framedata>> draftFrames = new HashMap<>();
-    List<WebSocket> clientCopy;
     synchronized (clients) {
-      clientCopy = new ArrayList<>(clients);
+      for (WebSocket client : clients) {
+        if (client != null) {
+          partitions.get(ConnectionRegistry.partitionOf(client.getId(), lanes)).add(client);
+        }
+      }
+    }
+    for (int i = 0; i < lanes; i++) {
+      final List<WebSocket> partition = partitions.get(i);
+      executor.execute(i, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (WebSocket client : partition) {
+              broadcast.visit(client);
+            }
+          } finally {
+            broadcast.future.partitionDone();
+          }
+        }
+      });
+    }
+    return broadcast.future;
+  }
+
+  /**
+   * Get the broadcast executor and create it on first use
+   *
+   * @return the executor or null, if the server is already stopped
+   */
+  private BroadcastExecutor getBroadcastExecutor() {
+    synchronized (broadcastLock) {
+      if (broadcastExecutor == null && !isclosed.get()) {
+        int lanes = Integer.highestOneBit(broadcastParallelism);
+        if (connections instanceof ConnectionRegistry) {
+          lanes = Math.min(lanes, ((ConnectionRegistry) connections).getShardCount());
+        }
+        broadcastExecutor = new BroadcastExecutor(lanes, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setName("WebSocketBroadcast-" + thread.getId());
+            thread.setDaemon(isDaemon());
+            return thread;
+          }
+        });
+      }
+      return broadcastExecutor;
+    }
+  }
+
+  /**
+   * The state of one broadcast which is shared by all its partitions
+   */
+  private final class Broadcast implements ConnectionVisitor {
+
+    private final String strData;
+    private final ByteBuffer byteData;
+    private final BroadcastFuture future;
+
+    /**
+     * The serialized frames per frame encoding key
+     */
+    private final ConcurrentHashMap<Object, List<ByteBuffer>> encodedFrames =
+        new ConcurrentHashMap<>();
+
+    Broadcast(String strData, ByteBuffer byteData, BroadcastFuture future) {
+      this.strData = strData;
+      this.byteData = byteData;
+      this.future = future;
     }
-    for (WebSocket client : clientCopy) {
-      if (client != null) {
+
+    /**
+     * Send the broadcast data to one client, reusing the serialized frames of clients with the
+     * same frame encoding key
+     *
+     * @param client the client to send the data to
+     */
+    @Override
+    public void visit(WebSocket client) {
+      if (client == null) {
+        return;
+      }
+      try {
         Draft draft = client.getDraft();
-        fillFrames(draft, draftFrames, strData, byteData);
-        try {
-          client.sendFrame(draftFrames.get(draft));
-        } catch (WebsocketNotConnectedException e) {
-          //Ignore this exception in this case
+        Object key = client instanceof WebSocketImpl ? draft.getFrameEncodingKey() : null;
+        if (key == null) {
+          // extensions may keep state or change the frames, every client needs its own frames
+          client.sendFrame(createFrames(draft, strData, byteData));
+          return;
         }
+        List<ByteBuffer> frames = encodedFrames.get(key);
+        if (frames == null) {
+          // the draft of the client may be in use by its own sends, so a private copy encodes
+          Draft encoder = draft.copyFrameEncoder();
+          if (encoder == null) {
+            client.sendFrame(createFrames(draft, strData, byteData));
+            return;
+          }
+          frames = encodeFrames(encoder, strData, byteData);
+          List<ByteBuffer> previous = encodedFrames.putIfAbsent(key, frames);
+          if (previous != null) {
+            frames = previous;
+          }
+        }
+        ((WebSocketImpl) client).sendEncodedFrames(frames);
+      } catch (WebsocketNotConnectedException e) {
+        //Ignore this exception in this case
+      } catch (RuntimeException e) {
+        future.fail(e);
+      }
+    }
+  }
+
+  /**
+   * Serialize the broadcast data into read-only buffers which are shared by all clients with the
+   * frame encoding key of <var>draft</var>
+   *
+   * @param draft    the frame encoder to use, never the draft of a connection
+   * @param strData  the string data, can be null
+   * @param byteData the byte buffer data, can be null
+   * @return the serialized frames
+   */
+  private List<ByteBuffer> encodeFrames(Draft draft, String strData, ByteBuffer byteData) {
+    List<Framedata> frames = createFrames(draft, strData, byteData);
+    List<ByteBuffer> encoded = new ArrayList<>(frames.size());
+    for (Framedata frame : frames) {
+      ByteBuffer buffer = draft.createBinaryFrame(frame);
+      if (directBroadcastBuffers) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(buffer.remaining());
+        direct.put(buffer);
+        direct.flip();
+        buffer = direct;
       }
+      encoded.add(buffer.asReadOnlyBuffer());
+    }
+    return encoded;
+  }
+
+  private static List<Framedata> createFrames(Draft draft, String strData, ByteBuffer byteData) {
+    if (strData != null) {
+      return draft.createFrames(strData, false);
     }
+    return draft.createFrames(byteData.duplicate(), false);
   }
 
   /**
-   * Fills the draftFrames with new data for the broadcast
+   * This class is used to drive the socket I/O of a share of the connections on its own selector
    *
-   * @param draft       The draft to use
-   * @param draftFrames The list of frames per draft to fill
-   * @param strData       the string data, can be null
-   * @param byteData       the byte buffer data, can be null
+   * @since 1.6.1
    */
-  private void fillFrames(Draft draft, Map<Draft, List<Framedata>> draftFrames, String strData,
-      ByteBuffer byteData) {
-    if (!draftFrames.containsKey(draft)) {
-      List<Framedata> frames = null;
-      if (strData != null) {
-        frames = draft.createFrames(strData, false);
+  public class WebSocketReactor extends Thread {
+
+    private final Selector reactorSelector;
+
+    private final SelectorTaskQueue reactorTasks;
+
+    /**
+     * Accepted channels which are waiting to be registered with this reactor's selector
+     */
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Connections of this reactor which have decoded data left
+     */
+    private final List<WebSocketImpl> readMoreQueue = new LinkedList<>();
+
+    private volatile boolean idle = true;
+
+    WebSocketReactor() throws IOException {
+      reactorSelector = Selector.open();
+      reactorTasks = new SelectorTaskQueue(reactorSelector);
+      reactorTasks.setOwner(this);
+      taskQueues.put(reactorSelector, reactorTasks);
+      setName("WebSocketReactor-" + getId());
+      setDaemon(WebSocketServer.this.isDaemon());
+      setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+        @Override
+        public void uncaughtException(Thread t, Throwable e) {
+          log.error("Uncaught exception in thread {}: {}", t.getName(), e);
+        }
+      });
+    }
+
+    /**
+     * Hand an accepted channel over to this reactor
+     *
+     * @param channel the accepted channel
+     */
+    void register(SocketChannel channel) {
+      pendingChannels.add(channel);
+      reactorTasks.wakeup();
+    }
+
+    void wakeup() {
+      reactorTasks.wakeup();
+    }
+
+    boolean isIdle() {
+      return idle && pendingChannels.isEmpty();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          SelectionKey key = null;
+          try {
+            int keyCount = reactorSelector.select(isclosed.get() ? 5 : 0);
+            idle = keyCount == 0;
+            reactorTasks.runTasks();
+            registerPendingChannels();
+            Iterator<SelectionKey> i = reactorSelector.selectedKeys().iterator();
+            while (i.hasNext()) {
+              key = i.next();
+
+              if (!key.isValid()) {
+                continue;
+              }
+
+              if (key.isReadable() && !doRead(key, i, readMoreQueue)) {
+                continue;
+              }
+
+              if (key.isWritable()) {
+                doWrite(key);
+              }
+            }
+            doAdditionalRead(readMoreQueue);
+          } catch (CancelledKeyException e) {
+            // an other thread may cancel the key
+          } catch (ClosedByInterruptException | ClosedSelectorException e) {
+            return;
+          } catch (WrappedIOException ex) {
+            handleIOException(key, ex.getConnection(), ex.getIOException());
+          } catch (IOException ex) {
+            handleIOException(key, null, ex);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      } catch (RuntimeException e) {
+        handleFatal(null, e);
+      } finally {
+        closeReactor();
+      }
+    }
+
+    private void registerPendingChannels() throws InterruptedException {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        try {
+          registerChannel(channel, reactorSelector);
+        } catch (IOException ex) {
+          failedAcceptCount.incrementAndGet();
+          log.trace("Could not register accepted channel", ex);
+          closeChannel(channel);
+        }
       }
-      if (byteData != null) {
-        frames = draft.createFrames(byteData, false);
+    }
+
+    private void closeReactor() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // there is nothing that must be done here
+        }
       }
-      if (frames != null) {
-        draftFrames.put(draft, frames);
+      try {
+        reactorSelector.close();
+      } catch (IOException e) {
+        log.error("IOException during selector.close", e);
+        onError(null, e);
       }
     }
   }
@@ -1110,8 +2771,18 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 
     private BlockingQueue<WebSocketImpl> iqueue;
 
+    /**
+     * The number of buffers queued for or being decoded by this worker
+     */
+    private final AtomicInteger load = new AtomicInteger();
+
+    /**
+     * The connection which is currently decoded
+     */
+    private volatile WebSocketImpl decoding;
+
     public WebSocketWorker() {
-      iqueue = new LinkedBlockingQueue<>();
+      iqueue = new LinkedTransferQueue<>();
       setName("WebSocketWorker-" + getId());
       setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
         @Override
@@ -1122,9 +2793,28 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
     }
 
     public void put(WebSocketImpl ws) throws InterruptedException {
+      load.incrementAndGet();
       iqueue.put(ws);
     }
 
+    /**
+     * Returns the number of read buffers which are queued for or being decoded by this worker
+     *
+     * @return the load of this worker
+     * @since 1.6.1
+     */
+    public int getLoad() {
+      return load.get();
+    }
+
+    /**
+     * @param ws the connection to check
+     * @return true, if this worker is currently decoding input of <var>ws</var>
+     */
+    boolean isDecoding(WebSocketImpl ws) {
+      return decoding == ws;
+    }
+
     @Override
     public void run() {
       WebSocketImpl ws = null;
@@ -1132,9 +2822,16 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
         while (true) {
           ByteBuffer buf;
           ws = iqueue.take();
+          // published before the buffer is taken, see queue(WebSocketImpl)
+          decoding = ws;
           buf = ws.inQueue.poll();
           assert (buf != null);
-          doDecode(ws, buf);
+          try {
+            doDecode(ws, buf);
+          } finally {
+            decoding = null;
+            load.decrementAndGet();
+          }
           ws = null;
         }
       } catch (InterruptedException e) {
@@ -1158,9 +2855,8 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
      *
      * @param ws  the Websocket
      * @param buf the buffer to decode to
-     * @throws InterruptedException thrown by pushBuffer
      */
-    private void doDecode(WebSocketImpl ws, ByteBuffer buf) throws InterruptedException {
+    private void doDecode(WebSocketImpl ws, ByteBuffer buf) {
       try {
         ws.decode(buf);
       } catch (Exception e) {
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking pool of ByteBuffers organized in power of two size classes.
+ * <p>
+ * {@link #acquire(int)} never blocks: if no pooled buffer is available a new one is allocated. A
+ * released buffer is kept in a small per-thread cache first and in a shared queue of its size
+ * class afterwards. The number of retained buffers follows the load: each size class keeps at most
+ * as many idle buffers as were in use at the same time since the last trim, and buffers beyond that
+ * are dropped.
+ *
+ * @since 1.6.1
+ */
+public class ByteBufferPool {
+
+  /**
+   * The smallest size class
+   */
+  public static final int MIN_BUFFER_SIZE = 1024;
+
+  /**
+   * The default upper bound of the size classes
+   */
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * The default number of buffers a single thread keeps per size class
+   */
+  public static final int DEFAULT_THREAD_CACHE_SIZE = 4;
+
+  /**
+   * The interval after which idle buffers above the recent peak usage are dropped
+   */
+  private static final long TRIM_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+  private final boolean direct;
+  private final int threadCacheSize;
+  private final SizeClass[] sizeClasses;
+
+  private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong overflows = new AtomicLong();
+  private final AtomicLong lastTrim = new AtomicLong(System.nanoTime());
+
+  /**
+   * Creates a pool of direct buffers with the default limits
+   */
+  public ByteBufferPool() {
+    this(true, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_THREAD_CACHE_SIZE);
+  }
+
+  /**
+   * @param direct          whether the pooled buffers should be direct buffers
+   * @param maxBufferSize   the largest size which is still pooled, larger requests are allocated
+   *                        but never retained
+   * @param threadCacheSize the number of buffers each thread keeps per size class, 0 disables the
+   *                        per-thread cache
+   */
+  public ByteBufferPool(boolean direct, int maxBufferSize, int threadCacheSize) {
+    if (maxBufferSize < MIN_BUFFER_SIZE || threadCacheSize < 0) {
+      throw new IllegalArgumentException();
+    }
+    this.direct = direct;
+    this.threadCacheSize = threadCacheSize;
+    int classCount = indexFor(maxBufferSize) + 1;
+    sizeClasses = new SizeClass[classCount];
+    for (int i = 0; i < classCount; i++) {
+      sizeClasses[i] = new SizeClass(MIN_BUFFER_SIZE << i);
+    }
+    threadCache = new ThreadLocal<ArrayDeque<ByteBuffer>[]>() {
+      @Override
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      protected ArrayDeque<ByteBuffer>[] initialValue() {
+        ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[sizeClasses.length];
+        for (int i = 0; i < caches.length; i++) {
+          caches[i] = new ArrayDeque<>(ByteBufferPool.this.threadCacheSize);
+        }
+        return caches;
+      }
+    };
+  }
+
+  /**
+   * Get a cleared buffer with a capacity of at least <var>size</var> bytes
+   *
+   * @param size the minimum capacity
+   * @return a buffer with position 0 and the limit set to its capacity
+   */
+  public ByteBuffer acquire(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size < 0");
+    }
+    int index = indexFor(size);
+    if (index >= sizeClasses.length) {
+      misses.incrementAndGet();
+      return allocate(size);
+    }
+    SizeClass sizeClass = sizeClasses[index];
+    sizeClass.onAcquire();
+    ByteBuffer buffer = null;
+    if (threadCacheSize > 0) {
+      buffer = threadCache.get()[index].pollFirst();
+    }
+    if (buffer == null) {
+      buffer = sizeClass.poll();
+    }
+    if (buffer == null) {
+      misses.incrementAndGet();
+      return allocate(sizeClass.bufferSize);
+    }
+    hits.incrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Return a buffer to the pool. Buffers which do not belong to a size class of this pool or which
+   * exceed the current demand are dropped.
+   *
+   * @param buffer the buffer to return, must not be used by the caller afterwards
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    int index = indexFor(capacity);
+    if (index >= sizeClasses.length || sizeClasses[index].bufferSize != capacity) {
+      return;
+    }
+    SizeClass sizeClass = sizeClasses[index];
+    sizeClass.onRelease();
+    if (threadCacheSize > 0) {
+      ArrayDeque<ByteBuffer> cache = threadCache.get()[index];
+      if (cache.size() < threadCacheSize) {
+        cache.addFirst(buffer);
+        return;
+      }
+    }
+    if (!sizeClass.offer(buffer)) {
+      overflows.incrementAndGet();
+    }
+    long now = System.nanoTime();
+    long last = lastTrim.get();
+    if (now - last > TRIM_INTERVAL && lastTrim.compareAndSet(last, now)) {
+      trim();
+    }
+  }
+
+  /**
+   * Drop all idle buffers of the shared queues which exceed the peak usage since the last trim
+   */
+  public void trim() {
+    for (SizeClass sizeClass : sizeClasses) {
+      sizeClass.trim();
+    }
+  }
+
+  /**
+   * @return the number of acquisitions served by a pooled buffer
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of acquisitions which required a new allocation
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of released buffers which were dropped because the pool was full
+   */
+  public long getOverflows() {
+    return overflows.get();
+  }
+
+  /**
+   * @return the number of idle buffers in the shared queues
+   */
+  public int getPooledCount() {
+    int count = 0;
+    for (SizeClass sizeClass : sizeClasses) {
+      count += sizeClass.pooled.get();
+    }
+    return count;
+  }
+
+  /**
+   * @return whether this pool hands out direct buffers
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  private ByteBuffer allocate(int size) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  /**
+   * Get the index of the smallest size class which can hold <var>size</var> bytes
+   *
+   * @param size the requested size
+   * @return the index of the size class
+   */
+  private static int indexFor(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - 10;
+  }
+
+  /**
+   * The shared state of all buffers of the same capacity
+   */
+  private static class SizeClass {
+
+    private final int bufferSize;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    SizeClass(int bufferSize) {
+      this.bufferSize = bufferSize;
+    }
+
+    void onAcquire() {
+      int current = inUse.incrementAndGet();
+      int peak;
+      while (current > (peak = peakInUse.get())) {
+        if (peakInUse.compareAndSet(peak, current)) {
+          break;
+        }
+      }
+    }
+
+    void onRelease() {
+      inUse.decrementAndGet();
+    }
+
+    ByteBuffer poll() {
+      ByteBuffer buffer = queue.poll();
+      if (buffer != null) {
+        pooled.decrementAndGet();
+      }
+      return buffer;
+    }
+
+    boolean offer(ByteBuffer buffer) {
+      if (pooled.get() >= Math.max(1, peakInUse.get())) {
+        return false;
+      }
+      pooled.incrementAndGet();
+      queue.offer(buffer);
+      return true;
+    }
+
+    void trim() {
+      int limit = Math.max(1, inUse.get());
+      peakInUse.set(inUse.get());
+      while (pooled.get() > limit && poll() != null) {
+        // drop the buffer
+      }
+    }
+  }
+}
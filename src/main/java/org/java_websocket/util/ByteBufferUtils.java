@@ -26,6 +26,7 @@
 package org.java_websocket.util;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Utility class for ByteBuffers
@@ -70,4 +71,57 @@ public class ByteBufferUtils {
   public static ByteBuffer getEmptyByteBuffer() {
     return ByteBuffer.allocate(0);
   }
+
+  /**
+   * Check whether any of the given buffers has remaining bytes
+   *
+   * @param buffers the buffers to check
+   * @param offset  the index of the first buffer to check
+   * @param length  the number of buffers to check
+   * @return true, if at least one buffer has remaining bytes
+   * @since 1.6.1
+   */
+  public static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (buffers[i].hasRemaining()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * XOR a region of a buffer in place with a websocket masking key. Masking and unmasking are the
+   * same operation.
+   * <p>
+   * The bulk of the region is processed eight bytes at a time through the absolute long accessors
+   * of the buffer, only the remaining tail is processed byte by byte. The position and the limit
+   * of the buffer are not changed.
+   *
+   * @param buffer  the buffer to mask, must be writable
+   * @param offset  the absolute index of the first byte to mask
+   * @param length  the number of bytes to mask
+   * @param maskKey the masking key, the first key byte is the most significant byte
+   * @since 1.6.1
+   */
+  public static void mask(ByteBuffer buffer, int offset, int length, int maskKey) {
+    if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+      throw new IndexOutOfBoundsException();
+    }
+    int key = buffer.order() == ByteOrder.BIG_ENDIAN ? maskKey : Integer.reverseBytes(maskKey);
+    long longKey = ((long) key << 32) | (key & 0xFFFFFFFFL);
+    int index = offset;
+    int end = offset + length;
+    for (int longEnd = end - 7; index < longEnd; index += 8) {
+      buffer.putLong(index, buffer.getLong(index) ^ longKey);
+    }
+    // the long steps keep the key aligned, so the tail starts again with the first key byte
+    if (end - index >= 4) {
+      buffer.putInt(index, buffer.getInt(index) ^ key);
+      index += 4;
+    }
+    for (int shift = 24; index < end; index++, shift -= 8) {
+      buffer.put(index, (byte) (buffer.get(index) ^ (maskKey >>> shift)));
+    }
+  }
 }
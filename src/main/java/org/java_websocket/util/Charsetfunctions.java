@@ -84,6 +84,20 @@ public class Charsetfunctions {
     return s;
   }
 
+  /**
+   * The state of {@link #updateUTF8State(int, ByteBuffer)} after a complete valid sequence
+   *
+   * @since 1.6.1
+   */
+  public static final int UTF8_ACCEPT = 0;
+
+  /**
+   * The state of {@link #updateUTF8State(int, ByteBuffer)} after an invalid sequence
+   *
+   * @since 1.6.1
+   */
+  public static final int UTF8_REJECT = 1;
+
   /**
    * Implementation of the "Flexible and Economical UTF-8 Decoder" algorithm by Björn Höhrmann
    * (http://bjoern.hoehrmann.de/utf-8/decoder/dfa/)
@@ -141,6 +155,25 @@ public class Charsetfunctions {
     return true;
   }
 
+  /**
+   * Continue the validation of an utf8 encoded string which is received in several parts.
+   * <p>
+   * The bytes between the position and the limit of <var>data</var> are checked, the position is
+   * not changed.
+   *
+   * @param state the result for the previous part or {@link #UTF8_ACCEPT} for the first one
+   * @param data  the next part of the string
+   * @return {@link #UTF8_ACCEPT} if all parts form a valid string, {@link #UTF8_REJECT} if they
+   * are invalid or any other value if the last character is incomplete
+   * @since 1.6.1
+   */
+  public static int updateUTF8State(int state, ByteBuffer data) {
+    for (int i = data.position(); i < data.limit() && state != UTF8_REJECT; ++i) {
+      state = utf8d[256 + (state << 4) + utf8d[(0xff & data.get(i))]];
+    }
+    return state;
+  }
+
   /**
    * Calling isValidUTF8 with offset 0
    *
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A timer for a large number of timeouts which do not need a precise deadline.
+ * <p>
+ * The timeouts are hashed into the buckets of a wheel by their deadline. A single thread advances
+ * the wheel by one bucket per tick and runs the expired timeouts of that bucket, so scheduling and
+ * cancelling take constant time no matter how many timeouts are pending. A timeout never runs
+ * before its deadline and at most about one tick after it. The tasks run on the timer thread and
+ * must not block.
+ * <p>
+ * The thread is started with the first timeout. After {@link #stop()} no new timeouts are accepted
+ * and the pending ones are dropped.
+ *
+ * @since 1.6.1
+ */
+public class HashedWheelTimer {
+
+  /**
+   * A scheduled task
+   *
+   * @since 1.6.1
+   */
+  public interface Timeout {
+
+    /**
+     * Cancel the task, if it did not run yet
+     *
+     * @return true, if the task will not run because of this call
+     */
+    boolean cancel();
+
+    /**
+     * @return whether the task was cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * @return whether the task ran or is running
+     */
+    boolean isExpired();
+  }
+
+  private static final int STATE_INIT = 0;
+  private static final int STATE_STARTED = 1;
+  private static final int STATE_STOPPED = 2;
+
+  private final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+  private final long tickDuration;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Thread worker;
+  private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  /**
+   * The timeouts which are not yet hashed into the wheel
+   */
+  private final Queue<Entry> newTimeouts = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The cancelled timeouts which are still linked into the wheel
+   */
+  private final Queue<Entry> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger pendingCount = new AtomicInteger();
+
+  /**
+   * The {@link System#nanoTime() time} at which the wheel started, all deadlines are relative to it
+   */
+  private volatile long startTime;
+
+  /**
+   * @param threadFactory the factory of the timer thread
+   * @param tickDuration  the duration of a tick
+   * @param unit          the unit of <var>tickDuration</var>
+   * @param ticksPerWheel the number of buckets, rounded up to the next power of two
+   */
+  public HashedWheelTimer(ThreadFactory threadFactory, long tickDuration, TimeUnit unit,
+      int ticksPerWheel) {
+    if (tickDuration <= 0 || ticksPerWheel < 1 || ticksPerWheel > 1 << 30) {
+      throw new IllegalArgumentException();
+    }
+    this.tickDuration = unit.toNanos(tickDuration);
+    int size = 1;
+    while (size < ticksPerWheel) {
+      size <<= 1;
+    }
+    wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    mask = size - 1;
+    worker = threadFactory.newThread(new Worker());
+  }
+
+  /**
+   * Schedule a task
+   *
+   * @param task  the task to run once the delay has passed
+   * @param delay the delay
+   * @param unit  the unit of <var>delay</var>
+   * @return the handle of the scheduled task
+   * @throws IllegalStateException if the timer is stopped
+   */
+  public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new IllegalArgumentException();
+    }
+    start();
+    long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime;
+    if (deadline < 0) {
+      // overflow of a very long delay
+      deadline = Long.MAX_VALUE;
+    }
+    Entry entry = new Entry(task, deadline);
+    pendingCount.incrementAndGet();
+    newTimeouts.add(entry);
+    return entry;
+  }
+
+  /**
+   * Stop the timer thread. The pending timeouts are dropped. This does not wait for the thread, so
+   * it may also be called by a task.
+   */
+  public void stop() {
+    if (state.getAndSet(STATE_STOPPED) == STATE_STARTED && Thread.currentThread() != worker) {
+      worker.interrupt();
+    }
+  }
+
+  /**
+   * @return the number of timeouts which neither ran nor were cancelled
+   */
+  public int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  /**
+   * @return the duration of a tick in nanoseconds
+   */
+  public long getTickDuration() {
+    return tickDuration;
+  }
+
+  /**
+   * Start the timer thread if it is not running yet. This is done implicitly by
+   * {@link #newTimeout(Runnable, long, TimeUnit)}.
+   *
+   * @throws IllegalStateException if the timer is stopped
+   */
+  public void start() {
+    switch (state.get()) {
+      case STATE_INIT:
+        if (state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+          worker.start();
+        }
+        break;
+      case STATE_STARTED:
+        break;
+      default:
+        throw new IllegalStateException("the timer is stopped");
+    }
+    boolean interrupted = false;
+    while (startTime == 0) {
+      try {
+        started.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private final class Worker implements Runnable {
+
+    private long tick;
+
+    @Override
+    public void run() {
+      long now = System.nanoTime();
+      // 0 marks a timer which did not start yet
+      startTime = now == 0 ? 1 : now;
+      started.countDown();
+      while (state.get() == STATE_STARTED) {
+        long deadline = waitForNextTick();
+        if (deadline < 0) {
+          break;
+        }
+        removeCancelled();
+        transferNewTimeouts();
+        wheel[(int) (tick & mask)].expire(deadline);
+        tick++;
+      }
+      for (Bucket bucket : wheel) {
+        bucket.clear();
+      }
+      newTimeouts.clear();
+      cancelledTimeouts.clear();
+      pendingCount.set(0);
+    }
+
+    /**
+     * Sleep until the end of the current tick
+     *
+     * @return the time of the end of the tick relative to the start time or -1, if the timer was
+     * stopped
+     */
+    private long waitForNextTick() {
+      long deadline = tickDuration * (tick + 1);
+      while (true) {
+        long current = System.nanoTime() - startTime;
+        long sleepMillis = (deadline - current + 999999) / 1000000;
+        if (sleepMillis <= 0) {
+          return current;
+        }
+        try {
+          Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+          if (state.get() == STATE_STOPPED) {
+            return -1;
+          }
+        }
+      }
+    }
+
+    private void transferNewTimeouts() {
+      // bound the work per tick, timeouts added meanwhile wait for the next tick
+      for (int i = 0; i < 100000; i++) {
+        Entry entry = newTimeouts.poll();
+        if (entry == null) {
+          return;
+        }
+        if (entry.isCancelled()) {
+          continue;
+        }
+        long calculated = entry.deadline / tickDuration;
+        entry.remainingRounds = (calculated - tick) / wheel.length;
+        // a deadline in the past expires with the current tick
+        long ticks = Math.max(calculated, tick);
+        wheel[(int) (ticks & mask)].add(entry);
+      }
+    }
+
+    private void removeCancelled() {
+      Entry entry;
+      while ((entry = cancelledTimeouts.poll()) != null) {
+        if (entry.bucket != null) {
+          entry.bucket.remove(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * A doubly linked list of the timeouts of one slot of the wheel, only used by the timer thread
+   */
+  private final class Bucket {
+
+    private Entry head;
+    private Entry tail;
+
+    void add(Entry entry) {
+      entry.bucket = this;
+      if (head == null) {
+        head = tail = entry;
+      } else {
+        tail.next = entry;
+        entry.prev = tail;
+        tail = entry;
+      }
+    }
+
+    void expire(long deadline) {
+      Entry entry = head;
+      while (entry != null) {
+        Entry next = entry.next;
+        if (entry.remainingRounds <= 0 && entry.deadline <= deadline) {
+          remove(entry);
+          entry.expire();
+        } else if (entry.isCancelled()) {
+          remove(entry);
+        } else {
+          entry.remainingRounds--;
+        }
+        entry = next;
+      }
+    }
+
+    void remove(Entry entry) {
+      if (entry.bucket != this) {
+        return;
+      }
+      if (entry.prev != null) {
+        entry.prev.next = entry.next;
+      } else {
+        head = entry.next;
+      }
+      if (entry.next != null) {
+        entry.next.prev = entry.prev;
+      } else {
+        tail = entry.prev;
+      }
+      entry.prev = null;
+      entry.next = null;
+      entry.bucket = null;
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+    }
+  }
+
+  private final class Entry implements Timeout {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final Runnable task;
+    private final long deadline;
+    private final AtomicInteger entryState = new AtomicInteger(PENDING);
+
+    private long remainingRounds;
+    private Bucket bucket;
+    private Entry prev;
+    private Entry next;
+
+    Entry(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!entryState.compareAndSet(PENDING, CANCELLED)) {
+        return false;
+      }
+      pendingCount.decrementAndGet();
+      cancelledTimeouts.add(this);
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return entryState.get() == CANCELLED;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return entryState.get() == EXPIRED;
+    }
+
+    void expire() {
+      if (!entryState.compareAndSet(PENDING, EXPIRED)) {
+        return;
+      }
+      pendingCount.decrementAndGet();
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.error("Exception in timer task", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorTaskQueueTest {
+
+  private Selector selector;
+  private Pipe pipe;
+  private SelectorTaskQueue tasks;
+
+  @Before
+  public void setUp() throws IOException {
+    selector = Selector.open();
+    pipe = Pipe.open();
+    pipe.sink().configureBlocking(false);
+    tasks = new SelectorTaskQueue(selector);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    selector.close();
+    pipe.sink().close();
+    pipe.source().close();
+  }
+
+  @Test
+  public void testCoalescedWakeup() throws IOException {
+    WebSocketImpl conn = register();
+    tasks.requestWrite(conn);
+    tasks.requestWrite(conn);
+    tasks.requestWrite(conn);
+    assertEquals(1, tasks.getWakeupCount());
+    assertEquals(0, conn.getSelectionKey().interestOps());
+    // the pending wake up makes the select return immediately
+    selector.select(10000);
+    tasks.runTasks();
+    assertEquals(SelectionKey.OP_WRITE, conn.getSelectionKey().interestOps());
+    tasks.requestWrite(conn);
+    assertEquals(2, tasks.getWakeupCount());
+    tasks.wakeup();
+    assertEquals(2, tasks.getWakeupCount());
+  }
+
+  @Test
+  public void testExecute() throws IOException {
+    WebSocketImpl conn = register();
+    final List<Integer> interestOps = new ArrayList<>();
+    final SelectionKey key = conn.getSelectionKey();
+    tasks.requestWrite(conn);
+    tasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        interestOps.add(key.interestOps());
+      }
+    });
+    assertEquals(1, tasks.getWakeupCount());
+    assertTrue(interestOps.isEmpty());
+    tasks.runTasks();
+    // the task runs after the write demands of the same pass were applied
+    assertEquals(Collections.singletonList(SelectionKey.OP_WRITE), interestOps);
+  }
+
+  @Test
+  public void testOwnerAppliesDirectly() throws IOException {
+    WebSocketImpl conn = register();
+    tasks.setOwner(Thread.currentThread());
+    tasks.requestWrite(conn);
+    assertEquals(SelectionKey.OP_WRITE, conn.getSelectionKey().interestOps());
+    assertEquals(0, tasks.getWakeupCount());
+  }
+
+  @Test
+  public void testCancelledKey() throws IOException {
+    WebSocketImpl conn = register();
+    conn.outQueue.add(ByteBuffer.allocate(1));
+    conn.getSelectionKey().cancel();
+    tasks.requestWrite(conn);
+    tasks.runTasks();
+    assertTrue(conn.outQueue.isEmpty());
+  }
+
+  @Test
+  public void testCancelledKeyResetsBufferedAmount() throws Exception {
+    // an unconnected client ignores the write demands, a stopped server has no task queue
+    WebSocketImpl conn = new WebSocketImpl(new WebSocketClient(new URI("ws://localhost")) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    }, new Draft_6455());
+    conn.setSelectionKey(pipe.sink().register(selector, 0, conn));
+    conn.setWriteBufferWaterMark(0, 1);
+    // the opening handshake is queued through the accounted write path
+    conn.startHandshake(new HandshakeImpl1Client());
+    assertTrue(conn.getBufferedAmount() > 1);
+    assertFalse(conn.isWritable());
+    conn.getSelectionKey().cancel();
+    tasks.requestWrite(conn);
+    tasks.runTasks();
+    assertTrue(conn.outQueue.isEmpty());
+    assertEquals(0, conn.getBufferedAmount());
+    assertTrue(conn.isWritable());
+  }
+
+  private WebSocketImpl register() throws IOException {
+    WebSocketImpl conn = new WebSocketImpl(new WebSocketServer(new InetSocketAddress(0)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+      }
+    }, new Draft_6455());
+    conn.setSelectionKey(pipe.sink().register(selector, 0, conn));
+    return conn;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.Test;
+
+public class SocketChannelIOHelperTest {
+
+  @Test
+  public void testBatchGathersQueuedBuffers() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    for (int i = 0; i < 10; i++) {
+      ws.outQueue.add(ByteBuffer.wrap(new byte[100]));
+    }
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertTrue(SocketChannelIOHelper.batch(ws, channel));
+    assertTrue(ws.outQueue.isEmpty());
+    assertEquals(1, channel.writes.size());
+    assertEquals(Integer.valueOf(10), channel.writes.get(0));
+    assertEquals(1000, channel.written);
+  }
+
+  @Test
+  public void testBatchLimitsBuffersPerWrite() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    int count = SocketChannelIOHelper.MAX_GATHER_BUFFERS + 1;
+    for (int i = 0; i < count; i++) {
+      ws.outQueue.add(ByteBuffer.wrap(new byte[10]));
+    }
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertTrue(SocketChannelIOHelper.batch(ws, channel));
+    assertTrue(ws.outQueue.isEmpty());
+    assertEquals(2, channel.writes.size());
+    assertEquals(Integer.valueOf(SocketChannelIOHelper.MAX_GATHER_BUFFERS), channel.writes.get(0));
+    assertEquals(Integer.valueOf(1), channel.writes.get(1));
+  }
+
+  @Test
+  public void testBatchLimitsBytesPerWrite() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    ws.outQueue.add(ByteBuffer.wrap(new byte[SocketChannelIOHelper.MAX_GATHER_BYTES]));
+    ws.outQueue.add(ByteBuffer.wrap(new byte[10]));
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertTrue(SocketChannelIOHelper.batch(ws, channel));
+    assertEquals(2, channel.writes.size());
+    assertEquals(Integer.valueOf(1), channel.writes.get(0));
+  }
+
+  @Test
+  public void testBatchPartialWrite() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    ByteBuffer first = ByteBuffer.wrap(new byte[100]);
+    ByteBuffer second = ByteBuffer.wrap(new byte[100]);
+    ByteBuffer third = ByteBuffer.wrap(new byte[100]);
+    ws.outQueue.add(first);
+    ws.outQueue.add(second);
+    ws.outQueue.add(third);
+    RecordingChannel channel = new RecordingChannel(150);
+    assertFalse(SocketChannelIOHelper.batch(ws, channel));
+    assertEquals(2, ws.outQueue.size());
+    assertEquals(second, ws.outQueue.peek());
+    assertEquals(50, second.remaining());
+    channel.budget = Integer.MAX_VALUE;
+    assertTrue(SocketChannelIOHelper.batch(ws, channel));
+    assertTrue(ws.outQueue.isEmpty());
+    assertEquals(300, channel.written);
+  }
+
+  @Test
+  public void testBatchQuantum() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    ByteBuffer first = ByteBuffer.wrap(new byte[100]);
+    ByteBuffer second = ByteBuffer.wrap(new byte[100]);
+    ws.outQueue.add(first);
+    ws.outQueue.add(second);
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 150));
+    assertEquals(150, channel.written);
+    assertEquals(1, ws.outQueue.size());
+    assertEquals(50, second.remaining());
+    assertEquals(100, second.limit());
+    assertEquals(0, ws.getWriteDeficit());
+    assertTrue(SocketChannelIOHelper.batch(ws, channel, 150));
+    assertEquals(200, channel.written);
+    assertTrue(ws.outQueue.isEmpty());
+    assertEquals(0, ws.getWriteDeficit());
+  }
+
+  @Test
+  public void testBatchQuantumCarriesDeficit() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    ws.outQueue.add(ByteBuffer.wrap(new byte[500]));
+    RecordingChannel channel = new RecordingChannel(30);
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 100));
+    assertEquals(70, ws.getWriteDeficit());
+    channel.budget = Integer.MAX_VALUE;
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 100));
+    assertEquals(200, channel.written);
+    assertEquals(0, ws.getWriteDeficit());
+    channel.budget = 0;
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 100));
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 100));
+    assertEquals("deficit must not exceed a single grant", 100, ws.getWriteDeficit());
+  }
+
+  @Test
+  public void testBatchWriteWeight() throws IOException {
+    WebSocketImpl ws = createWebSocket();
+    ws.setWriteWeight(3);
+    ws.outQueue.add(ByteBuffer.wrap(new byte[1000]));
+    RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+    assertFalse(SocketChannelIOHelper.batch(ws, channel, 100));
+    assertEquals(300, channel.written);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWriteWeight() {
+    createWebSocket().setWriteWeight(0);
+  }
+
+  private static WebSocketImpl createWebSocket() {
+    WebSocketServer listener = new WebSocketServer() {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+      }
+    };
+    return new WebSocketImpl(listener, new Draft_6455());
+  }
+
+  /**
+   * Channel which accepts at most <var>budget</var> bytes and records the number of buffers passed
+   * to each write
+   */
+  private static class RecordingChannel implements ByteChannel, GatheringByteChannel {
+
+    private final List<Integer> writes = new ArrayList<>();
+    private int budget;
+    private long written;
+
+    RecordingChannel(int budget) {
+      this.budget = budget;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      writes.add(length);
+      long total = 0;
+      for (int i = offset; i < offset + length; i++) {
+        total += consume(srcs[i]);
+      }
+      return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      writes.add(1);
+      return consume(src);
+    }
+
+    private int consume(ByteBuffer src) {
+      int n = Math.min(src.remaining(), budget);
+      src.position(src.position() + n);
+      budget -= n;
+      written += n;
+      return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      return 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -33,7 +33,9 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
     org.java_websocket.client.AttachmentTest.class,
     org.java_websocket.client.SchemaCheckTest.class,
-    org.java_websocket.client.HeadersTest.class
+    org.java_websocket.client.HeadersTest.class,
+    org.java_websocket.client.ClientEventLoopTest.class,
+    org.java_websocket.client.WriteBatchTest.class
 })
 /**
  * Start all tests for the client
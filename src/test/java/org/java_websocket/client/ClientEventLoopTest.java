@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
+import org.java_websocket.server.WebSocketServer;
+import org.java_websocket.util.SSLContextUtil;
+import org.java_websocket.util.SocketUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientEventLoopTest {
+
+  private ClientEventLoop eventLoop;
+  private WebSocketServer server;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    eventLoop = new ClientEventLoop(2);
+    port = SocketUtil.getAvailablePort();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    eventLoop.close();
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSelectorCount() throws IOException {
+    new ClientEventLoop(0);
+  }
+
+  @Test(timeout = 10000)
+  public void testEcho() throws Exception {
+    startServer(false);
+    List<TestClient> clients = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      TestClient client = new TestClient(new URI("ws://localhost:" + port), 2);
+      client.setEventLoop(eventLoop);
+      clients.add(client);
+      client.connect();
+    }
+    for (TestClient client : clients) {
+      assertTrue(client.openLatch.await(5, TimeUnit.SECONDS));
+      assertTrue(client.openThread.startsWith("WebSocketClientReactor-"));
+      client.send("hello");
+      client.send(new byte[]{1, 2, 3});
+    }
+    for (TestClient client : clients) {
+      assertTrue(client.messageLatch.await(5, TimeUnit.SECONDS));
+      assertEquals("hello", client.text);
+      assertArrayEquals(new byte[]{1, 2, 3}, client.binary);
+      assertEquals(port, client.getRemoteSocketAddress().getPort());
+      client.closeBlocking();
+      assertEquals(CloseFrame.NORMAL, client.closeCode);
+      assertNull(client.error);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testConnectTimeoutCancelled() throws Exception {
+    startServer(false);
+    TestClient client = new TestClient(new URI("ws://localhost:" + port), 1, 60000);
+    client.setEventLoop(eventLoop);
+    assertTrue(client.connectBlocking());
+    // the timeout must not keep the connection referenced until the deadline
+    assertEquals(0, eventLoop.getPendingConnectTimeouts());
+    client.closeBlocking();
+    assertNull(client.error);
+  }
+
+  @Test(timeout = 10000)
+  public void testSecureEcho() throws Exception {
+    startServer(true);
+    eventLoop.setSSLContext(SSLContextUtil.getContext());
+    TestClient client = new TestClient(new URI("wss://localhost:" + port), 1);
+    client.setEventLoop(eventLoop);
+    assertTrue(client.connectBlocking());
+    assertTrue(client.hasSSLSupport());
+    client.send("secure");
+    assertTrue(client.messageLatch.await(5, TimeUnit.SECONDS));
+    assertEquals("secure", client.text);
+    client.closeBlocking();
+    assertNull(client.error);
+  }
+
+  @Test(timeout = 10000)
+  public void testReconnect() throws Exception {
+    startServer(false);
+    TestClient client = new TestClient(new URI("ws://localhost:" + port), 1);
+    client.setEventLoop(eventLoop);
+    assertTrue(client.connectBlocking());
+    client.closeBlocking();
+    assertTrue(client.reconnectBlocking());
+    client.send("again");
+    assertTrue(client.messageLatch.await(5, TimeUnit.SECONDS));
+    assertEquals("again", client.text);
+    client.closeBlocking();
+  }
+
+  @Test(timeout = 10000)
+  public void testConnectionRefused() throws Exception {
+    TestClient client = new TestClient(new URI("ws://localhost:" + port), 1);
+    client.setEventLoop(eventLoop);
+    assertFalse(client.connectBlocking());
+    assertEquals(CloseFrame.NEVER_CONNECTED, client.closeCode);
+    assertTrue(client.error instanceof IOException);
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseEventLoop() throws Exception {
+    startServer(false);
+    TestClient client = new TestClient(new URI("ws://localhost:" + port), 1);
+    client.setEventLoop(eventLoop);
+    assertTrue(client.connectBlocking());
+    eventLoop.close();
+    assertTrue(client.closeLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(CloseFrame.ABNORMAL_CLOSE, client.closeCode);
+    assertTrue(eventLoop.isClosed());
+
+    TestClient late = new TestClient(new URI("ws://localhost:" + port), 1);
+    late.setEventLoop(eventLoop);
+    assertFalse(late.connectBlocking());
+    assertEquals(CloseFrame.NEVER_CONNECTED, late.closeCode);
+  }
+
+  @Test
+  public void testSettings() throws Exception {
+    TestClient client = new TestClient(new URI("ws://localhost:" + port), 1);
+    assertNull(client.getEventLoop());
+    client.setEventLoop(eventLoop);
+    assertEquals(eventLoop, client.getEventLoop());
+    assertEquals(2, eventLoop.getSelectorCount());
+    client.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost", port)));
+    try {
+      client.connect();
+      fail("IllegalStateException expected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private void startServer(boolean secure) throws InterruptedException {
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    server = new WebSocketServer(new InetSocketAddress(port)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        conn.send(message);
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, ByteBuffer message) {
+        conn.send(message);
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    if (secure) {
+      try {
+        SSLContext sslContext = SSLContextUtil.getContext();
+        server.setWebSocketFactory(new DefaultSSLWebSocketServerFactory(sslContext));
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+    }
+    server.start();
+    startLatch.await();
+  }
+
+  private static class TestClient extends WebSocketClient {
+
+    private final CountDownLatch openLatch = new CountDownLatch(1);
+    private final CountDownLatch messageLatch;
+    private final CountDownLatch closeLatch = new CountDownLatch(1);
+    private volatile String openThread;
+    private volatile String text;
+    private volatile byte[] binary;
+    private volatile int closeCode;
+    private volatile Exception error;
+
+    TestClient(URI uri, int messages) {
+      super(uri);
+      messageLatch = new CountDownLatch(messages);
+    }
+
+    TestClient(URI uri, int messages, int connectTimeout) {
+      super(uri, new Draft_6455(), null, connectTimeout);
+      messageLatch = new CountDownLatch(messages);
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+      openThread = Thread.currentThread().getName();
+      openLatch.countDown();
+    }
+
+    @Override
+    public void onMessage(String message) {
+      text = message;
+      messageLatch.countDown();
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+      binary = new byte[bytes.remaining()];
+      bytes.get(binary);
+      messageLatch.countDown();
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+      closeCode = code;
+      closeLatch.countDown();
+    }
+
+    @Override
+    public void onError(Exception ex) {
+      error = ex;
+    }
+  }
+}
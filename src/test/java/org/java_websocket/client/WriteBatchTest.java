@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.java_websocket.util.SocketUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBatchTest {
+
+  private static final int MESSAGES = 200;
+
+  private WebSocketServer server;
+  private int port;
+  private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+  private final CountDownLatch receivedLatch = new CountDownLatch(MESSAGES);
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    server = new WebSocketServer(new InetSocketAddress(port)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        received.add(message);
+        receivedLatch.countDown();
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    server.stop();
+  }
+
+  @Test
+  public void testSettings() throws Exception {
+    WebSocketClient client = new TestClient(new URI("ws://localhost:" + port));
+    assertEquals(WebSocketClient.DEFAULT_WRITE_BATCH_SIZE, client.getWriteBatchSize());
+    assertEquals(0, client.getWriteLinger(TimeUnit.MILLISECONDS));
+    client.setWriteBatchSize(1024);
+    client.setWriteLinger(5, TimeUnit.MILLISECONDS);
+    assertEquals(1024, client.getWriteBatchSize());
+    assertEquals(5000, client.getWriteLinger(TimeUnit.MICROSECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBatchSize() throws Exception {
+    new TestClient(new URI("ws://localhost:" + port)).setWriteBatchSize(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLinger() throws Exception {
+    new TestClient(new URI("ws://localhost:" + port)).setWriteLinger(-1, TimeUnit.SECONDS);
+  }
+
+  @Test(timeout = 10000)
+  public void testLingerCoalescesFrames() throws Exception {
+    AtomicInteger flushes = new AtomicInteger();
+    WebSocketClient client = new TestClient(new URI("ws://localhost:" + port));
+    client.setSocketFactory(new CountingSocketFactory(flushes));
+    client.setWriteLinger(1, TimeUnit.SECONDS);
+    assertTrue(client.connectBlocking());
+    int flushesBefore = flushes.get();
+    for (int i = 0; i < MESSAGES; i++) {
+      client.send("message " + i);
+    }
+    assertTrue(receivedLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(flushes.get() - flushesBefore < 10);
+    assertOrdered();
+    client.closeBlocking();
+  }
+
+  @Test(timeout = 10000)
+  public void testSmallBatchSize() throws Exception {
+    WebSocketClient client = new TestClient(new URI("ws://localhost:" + port));
+    client.setWriteBatchSize(16);
+    assertTrue(client.connectBlocking());
+    for (int i = 0; i < MESSAGES; i++) {
+      client.send("message " + i);
+    }
+    assertTrue(receivedLatch.await(5, TimeUnit.SECONDS));
+    assertOrdered();
+    client.closeBlocking();
+  }
+
+  private void assertOrdered() {
+    assertEquals(MESSAGES, received.size());
+    for (int i = 0; i < MESSAGES; i++) {
+      assertEquals("message " + i, received.get(i));
+    }
+  }
+
+  private static class CountingSocketFactory extends SocketFactory {
+
+    private final AtomicInteger flushes;
+
+    CountingSocketFactory(AtomicInteger flushes) {
+      this.flushes = flushes;
+    }
+
+    @Override
+    public Socket createSocket() {
+      return new Socket() {
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+          return new FilterOutputStream(super.getOutputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+              out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+              flushes.incrementAndGet();
+              super.flush();
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost,
+        int localPort) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port,
+        InetAddress localAddress, int localPort) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class TestClient extends WebSocketClient {
+
+    TestClient(URI uri) {
+      super(uri);
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+    }
+
+    @Override
+    public void onMessage(String message) {
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(Exception ex) {
+    }
+  }
+}
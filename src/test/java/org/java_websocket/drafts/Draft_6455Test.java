@@ -26,26 +26,43 @@
 package org.java_websocket.drafts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.enums.CloseHandshakeType;
 import org.java_websocket.enums.HandshakeState;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.Role;
+import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.exceptions.LimitExceededException;
 import org.java_websocket.extensions.DefaultExtension;
 import org.java_websocket.extensions.IExtension;
 import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.FrameSink;
 import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.framing.TextFrame;
 import org.java_websocket.handshake.HandshakeImpl1Client;
 import org.java_websocket.handshake.HandshakeImpl1Server;
+import org.java_websocket.handshake.Handshakedata;
 import org.java_websocket.protocols.IProtocol;
 import org.java_websocket.protocols.Protocol;
 import org.java_websocket.util.Charsetfunctions;
@@ -321,6 +338,25 @@ public class Draft_6455Test {
     assertEquals(draft0.hashCode(), draft1.hashCode());
   }
 
+  @Test
+  public void testGetFrameEncodingKey() throws Exception {
+    Draft_6455 client = new Draft_6455();
+    client.setParseMode(Role.CLIENT);
+    assertNull(client.getFrameEncodingKey());
+    Draft_6455 server0 = new Draft_6455();
+    server0.setParseMode(Role.SERVER);
+    Draft server1 = server0.copyInstance();
+    server1.setParseMode(Role.SERVER);
+    assertNotNull(server0.getFrameEncodingKey());
+    assertEquals(server0.getFrameEncodingKey(), server1.getFrameEncodingKey());
+    // extensions have to opt in to share their encoding
+    Draft_6455 custom = new Draft_6455(new TestExtension());
+    custom.setParseMode(Role.SERVER);
+    custom.acceptHandshakeAsServer(handshakedataExtension);
+    assertTrue(custom.getExtension() instanceof TestExtension);
+    assertNull(custom.getFrameEncodingKey());
+  }
+
   @Test
   public void acceptHandshakeAsServer() throws Exception {
     Draft_6455 draft_6455 = new Draft_6455();
@@ -551,6 +587,327 @@ public class Draft_6455Test {
     assertEquals(curframe, createdFrame.get(0));
   }
 
+  @Test
+  public void zeroCopyPayloads() throws Exception {
+    Draft_6455 client = new Draft_6455();
+    client.setParseMode(Role.CLIENT);
+    Draft_6455 server = new Draft_6455();
+    server.setParseMode(Role.SERVER);
+    assertFalse(server.isZeroCopyPayloads());
+    server.setZeroCopyPayloads(true);
+    assertTrue(((Draft_6455) server.copyInstance()).isZeroCopyPayloads());
+
+    BinaryFrame frame = new BinaryFrame();
+    frame.setPayload(ByteBuffer.wrap("zero copy".getBytes()));
+    ByteBuffer received = client.createBinaryFrame(frame);
+    int payloadStart = received.limit() - 9;
+    List<Framedata> frames = server.translateFrame(received);
+    assertEquals(1, frames.size());
+    ByteBuffer payload = frames.get(0).getPayloadData();
+    assertTrue(payload.isReadOnly());
+    assertEquals(ByteBuffer.wrap("zero copy".getBytes()), payload);
+    // the payload was unmasked inside the read buffer
+    received.position(payloadStart);
+    assertEquals(ByteBuffer.wrap("zero copy".getBytes()), received);
+  }
+
+  @Test
+  public void zeroCopyPayloadsCopiesFragments() throws Exception {
+    Draft_6455 client = new Draft_6455();
+    client.setParseMode(Role.CLIENT);
+    Draft_6455 server = new Draft_6455();
+    server.setParseMode(Role.SERVER);
+    server.setZeroCopyPayloads(true);
+
+    BinaryFrame first = new BinaryFrame();
+    first.setPayload(ByteBuffer.wrap("first".getBytes()));
+    first.setFin(false);
+    ContinuousFrame last = new ContinuousFrame();
+    last.setPayload(ByteBuffer.wrap("last".getBytes()));
+    ByteBuffer received = ByteBuffer.allocate(64);
+    received.put(client.createBinaryFrame(first)).put(client.createBinaryFrame(last)).flip();
+    List<Framedata> frames = server.translateFrame(received);
+    assertEquals(2, frames.size());
+    for (Framedata fragment : frames) {
+      assertFalse(fragment.getPayloadData().isReadOnly());
+    }
+    assertEquals(ByteBuffer.wrap("first".getBytes()), frames.get(0).getPayloadData());
+    assertEquals(ByteBuffer.wrap("last".getBytes()), frames.get(1).getPayloadData());
+  }
+
+  @Test
+  public void streamingMessages() throws Exception {
+    Draft_6455 draft = new Draft_6455();
+    assertFalse(draft.isStreamingMessages());
+    draft.setStreamingMessages(true);
+    assertTrue(((Draft_6455) draft.copyInstance()).isStreamingMessages());
+    StreamRecorder recorder = new StreamRecorder();
+    WebSocketImpl webSocket = new WebSocketImpl(recorder, draft);
+
+    // U+00E4 is split between the first two fragments
+    TextFrame first = new TextFrame();
+    first.setPayload(ByteBuffer.wrap(new byte[]{'a', (byte) 0xc3}));
+    first.setFin(false);
+    ContinuousFrame second = new ContinuousFrame();
+    second.setPayload(ByteBuffer.wrap(new byte[]{(byte) 0xa4, 'b'}));
+    second.setFin(false);
+    ContinuousFrame empty = new ContinuousFrame();
+    empty.setFin(false);
+    ContinuousFrame last = new ContinuousFrame();
+    last.setPayload(ByteBuffer.wrap(new byte[]{'c'}));
+    BinaryFrame binary = new BinaryFrame();
+    binary.setPayload(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    for (Framedata frame : new Framedata[]{first, second, empty, last, binary}) {
+      draft.processFrame(webSocket, frame);
+    }
+    assertEquals(Arrays.asList("start TEXT", "fragment 2", "fragment 2", "fragment 1", "end",
+        "start BINARY", "fragment 3", "end"), recorder.events);
+  }
+
+  @Test
+  public void streamingMessagesLargeFrame() throws Exception {
+    BinaryFrame binary = binaryFrame(100000);
+    TextFrame text = new TextFrame();
+    text.setPayload(ByteBuffer.wrap(Charsetfunctions.utf8Bytes(
+        new String(new char[2000]).replace('\0', '\u00e4'))));
+    Draft_6455 client = clientDraft();
+    ByteBuffer encoded = ByteBuffer.allocate(110000);
+    encoded.put(client.createBinaryFrame(binary)).put(client.createBinaryFrame(text)).flip();
+    for (boolean zeroCopy : new boolean[]{false, true}) {
+      // the frames exceed the maximum frame size, they are only accepted because of streaming
+      final Draft_6455 draft = new Draft_6455(Collections.<IExtension>emptyList(), 1024);
+      draft.setParseMode(Role.SERVER);
+      draft.setStreamingMessages(true);
+      draft.setZeroCopyPayloads(zeroCopy);
+      StreamRecorder recorder = new StreamRecorder();
+      final WebSocketImpl webSocket = new WebSocketImpl(recorder, draft);
+      FrameSink sink = new FrameSink() {
+        @Override
+        public void onFrame(Framedata frame) throws InvalidDataException {
+          draft.processFrame(webSocket, frame);
+        }
+      };
+      ByteBuffer stream = encoded.duplicate();
+      while (stream.hasRemaining()) {
+        // an odd read size, so the parts start at every offset of the masking key
+        ByteBuffer read = ByteBuffer.allocate(Math.min(999, stream.remaining()));
+        ByteBuffer source = stream.duplicate();
+        source.limit(source.position() + read.remaining());
+        read.put(source).flip();
+        stream.position(source.limit());
+        draft.translateFrame(read, sink);
+      }
+      assertEquals("start BINARY", recorder.events.get(0));
+      assertEquals("start TEXT", recorder.events.get(recorder.events.indexOf("end") + 1));
+      assertEquals("end", recorder.events.get(recorder.events.size() - 1));
+      for (String event : recorder.events) {
+        if (event.startsWith("fragment ")) {
+          assertTrue(event, Integer.parseInt(event.substring(9)) <= 999);
+        }
+      }
+      assertEquals(2, recorder.messages.size());
+      binary.getPayloadData().rewind();
+      assertEquals(binary.getPayloadData(), ByteBuffer.wrap(recorder.messages.get(0)));
+      text.getPayloadData().rewind();
+      assertEquals(text.getPayloadData(), ByteBuffer.wrap(recorder.messages.get(1)));
+    }
+  }
+
+  @Test
+  public void streamingMessagesInvalidUtf8() throws Exception {
+    Draft_6455 draft = new Draft_6455();
+    draft.setStreamingMessages(true);
+    StreamRecorder recorder = new StreamRecorder();
+    WebSocketImpl webSocket = new WebSocketImpl(recorder, draft);
+    TextFrame first = new TextFrame();
+    first.setPayload(ByteBuffer.wrap(new byte[]{'a', (byte) 0xc3}));
+    first.setFin(false);
+    draft.processFrame(webSocket, first);
+    ContinuousFrame last = new ContinuousFrame();
+    try {
+      draft.processFrame(webSocket, last);
+      fail("InvalidDataException should be thrown");
+    } catch (InvalidDataException e) {
+      assertEquals(CloseFrame.NO_UTF8, e.getCloseCode());
+    }
+    assertEquals(2, recorder.events.size());
+  }
+
+  @Test
+  public void streamingMessagesProtocolErrors() throws Exception {
+    Draft_6455 draft = new Draft_6455();
+    draft.setStreamingMessages(true);
+    WebSocketImpl webSocket = new WebSocketImpl(new StreamRecorder(), draft);
+    try {
+      draft.processFrame(webSocket, new ContinuousFrame());
+      fail("InvalidDataException should be thrown");
+    } catch (InvalidDataException e) {
+      assertEquals(CloseFrame.PROTOCOL_ERROR, e.getCloseCode());
+    }
+    BinaryFrame first = new BinaryFrame();
+    first.setFin(false);
+    draft.processFrame(webSocket, first);
+    try {
+      draft.processFrame(webSocket, new TextFrame());
+      fail("InvalidDataException should be thrown");
+    } catch (InvalidDataException e) {
+      assertEquals(CloseFrame.PROTOCOL_ERROR, e.getCloseCode());
+    }
+    draft.reset();
+    draft.processFrame(webSocket, new TextFrame());
+  }
+
+  @Test
+  public void translateFrameSplitAtEveryByte() throws Exception {
+    ByteBuffer stream = encodeTestFrames();
+    List<Framedata> expected = serverDraft().translateFrame(stream.duplicate());
+    assertEquals(7, expected.size());
+
+    Draft_6455 draft = serverDraft();
+    List<Framedata> frames = new ArrayList<>();
+    while (stream.hasRemaining()) {
+      ByteBuffer single = stream.duplicate();
+      single.limit(single.position() + 1);
+      stream.get();
+      frames.addAll(draft.translateFrame(single));
+      assertFalse(single.hasRemaining());
+    }
+    assertEquals(expected, frames);
+  }
+
+  @Test
+  public void translateFrameRandomSplits() throws Exception {
+    ByteBuffer stream = encodeTestFrames();
+    List<Framedata> expected = serverDraft().translateFrame(stream.duplicate());
+    Random random = new Random(42);
+    for (int run = 0; run < 50; run++) {
+      Draft_6455 draft = serverDraft();
+      final List<Framedata> frames = new ArrayList<>();
+      FrameSink sink = new FrameSink() {
+        @Override
+        public void onFrame(Framedata frame) {
+          frames.add(frame);
+        }
+      };
+      ByteBuffer remaining = stream.duplicate();
+      while (remaining.hasRemaining()) {
+        ByteBuffer chunk = remaining.duplicate();
+        chunk.limit(chunk.position() + Math.min(remaining.remaining(), random.nextInt(70000)));
+        remaining.position(chunk.limit());
+        draft.translateFrame(chunk, sink);
+      }
+      assertEquals(expected, frames);
+    }
+  }
+
+  @Test
+  public void translateFrameEmptyPayloadAfterHeader() throws Exception {
+    Draft_6455 draft = serverDraft();
+    // a masked ping without payload, which ends right after the masking key
+    List<Framedata> frames = draft.translateFrame(
+        ByteBuffer.wrap(new byte[]{(byte) 0x89, (byte) 0x80, 1, 2, 3, 4}));
+    assertEquals(1, frames.size());
+    assertTrue(frames.get(0) instanceof PingFrame);
+    assertEquals(0, frames.get(0).getPayloadData().remaining());
+  }
+
+  @Test
+  public void translateFrameLimitBeforePayload() throws Exception {
+    Draft_6455 draft = new Draft_6455(Collections.<IExtension>emptyList(), 100);
+    draft.setParseMode(Role.SERVER);
+    // only the header of a frame with 1000 bytes of payload
+    try {
+      draft.translateFrame(ByteBuffer.wrap(new byte[]{(byte) 0x82, (byte) 0xFE, 0x03, (byte) 0xE8}));
+      fail("LimitExceededException should be thrown");
+    } catch (LimitExceededException e) {
+      assertEquals(100, e.getLimit());
+    }
+  }
+
+  @Test
+  public void translateFramePassesFramesBeforeAnInvalidFrame() throws Exception {
+    Draft_6455 draft = serverDraft();
+    ByteBuffer stream = ByteBuffer.allocate(64);
+    stream.put(clientDraft().createBinaryFrame(binaryFrame(3)));
+    // opcode 3 is reserved
+    stream.put(new byte[]{(byte) 0x83, (byte) 0x80, 1, 2, 3, 4});
+    stream.flip();
+    final List<Framedata> frames = new ArrayList<>();
+    try {
+      draft.translateFrame(stream, new FrameSink() {
+        @Override
+        public void onFrame(Framedata frame) {
+          frames.add(frame);
+        }
+      });
+      fail("InvalidDataException should be thrown");
+    } catch (InvalidDataException e) {
+      assertEquals(1, frames.size());
+    }
+  }
+
+  @Test
+  public void translateFrameAfterReset() throws Exception {
+    Draft_6455 draft = serverDraft();
+    ByteBuffer frame = clientDraft().createBinaryFrame(binaryFrame(300));
+    ByteBuffer part = frame.duplicate();
+    part.limit(5);
+    assertTrue(draft.translateFrame(part).isEmpty());
+    draft.reset();
+    assertEquals(1, draft.translateFrame(frame.duplicate()).size());
+  }
+
+  private static Draft_6455 serverDraft() {
+    Draft_6455 draft = new Draft_6455();
+    draft.setParseMode(Role.SERVER);
+    return draft;
+  }
+
+  private static Draft_6455 clientDraft() {
+    Draft_6455 draft = new Draft_6455();
+    draft.setParseMode(Role.CLIENT);
+    return draft;
+  }
+
+  private static BinaryFrame binaryFrame(int size) {
+    byte[] payload = new byte[size];
+    new Random(size).nextBytes(payload);
+    BinaryFrame frame = new BinaryFrame();
+    frame.setPayload(ByteBuffer.wrap(payload));
+    return frame;
+  }
+
+  /**
+   * @return masked frames with every kind of payload length, including a ping between fragments
+   */
+  private static ByteBuffer encodeTestFrames() {
+    Draft_6455 client = clientDraft();
+    List<ByteBuffer> encoded = new ArrayList<>();
+    encoded.add(client.createBinaryFrame(binaryFrame(0)));
+    encoded.add(client.createBinaryFrame(binaryFrame(125)));
+    encoded.add(client.createBinaryFrame(binaryFrame(126)));
+    BinaryFrame first = binaryFrame(65535);
+    first.setFin(false);
+    encoded.add(client.createBinaryFrame(first));
+    encoded.add(client.createBinaryFrame(new PingFrame()));
+    ContinuousFrame last = new ContinuousFrame();
+    last.setPayload(ByteBuffer.wrap(new byte[65536]));
+    encoded.add(client.createBinaryFrame(last));
+    TextFrame text = new TextFrame();
+    text.setPayload(ByteBuffer.wrap(Charsetfunctions.utf8Bytes("text frame")));
+    encoded.add(client.createBinaryFrame(text));
+    int size = 0;
+    for (ByteBuffer buffer : encoded) {
+      size += buffer.remaining();
+    }
+    ByteBuffer stream = ByteBuffer.allocate(size);
+    for (ByteBuffer buffer : encoded) {
+      stream.put(buffer);
+    }
+    stream.flip();
+    return stream;
+  }
+
 
   private class TestExtension extends DefaultExtension {
 
@@ -575,4 +932,76 @@ public class Draft_6455Test {
       return getClass() == o.getClass();
     }
   }
+  private static class StreamRecorder extends WebSocketAdapter {
+
+    private final List<String> events = new ArrayList<>();
+
+    private final List<byte[]> messages = new ArrayList<>();
+
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+
+    @Override
+    public void onWebsocketMessageStart(WebSocket conn, Opcode opcode) {
+      events.add("start " + opcode);
+      message.reset();
+    }
+
+    @Override
+    public void onWebsocketMessageFragment(WebSocket conn, ByteBuffer fragment) {
+      events.add("fragment " + fragment.remaining());
+      byte[] bytes = new byte[fragment.remaining()];
+      fragment.get(bytes);
+      message.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void onWebsocketMessageEnd(WebSocket conn) {
+      events.add("end");
+      messages.add(message.toByteArray());
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, String message) {
+      fail("onWebsocketMessage should not be called");
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) {
+      fail("onWebsocketMessage should not be called");
+    }
+
+    @Override
+    public void onWebsocketOpen(WebSocket conn, Handshakedata d) {
+    }
+
+    @Override
+    public void onWebsocketClose(WebSocket ws, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onWebsocketClosing(WebSocket ws, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onWebsocketCloseInitiated(WebSocket ws, int code, String reason) {
+    }
+
+    @Override
+    public void onWebsocketError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onWriteDemand(WebSocket conn) {
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+      return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+      return null;
+    }
+  }
 }
@@ -27,6 +27,8 @@ package org.java_websocket.extensions;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -141,6 +143,15 @@ public class DefaultExtensionTest {
     assertEquals(defaultExtension0.hashCode(), defaultExtension1.hashCode());
   }
 
+  @Test
+  public void testGetFrameEncodingKey() {
+    assertEquals(new DefaultExtension().getFrameEncodingKey(),
+        new DefaultExtension().getFrameEncodingKey());
+    assertNotNull(new DefaultExtension().getFrameEncodingKey());
+    assertNull(new DefaultExtension() {
+    }.getFrameEncodingKey());
+  }
+
   @Test
   public void testEquals() throws Exception {
     DefaultExtension defaultExtension0 = new DefaultExtension();
@@ -3,6 +3,8 @@ package org.java_websocket.extensions;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -139,6 +141,25 @@ public class PerMessageDeflateExtensionTest {
     deflateExtension.encodeFrame(frame);
     assertTrue(message.length > frame.getPayloadData().array().length);
   }
+  @Test
+  public void testEncodeFrameReadOnlySlice() throws InvalidDataException {
+    PerMessageDeflateExtension deflateExtension = new PerMessageDeflateExtension();
+    deflateExtension.setThreshold(0);
+    byte[] message = ("This is a highly compressable text"
+        + "This is a highly compressable text").getBytes();
+    ByteBuffer framed = ByteBuffer.allocate(message.length + 10);
+    framed.position(5);
+    framed.put(message);
+    framed.position(5);
+    framed.limit(5 + message.length);
+    TextFrame frame = new TextFrame();
+    frame.setPayload(framed.slice().asReadOnlyBuffer());
+    deflateExtension.encodeFrame(frame);
+    assertTrue(frame.isRSV1());
+    deflateExtension.decodeFrame(frame);
+    assertArrayEquals(message, frame.getPayloadData().array());
+  }
+
   @Test
   public void testEncodeFrameBelowThreshold() {
     PerMessageDeflateExtension deflateExtension = new PerMessageDeflateExtension();
@@ -297,6 +318,20 @@ public class PerMessageDeflateExtensionTest {
     assertEquals(deflateExtension.getCompressionLevel(), newDeflateExtension.getCompressionLevel());
   }
 
+  @Test
+  public void testGetFrameEncodingKey() {
+    PerMessageDeflateExtension deflateExtension = new PerMessageDeflateExtension();
+    PerMessageDeflateExtension other = (PerMessageDeflateExtension) deflateExtension.copyInstance();
+    assertEquals(deflateExtension.getFrameEncodingKey(), other.getFrameEncodingKey());
+    other.setThreshold(64);
+    assertNotEquals(deflateExtension.getFrameEncodingKey(), other.getFrameEncodingKey());
+    assertNotEquals(deflateExtension.getFrameEncodingKey(),
+        new PerMessageDeflateExtension(Deflater.BEST_SPEED).getFrameEncodingKey());
+    // the compressor keeps its state between messages
+    deflateExtension.setServerNoContextTakeover(false);
+    assertNull(deflateExtension.getFrameEncodingKey());
+  }
+
   @Test
   public void testDefaults() {
     PerMessageDeflateExtension deflateExtension = new PerMessageDeflateExtension();
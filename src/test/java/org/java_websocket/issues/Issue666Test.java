@@ -81,7 +81,7 @@ public class Issue666Test {
     for (Thread thread : mapAfter.values()) {
       String name = thread.getName();
       if (!name.startsWith("WebSocketSelector-") && !name.startsWith("WebSocketWorker-") && !name
-          .startsWith("connectionLostChecker-")) {
+          .startsWith("WebSocketTimer-")) {
         Assert.fail("Thread not correctly named! Is: " + name);
       }
     }
@@ -146,7 +146,7 @@ public class Issue666Test {
     }
     for (Thread thread : mapAfter.values()) {
       String name = thread.getName();
-      if (!name.startsWith("connectionLostChecker-") && !name.startsWith("WebSocketWriteThread-")
+      if (!name.startsWith("WebSocketTimer-") && !name.startsWith("WebSocketWriteThread-")
           && !name.startsWith("WebSocketConnectReadThread-")) {
         Assert.fail("Thread not correctly named! Is: " + name);
       }
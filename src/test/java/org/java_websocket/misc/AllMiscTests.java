@@ -31,7 +31,8 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-    org.java_websocket.misc.OpeningHandshakeRejectionTest.class
+    org.java_websocket.misc.OpeningHandshakeRejectionTest.class,
+    org.java_websocket.misc.WriteBufferWaterMarkTest.class
 })
 /**
  * Start all tests for mics
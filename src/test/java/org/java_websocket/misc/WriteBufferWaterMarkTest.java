@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.misc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.java_websocket.util.SocketUtil;
+import org.junit.Test;
+
+public class WriteBufferWaterMarkTest {
+
+  private static final int MESSAGE_SIZE = 1024 * 1024;
+
+  @Test
+  public void testDefaults() throws Exception {
+    WebSocketClient client = new EmptyClient(new URI("ws://localhost:80"));
+    assertEquals(WebSocketImpl.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK,
+        client.getWriteBufferLowWaterMark());
+    assertEquals(WebSocketImpl.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK,
+        client.getWriteBufferHighWaterMark());
+    assertTrue(client.isWritable());
+    assertEquals(0, client.getBufferedAmount());
+  }
+
+  @Test
+  public void testInvalidWaterMarks() throws Exception {
+    WebSocketClient client = new EmptyClient(new URI("ws://localhost:80"));
+    try {
+      client.setWriteBufferWaterMark(10, 5);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      client.setWriteBufferWaterMark(-1, 5);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    client.setWriteBufferWaterMark(5, 5);
+    assertEquals(5, client.getWriteBufferLowWaterMark());
+    assertEquals(5, client.getWriteBufferHighWaterMark());
+  }
+
+  @Test(timeout = 10000)
+  public void testServerWritabilityChanged() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final List<Boolean> changes = Collections.synchronizedList(new ArrayList<Boolean>());
+    final CountDownLatch writableLatch = new CountDownLatch(1);
+    final CountDownLatch messageLatch = new CountDownLatch(1);
+    WebSocketServer server = new WebSocketServer(new InetSocketAddress(port)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        conn.send(new byte[MESSAGE_SIZE]);
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+
+      @Override
+      public void onWritabilityChanged(WebSocket conn, boolean writable) {
+        changes.add(writable);
+        if (writable) {
+          writableLatch.countDown();
+        }
+      }
+    };
+    server.setWriteBufferWaterMark(1024, 4096);
+    server.start();
+    assertTrue(startLatch.await(5, TimeUnit.SECONDS));
+    WebSocketClient client = new EmptyClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onMessage(ByteBuffer bytes) {
+        messageLatch.countDown();
+      }
+    };
+    assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+    assertTrue(writableLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(changes.contains(false));
+    WebSocket conn = server.getConnections().iterator().next();
+    assertTrue(conn.isWritable());
+    assertTrue(conn.getBufferedAmount() <= 1024);
+    client.closeBlocking();
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testClientWritabilityChanged() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch messageLatch = new CountDownLatch(1);
+    final CountDownLatch notWritableLatch = new CountDownLatch(1);
+    final CountDownLatch writableLatch = new CountDownLatch(1);
+    WebSocketServer server = new WebSocketServer(new InetSocketAddress(port)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, ByteBuffer message) {
+        messageLatch.countDown();
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.start();
+    assertTrue(startLatch.await(5, TimeUnit.SECONDS));
+    WebSocketClient client = new EmptyClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onWritabilityChanged(WebSocket conn, boolean writable) {
+        if (writable) {
+          writableLatch.countDown();
+        } else {
+          notWritableLatch.countDown();
+        }
+      }
+    };
+    assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+    client.send(new byte[MESSAGE_SIZE]);
+    assertTrue(notWritableLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(writableLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(client.isWritable());
+    assertFalse(client.getBufferedAmount() > client.getWriteBufferLowWaterMark());
+    client.closeBlocking();
+    server.stop();
+  }
+
+  private static class EmptyClient extends WebSocketClient {
+
+    EmptyClient(URI serverUri) {
+      super(serverUri);
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshakedata) {
+    }
+
+    @Override
+    public void onMessage(String message) {
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(Exception ex) {
+    }
+  }
+}
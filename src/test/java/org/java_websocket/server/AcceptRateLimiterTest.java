@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AcceptRateLimiterTest {
+
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testInvalidArguments() {
+    try {
+      new AcceptRateLimiter(0, 1, 0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      new AcceptRateLimiter(1, 0, 0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test
+  public void testBurst() {
+    long now = 1000 * MILLI;
+    AcceptRateLimiter limiter = new AcceptRateLimiter(100, 3, now);
+    assertTrue(limiter.tryAcquire(now));
+    assertTrue(limiter.tryAcquire(now));
+    assertTrue(limiter.tryAcquire(now));
+    assertFalse(limiter.tryAcquire(now));
+    assertEquals(10 * MILLI, limiter.nanosUntilAvailable(now));
+  }
+
+  @Test
+  public void testRefill() {
+    long now = 1000 * MILLI;
+    AcceptRateLimiter limiter = new AcceptRateLimiter(100, 2, now);
+    assertTrue(limiter.tryAcquire(now));
+    assertTrue(limiter.tryAcquire(now));
+    assertFalse(limiter.tryAcquire(now + 9 * MILLI));
+    assertEquals(MILLI, limiter.nanosUntilAvailable(now + 9 * MILLI));
+    assertTrue(limiter.tryAcquire(now + 10 * MILLI));
+    assertFalse(limiter.tryAcquire(now + 10 * MILLI));
+    // a long idle period refills at most the capacity
+    now += 10000 * MILLI;
+    assertEquals(0, limiter.nanosUntilAvailable(now));
+    assertTrue(limiter.tryAcquire(now));
+    assertTrue(limiter.tryAcquire(now));
+    assertFalse(limiter.tryAcquire(now));
+  }
+
+  @Test
+  public void testRefund() {
+    long now = 1000 * MILLI;
+    AcceptRateLimiter limiter = new AcceptRateLimiter(10, 1, now);
+    assertTrue(limiter.tryAcquire(now));
+    assertFalse(limiter.tryAcquire(now));
+    limiter.refund();
+    assertTrue(limiter.tryAcquire(now));
+  }
+}
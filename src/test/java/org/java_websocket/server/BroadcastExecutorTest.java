@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class BroadcastExecutorTest {
+
+  @Test
+  public void testInvalidLaneCount() {
+    try {
+      new BroadcastExecutor(3, Executors.defaultThreadFactory());
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testLaneOrder() throws InterruptedException {
+    BroadcastExecutor executor = new BroadcastExecutor(4, Executors.defaultThreadFactory());
+    final List<List<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+    final CountDownLatch done = new CountDownLatch(4 * 1000);
+    for (int i = 0; i < 1000; i++) {
+      for (int lane = 0; lane < 4; lane++) {
+        final List<Integer> result = results.get(lane);
+        final int value = i;
+        executor.execute(lane, new Runnable() {
+          @Override
+          public void run() {
+            result.add(value);
+            done.countDown();
+          }
+        });
+      }
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (List<Integer> result : results) {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, (int) result.get(i));
+      }
+    }
+    executor.shutdown();
+  }
+
+  @Test(timeout = 10000)
+  public void testIdleAndLaneThread() throws InterruptedException {
+    final BroadcastExecutor executor = new BroadcastExecutor(1, Executors.defaultThreadFactory());
+    assertTrue(executor.isIdle());
+    assertFalse(executor.isLaneThread());
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicBoolean laneThread = new AtomicBoolean();
+    executor.execute(0, new Runnable() {
+      @Override
+      public void run() {
+        laneThread.set(executor.isLaneThread());
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    executor.execute(0, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    assertFalse(executor.isIdle());
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(laneThread.get());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testRunsInCallerAfterShutdown() {
+    BroadcastExecutor executor = new BroadcastExecutor(2, Executors.defaultThreadFactory());
+    executor.shutdown();
+    final Thread caller = Thread.currentThread();
+    final AtomicBoolean ran = new AtomicBoolean();
+    executor.execute(1, new Runnable() {
+      @Override
+      public void run() {
+        ran.set(Thread.currentThread() == caller);
+      }
+    });
+    assertTrue(ran.get());
+    assertTrue(executor.isIdle());
+  }
+}
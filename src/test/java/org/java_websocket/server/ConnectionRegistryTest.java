@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.ConnectionRegistry.ConnectionVisitor;
+import org.junit.Test;
+
+public class ConnectionRegistryTest {
+
+  private static final WebSocketServer SERVER = new WebSocketServer(new InetSocketAddress(0)) {
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+    }
+  };
+
+  @Test
+  public void testShardCount() {
+    assertEquals(1, new ConnectionRegistry(1).getShardCount());
+    assertEquals(4, new ConnectionRegistry(3).getShardCount());
+    assertEquals(8, new ConnectionRegistry(8).getShardCount());
+    try {
+      new ConnectionRegistry(0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test
+  public void testAddRemove() {
+    ConnectionRegistry registry = new ConnectionRegistry(2);
+    WebSocket conn = newConnection();
+    assertTrue(registry.isEmpty());
+    assertTrue(registry.add(conn));
+    assertFalse(registry.add(conn));
+    assertEquals(1, registry.size());
+    assertTrue(registry.contains(conn));
+    assertSame(conn, registry.get(conn.getId()));
+    assertFalse(registry.contains(newConnection()));
+    assertFalse(registry.contains("conn"));
+    assertTrue(registry.remove(conn));
+    assertFalse(registry.remove(conn));
+    assertTrue(registry.isEmpty());
+    assertNull(registry.get(conn.getId()));
+  }
+
+  @Test
+  public void testManyConnections() {
+    ConnectionRegistry registry = new ConnectionRegistry(2);
+    List<WebSocket> conns = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      WebSocket conn = newConnection();
+      conns.add(conn);
+      assertTrue(registry.add(conn));
+    }
+    assertEquals(1000, registry.size());
+    // remove every other connection, the tombstones must not hide the rest
+    for (int i = 0; i < conns.size(); i += 2) {
+      assertTrue(registry.remove(conns.get(i)));
+    }
+    assertEquals(500, registry.size());
+    for (int i = 0; i < conns.size(); i++) {
+      assertEquals(i % 2 == 1, registry.contains(conns.get(i)));
+    }
+    for (int i = 0; i < conns.size(); i += 2) {
+      assertTrue(registry.add(conns.get(i)));
+    }
+    assertEquals(new HashSet<>(conns), new HashSet<>(registry));
+  }
+
+  @Test
+  public void testIterator() {
+    ConnectionRegistry registry = new ConnectionRegistry(4);
+    Set<WebSocket> conns = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      WebSocket conn = newConnection();
+      conns.add(conn);
+      registry.add(conn);
+    }
+    Set<WebSocket> iterated = new HashSet<>();
+    Iterator<WebSocket> it = registry.iterator();
+    while (it.hasNext()) {
+      iterated.add(it.next());
+      it.remove();
+    }
+    assertEquals(conns, iterated);
+    assertTrue(registry.isEmpty());
+    assertFalse(registry.iterator().hasNext());
+  }
+
+  @Test
+  public void testForEachConnection() {
+    ConnectionRegistry registry = new ConnectionRegistry();
+    final Set<WebSocket> conns = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      WebSocket conn = newConnection();
+      conns.add(conn);
+      registry.add(conn);
+    }
+    final Set<WebSocket> visited = new HashSet<>();
+    registry.forEachConnection(new ConnectionVisitor() {
+      @Override
+      public void visit(WebSocket conn) {
+        assertTrue(visited.add(conn));
+      }
+    });
+    assertEquals(conns, visited);
+  }
+
+  @Test
+  public void testPartitions() {
+    ConnectionRegistry registry = new ConnectionRegistry(8);
+    final Set<WebSocket> conns = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      WebSocket conn = newConnection();
+      conns.add(conn);
+      registry.add(conn);
+    }
+    final Set<WebSocket> visited = new HashSet<>();
+    for (int p = 0; p < 4; p++) {
+      final int partition = p;
+      registry.forEachConnection(partition, 4, new ConnectionVisitor() {
+        @Override
+        public void visit(WebSocket conn) {
+          assertEquals(partition, ConnectionRegistry.partitionOf(conn.getId(), 4));
+          assertTrue(visited.add(conn));
+        }
+      });
+    }
+    assertEquals(conns, visited);
+    try {
+      registry.forEachConnection(0, 16, null);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      registry.forEachConnection(0, 3, null);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentModification() throws InterruptedException {
+    final ConnectionRegistry registry = new ConnectionRegistry(4);
+    final List<WebSocket> stable = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      WebSocket conn = newConnection();
+      stable.add(conn);
+      registry.add(conn);
+    }
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 10000; i++) {
+          WebSocket conn = newConnection();
+          registry.add(conn);
+          registry.remove(conn);
+        }
+      }
+    };
+    writer.start();
+    while (writer.isAlive()) {
+      // connections which are registered the whole time are always visible
+      assertTrue(new HashSet<>(registry).containsAll(stable));
+    }
+    writer.join();
+    assertEquals(stable.size(), registry.size());
+  }
+
+  private static WebSocket newConnection() {
+    return new WebSocketImpl(SERVER, new Draft_6455());
+  }
+}
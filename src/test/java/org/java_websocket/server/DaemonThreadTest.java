@@ -72,4 +72,52 @@ public class DaemonThreadTest {
 
     server.stop();
   }
+
+  @Test(timeout = 2000)
+  public void test_ReactorThreadsAreDaemon() throws Throwable {
+    WebSocketServer server = new WebSocketServer(new InetSocketAddress(SocketUtil.getAvailablePort())) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {}
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {}
+      @Override
+      public void onMessage(WebSocket conn, String message) {}
+      @Override
+      public void onError(WebSocket conn, Exception ex) {}
+      @Override
+      public void onStart() {}
+    };
+    server.setSelectorCount(2);
+    server.setDaemon(true);
+    server.start();
+
+    final CountDownLatch ready = new CountDownLatch(1);
+    WebSocketClient client = new WebSocketClient(URI.create("ws://localhost:" + server.getPort())) {
+      @Override
+      public void onOpen(ServerHandshake handshake) {
+        ready.countDown();
+      }
+      @Override
+      public void onClose(int code, String reason, boolean remote) {}
+      @Override
+      public void onMessage(String message) {}
+      @Override
+      public void onError(Exception ex) {}
+    };
+    client.setDaemon(true);
+    client.connect();
+    ready.await();
+
+    int reactors = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().startsWith("WebSocketReactor-")) {
+        reactors++;
+        assertTrue(t.getName(), t.isDaemon());
+      }
+    }
+    assertTrue("no reactor threads found", reactors >= 2);
+
+    client.closeBlocking();
+    server.stop();
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.junit.Test;
+
+public class TopicIndexTest {
+
+  private static final WebSocketServer SERVER = new WebSocketServer(new InetSocketAddress(0)) {
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+    }
+  };
+
+  @Test
+  public void testSubscribe() {
+    TopicIndex index = new TopicIndex();
+    WebSocket first = newConnection();
+    WebSocket second = newConnection();
+    assertTrue(index.subscribe(first, "a"));
+    assertFalse(index.subscribe(first, "a"));
+    assertTrue(index.subscribe(first, "b"));
+    assertTrue(index.subscribe(second, "a"));
+    assertEquals(new HashSet<>(Arrays.asList(first, second)),
+        new HashSet<>(index.getSubscribers("a")));
+    assertEquals(Collections.singleton(first), new HashSet<>(index.getSubscribers("b")));
+    assertNull(index.getSubscribers("c"));
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), index.getTopics(first));
+    assertEquals(Collections.singleton("a"), index.getTopics(second));
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), index.getTopics());
+  }
+
+  @Test
+  public void testUnsubscribe() {
+    TopicIndex index = new TopicIndex();
+    WebSocket first = newConnection();
+    WebSocket second = newConnection();
+    index.subscribe(first, "a");
+    index.subscribe(second, "a");
+    assertFalse(index.unsubscribe(first, "b"));
+    assertFalse(index.unsubscribe(newConnection(), "a"));
+    assertTrue(index.unsubscribe(first, "a"));
+    assertFalse(index.unsubscribe(first, "a"));
+    assertEquals(Collections.singleton(second), new HashSet<>(index.getSubscribers("a")));
+    assertTrue(index.getTopics(first).isEmpty());
+    assertTrue(index.unsubscribe(second, "a"));
+    assertNull(index.getSubscribers("a"));
+    assertTrue(index.getTopics().isEmpty());
+  }
+
+  @Test
+  public void testUnsubscribeAll() {
+    TopicIndex index = new TopicIndex();
+    WebSocket first = newConnection();
+    WebSocket second = newConnection();
+    index.subscribe(first, "a");
+    index.subscribe(first, "b");
+    index.subscribe(second, "b");
+    index.unsubscribeAll(first);
+    index.unsubscribeAll(first);
+    assertTrue(index.getTopics(first).isEmpty());
+    assertNull(index.getSubscribers("a"));
+    assertEquals(Collections.singleton(second), new HashSet<>(index.getSubscribers("b")));
+    assertEquals(Collections.singleton("b"), index.getTopics());
+    assertTrue(index.subscribe(first, "a"));
+    assertEquals(Collections.singleton(first), new HashSet<>(index.getSubscribers("a")));
+  }
+
+  @Test(timeout = 20000)
+  public void testConcurrentSubscriptions() throws Exception {
+    final TopicIndex index = new TopicIndex();
+    final WebSocket stable = newConnection();
+    index.subscribe(stable, "topic");
+    int threadCount = 4;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 2000; i++) {
+            WebSocket conn = newConnection();
+            index.subscribe(conn, "topic");
+            index.subscribe(conn, "other");
+            if (i % 2 == 0) {
+              index.unsubscribe(conn, "topic");
+              index.unsubscribe(conn, "other");
+            } else {
+              index.unsubscribeAll(conn);
+            }
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.singleton(stable), new HashSet<>(index.getSubscribers("topic")));
+    assertEquals(Collections.singleton("topic"), index.getTopics());
+  }
+
+  private static WebSocket newConnection() {
+    return new WebSocketImpl(SERVER, new Draft_6455());
+  }
+}
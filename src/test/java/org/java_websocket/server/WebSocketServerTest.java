@@ -27,21 +27,48 @@
 package org.java_websocket.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer.WebSocketWorker;
+import org.java_websocket.util.Charsetfunctions;
 import org.java_websocket.util.SocketUtil;
 import org.junit.Test;
 
@@ -197,6 +224,1067 @@ public class WebSocketServerTest {
     }
   }
 
+  @Test
+  public void testSelectorCount() {
+    MyWebSocketServer server = new MyWebSocketServer(1337);
+    assertEquals(1, server.getSelectorCount());
+    server.setSelectorCount(4);
+    assertEquals(4, server.getSelectorCount());
+    try {
+      server.setSelectorCount(0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testMultipleSelectors() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch serverStartLatch = new CountDownLatch(1);
+    WebSocketServer server = new WebSocketServer(new InetSocketAddress(port)) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        conn.send(message);
+      }
+
+      @Override
+      public void onError(WebSocket conn, Exception ex) {
+        ex.printStackTrace();
+      }
+
+      @Override
+      public void onStart() {
+        serverStartLatch.countDown();
+      }
+    };
+    server.setSelectorCount(3);
+    server.start();
+    serverStartLatch.await();
+
+    int clientCount = 6;
+    final CountDownLatch echoLatch = new CountDownLatch(clientCount);
+    WebSocketClient[] clients = new WebSocketClient[clientCount];
+    for (int i = 0; i < clientCount; i++) {
+      clients[i] = new WebSocketClient(new URI("ws://localhost:" + port)) {
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+          send("echo");
+        }
+
+        @Override
+        public void onMessage(String message) {
+          if ("echo".equals(message)) {
+            echoLatch.countDown();
+          }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+          ex.printStackTrace();
+        }
+      };
+      clients[i].connect();
+    }
+    assertTrue("every client should receive its echo", echoLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(clientCount, server.getConnections().size());
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testConnectionLookup() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(1);
+    final AtomicLong openedId = new AtomicLong(-1);
+    WebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        openedId.set(conn.getId());
+        openLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port + "/lookup")) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    };
+    client.connectBlocking();
+    assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+    WebSocket conn = server.getConnection(openedId.get());
+    assertNotNull(conn);
+    assertEquals(openedId.get(), conn.getId());
+    assertTrue(server.getConnections().contains(conn));
+    assertNull(server.getConnection(openedId.get() + 1));
+    client.closeBlocking();
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testBroadcastSharedDeflate() throws Exception {
+    broadcastPerMessageDeflate(true, false);
+  }
+
+  @Test(timeout = 10000)
+  public void testBroadcastSharedDirectBuffers() throws Exception {
+    broadcastPerMessageDeflate(true, true);
+  }
+
+  @Test(timeout = 10000)
+  public void testBroadcastDeflateContextTakeover() throws Exception {
+    broadcastPerMessageDeflate(false, false);
+  }
+
+  /**
+   * Broadcasts two compressible messages to clients which negotiated permessage-deflate
+   */
+  private static void broadcastPerMessageDeflate(boolean serverNoContextTakeover,
+      boolean directBroadcastBuffers) throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    int clientCount = 3;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(clientCount);
+    PerMessageDeflateExtension extension = new PerMessageDeflateExtension();
+    extension.setServerNoContextTakeover(serverNoContextTakeover);
+    WebSocketServer server = new MyWebSocketServer(new InetSocketAddress(port), 1,
+        Collections.<Draft>singletonList(new Draft_6455(extension)),
+        new ConnectionRegistry()) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        openLatch.countDown();
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.setDirectBroadcastBuffers(directBroadcastBuffers);
+    server.start();
+    startLatch.await();
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    WebSocketClient[] clients = new WebSocketClient[clientCount];
+    for (int i = 0; i < clientCount; i++) {
+      clients[i] = new WebSocketClient(new URI("ws://localhost:" + port),
+          new Draft_6455(new PerMessageDeflateExtension())) {
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+          received.add(message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+          ex.printStackTrace();
+        }
+      };
+      clients[i].connectBlocking();
+    }
+    assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append("Hello World ");
+    }
+    String message = builder.toString();
+    server.broadcast(message);
+    server.broadcast(message);
+    for (int i = 0; i < 2 * clientCount; i++) {
+      assertEquals(message, received.poll(5, TimeUnit.SECONDS));
+    }
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testBroadcastDuringFragmentedDeflateSend() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final BlockingQueue<WebSocket> opened = new LinkedBlockingQueue<>();
+    PerMessageDeflateExtension extension = new PerMessageDeflateExtension();
+    extension.setServerNoContextTakeover(true);
+    WebSocketServer server = new MyWebSocketServer(new InetSocketAddress(port), 1,
+        Collections.<Draft>singletonList(new Draft_6455(extension)),
+        new ConnectionRegistry()) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        opened.add(conn);
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.setBroadcastParallelism(1);
+    server.start();
+    startLatch.await();
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    WebSocketClient[] clients = new WebSocketClient[2];
+    List<WebSocket> conns = new ArrayList<>();
+    for (int i = 0; i < clients.length; i++) {
+      final boolean receiver = i == 1;
+      clients[i] = new WebSocketClient(new URI("ws://localhost:" + port),
+          new Draft_6455(new PerMessageDeflateExtension())) {
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+          if (receiver) {
+            received.add(message);
+          }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+      };
+      assertTrue(clients[i].connectBlocking());
+      conns.add(opened.poll(5, TimeUnit.SECONDS));
+    }
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append("Hello World ");
+    }
+    String message = builder.toString();
+    // the deflater of the first connection keeps the context of the unfinished message
+    conns.get(0).sendFragmentedFrame(Opcode.TEXT,
+        ByteBuffer.wrap(Charsetfunctions.utf8Bytes(message)), false);
+    server.broadcast(message, conns);
+    assertEquals(message, received.poll(5, TimeUnit.SECONDS));
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testZeroCopyPayloadsEcho() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final BlockingQueue<Boolean> readOnly = new LinkedBlockingQueue<>();
+    PerMessageDeflateExtension extension = new PerMessageDeflateExtension();
+    extension.setThreshold(0);
+    Draft_6455 draft = new Draft_6455(extension);
+    draft.setZeroCopyPayloads(true);
+    WebSocketServer server = new MyWebSocketServer(new InetSocketAddress(port), 1,
+        Collections.<Draft>singletonList(draft), new ConnectionRegistry()) {
+      @Override
+      public void onMessage(WebSocket conn, ByteBuffer message) {
+        readOnly.add(message.isReadOnly());
+        conn.send(message);
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+    final BlockingQueue<ByteBuffer> received = new LinkedBlockingQueue<>();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port),
+        new Draft_6455(new PerMessageDeflateExtension())) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onMessage(ByteBuffer bytes) {
+        received.add(bytes);
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+        ex.printStackTrace();
+      }
+    };
+    assertTrue(client.connectBlocking());
+    // below the threshold of the client the message is sent uncompressed and arrives as a slice
+    ByteBuffer small = ByteBuffer.wrap("small binary message".getBytes());
+    client.send(small.duplicate());
+    assertEquals(Boolean.TRUE, readOnly.poll(5, TimeUnit.SECONDS));
+    assertEquals(small, received.poll(5, TimeUnit.SECONDS));
+    byte[] large = new byte[4096];
+    Arrays.fill(large, (byte) 'x');
+    client.send(large);
+    assertEquals(Boolean.FALSE, readOnly.poll(5, TimeUnit.SECONDS));
+    assertEquals(ByteBuffer.wrap(large), received.poll(5, TimeUnit.SECONDS));
+    client.closeBlocking();
+    server.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testStreamingMessages() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    // the limit does not apply to streamed frames, their parts are passed on as they arrive
+    Draft_6455 draft = new Draft_6455(Collections.<IExtension>emptyList(), 65536);
+    draft.setStreamingMessages(true);
+    WebSocketServer server = new MyWebSocketServer(new InetSocketAddress(port), 1,
+        Collections.<Draft>singletonList(draft), new ConnectionRegistry()) {
+      private Opcode opcode;
+      private long size;
+      private int fragments;
+
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        conn.send("unexpected onMessage");
+      }
+
+      @Override
+      public void onMessageStart(WebSocket conn, Opcode opcode) {
+        this.opcode = opcode;
+        size = 0;
+        fragments = 0;
+      }
+
+      @Override
+      public void onMessageFragment(WebSocket conn, ByteBuffer fragment) {
+        size += fragment.remaining();
+        fragments++;
+      }
+
+      @Override
+      public void onMessageEnd(WebSocket conn) {
+        conn.send(opcode + " " + size + " " + fragments);
+      }
+
+      @Override
+      public void onStart() {
+        startLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+        received.add(message);
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+        received.add("closed " + code);
+      }
+
+      @Override
+      public void onError(Exception ex) {
+        ex.printStackTrace();
+      }
+    };
+    assertTrue(client.connectBlocking());
+    byte[] fragment = new byte[65536];
+    for (int i = 0; i < 16; i++) {
+      client.sendFragmentedFrame(Opcode.BINARY, ByteBuffer.wrap(fragment), i == 15);
+    }
+    String[] result = received.poll(5, TimeUnit.SECONDS).split(" ");
+    assertEquals("BINARY", result[0]);
+    assertEquals("1048576", result[1]);
+    assertTrue(Integer.parseInt(result[2]) >= 16);
+    client.send(new byte[1048576]);
+    result = received.poll(5, TimeUnit.SECONDS).split(" ");
+    assertEquals("BINARY", result[0]);
+    assertEquals("1048576", result[1]);
+    assertTrue(Integer.parseInt(result[2]) > 1);
+    client.send("single frame");
+    assertEquals("TEXT 12 1", received.poll(5, TimeUnit.SECONDS));
+    client.closeBlocking();
+    server.stop();
+  }
+
+  @Test
+  public void testBroadcastParallelism() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertEquals(Runtime.getRuntime().availableProcessors(), server.getBroadcastParallelism());
+    assertEquals(WebSocketServer.DEFAULT_PARALLEL_BROADCAST_THRESHOLD,
+        server.getParallelBroadcastThreshold());
+    server.setBroadcastParallelism(4);
+    assertEquals(4, server.getBroadcastParallelism());
+    server.setParallelBroadcastThreshold(0);
+    assertEquals(0, server.getParallelBroadcastThreshold());
+    try {
+      server.setBroadcastParallelism(0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      server.setParallelBroadcastThreshold(-1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testBroadcastAsync() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    int clientCount = 6;
+    final int messageCount = 50;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(clientCount);
+    WebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        openLatch.countDown();
+      }
+    };
+    server.setBroadcastParallelism(4);
+    server.start();
+    startLatch.await();
+    final CountDownLatch receivedLatch = new CountDownLatch(clientCount);
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    WebSocketClient[] clients = new WebSocketClient[clientCount];
+    for (int i = 0; i < clientCount; i++) {
+      clients[i] = new WebSocketClient(new URI("ws://localhost:" + port)) {
+        private int expected = 0;
+
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+          if (!String.valueOf(expected).equals(message)) {
+            errors.add("expected " + expected + " but got " + message);
+          }
+          if (++expected == messageCount) {
+            receivedLatch.countDown();
+          }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+      };
+      clients[i].connectBlocking();
+    }
+    assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+    Future<Void> last = null;
+    for (int i = 0; i < messageCount; i++) {
+      last = server.broadcastAsync(String.valueOf(i));
+    }
+    last.get(5, TimeUnit.SECONDS);
+    assertTrue(receivedLatch.await(10, TimeUnit.SECONDS));
+    assertEquals(Collections.<String>emptyList(), errors);
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testPublish() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(3);
+    final CountDownLatch closeLatch = new CountDownLatch(1);
+    final MyWebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        for (String topic : handshake.getResourceDescriptor().substring(1).split(",")) {
+          subscribe(conn, topic);
+        }
+        openLatch.countDown();
+      }
+
+      @Override
+      public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        closeLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+    String[] resources = {"/a", "/a,b", "/b"};
+    List<BlockingQueue<String>> received = new ArrayList<>();
+    WebSocketClient[] clients = new WebSocketClient[resources.length];
+    for (int i = 0; i < resources.length; i++) {
+      final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+      received.add(queue);
+      clients[i] = new WebSocketClient(new URI("ws://localhost:" + port + resources[i])) {
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+          queue.add(message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+          queue.add("binary " + bytes.remaining());
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+      };
+      clients[i].connectBlocking();
+    }
+    assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), server.getTopics());
+    assertEquals(2, server.getSubscribers("a").size());
+    assertEquals(0, server.getSubscribers("c").size());
+
+    server.publish("a", "to a");
+    server.publish("b", new byte[3]);
+    server.publishAsync("c", "to c").get(5, TimeUnit.SECONDS);
+    server.publishAsync("b", "to b").get(5, TimeUnit.SECONDS);
+    assertEquals("to a", received.get(0).poll(5, TimeUnit.SECONDS));
+    assertEquals("to a", received.get(1).poll(5, TimeUnit.SECONDS));
+    assertEquals("binary 3", received.get(1).poll(5, TimeUnit.SECONDS));
+    assertEquals("to b", received.get(1).poll(5, TimeUnit.SECONDS));
+    assertEquals("binary 3", received.get(2).poll(5, TimeUnit.SECONDS));
+    assertEquals("to b", received.get(2).poll(5, TimeUnit.SECONDS));
+
+    WebSocket first = server.getSubscribers("a").iterator().next();
+    assertTrue(server.unsubscribe(first, "a"));
+    assertFalse(server.unsubscribe(first, "a"));
+    assertTrue(server.subscribe(first, "a"));
+    assertFalse(server.subscribe(first, "a"));
+
+    clients[1].closeBlocking();
+    assertTrue(closeLatch.await(5, TimeUnit.SECONDS));
+    assertEquals(1, server.getSubscribers("a").size());
+    assertEquals(1, server.getSubscribers("b").size());
+    server.publish("a", "again");
+    assertEquals("again", received.get(0).poll(5, TimeUnit.SECONDS));
+    for (BlockingQueue<String> queue : received) {
+      assertNull(queue.poll());
+    }
+    clients[0].closeBlocking();
+    clients[2].closeBlocking();
+    server.stop();
+    assertTrue(server.getTopics().isEmpty());
+  }
+
+  @Test
+  public void testAcceptSettings() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertEquals(WebSocketServer.DEFAULT_ACCEPT_BATCH_SIZE, server.getAcceptBatchSize());
+    assertEquals(0, server.getMaxAcceptRate());
+    server.setAcceptBatchSize(1);
+    assertEquals(1, server.getAcceptBatchSize());
+    server.setMaxAcceptRate(100);
+    assertEquals(100, server.getMaxAcceptRate());
+    try {
+      server.setAcceptBatchSize(0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      server.setMaxAcceptRate(-1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testAcceptRateLimit() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    int clientCount = 6;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(clientCount);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        openLatch.countDown();
+      }
+    };
+    server.setAcceptBatchSize(2);
+    server.setMaxAcceptRate(20);
+    server.start();
+    startLatch.await();
+    List<WebSocketClient> clients = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < clientCount; i++) {
+      WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+      };
+      client.connect();
+      clients.add(client);
+    }
+    assertTrue(openLatch.await(10, TimeUnit.SECONDS));
+    // two connections fit into the bucket, the remaining four need at least 150ms
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    assertEquals(clientCount, server.getAcceptedCount());
+    assertTrue(server.getAcceptThrottleCount() > 0);
+    assertEquals(0, server.getFailedAcceptCount());
+    for (WebSocketClient client : clients) {
+      client.closeBlocking();
+    }
+    server.stop();
+  }
+
+  @Test
+  public void testHandshakeSettings() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertEquals(WebSocketServer.DEFAULT_HANDSHAKE_TIMEOUT,
+        server.getHandshakeTimeout(TimeUnit.NANOSECONDS));
+    assertEquals(WebSocketImpl.DEFAULT_MAX_HANDSHAKE_SIZE, server.getMaxHandshakeSize());
+    server.setHandshakeTimeout(0, TimeUnit.SECONDS);
+    assertEquals(0, server.getHandshakeTimeout(TimeUnit.SECONDS));
+    server.setHandshakeTimeout(500, TimeUnit.MILLISECONDS);
+    assertEquals(500, server.getHandshakeTimeout(TimeUnit.MILLISECONDS));
+    server.setMaxHandshakeSize(1);
+    assertEquals(1, server.getMaxHandshakeSize());
+    try {
+      server.setHandshakeTimeout(-1, TimeUnit.SECONDS);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      server.setMaxHandshakeSize(0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testHandshakeTimeout() throws Exception {
+    testHandshakeTimeout(1);
+  }
+
+  @Test(timeout = 20000)
+  public void testHandshakeTimeoutMultipleSelectors() throws Exception {
+    testHandshakeTimeout(2);
+  }
+
+  private void testHandshakeTimeout(int selectorCount) throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch);
+    server.setSelectorCount(selectorCount);
+    server.setHandshakeTimeout(200, TimeUnit.MILLISECONDS);
+    server.start();
+    startLatch.await();
+    long start = System.nanoTime();
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(Charsetfunctions.asciiBytes("GET / HTTP/1.1\r\n"));
+      assertEquals(-1, socket.getInputStream().read());
+    }
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertEquals(1, server.getHandshakeTimeoutCount());
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testHandshakeTimeoutCancelled() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch openLatch = new CountDownLatch(1);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        openLatch.countDown();
+      }
+    };
+    server.setConnectionLostTimeout(0);
+    server.setHandshakeTimeout(60, TimeUnit.SECONDS);
+    server.start();
+    startLatch.await();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    };
+    client.setConnectionLostTimeout(0);
+    int pending = server.getPendingTimeouts();
+    assertTrue(client.connectBlocking());
+    // the client may see the handshake response before the server has processed the open
+    assertTrue(openLatch.await(5, TimeUnit.SECONDS));
+    // the deadline of the completed handshake must not stay in the timer
+    assertEquals(pending, server.getPendingTimeouts());
+    client.closeBlocking();
+    assertEquals(0, server.getHandshakeTimeoutCount());
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testIdleTimeout() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch);
+    server.setIdleTimeout(300, TimeUnit.MILLISECONDS);
+    assertEquals(300, server.getIdleTimeout(TimeUnit.MILLISECONDS));
+    server.start();
+    startLatch.await();
+    final CountDownLatch closeLatch = new CountDownLatch(1);
+    final List<Integer> closeCodes = Collections.synchronizedList(new ArrayList<Integer>());
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+        closeCodes.add(code);
+        closeLatch.countDown();
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    };
+    long start = System.nanoTime();
+    assertTrue(client.connectBlocking());
+    // data resets the idle time
+    Thread.sleep(200);
+    client.send("ping");
+    Thread.sleep(200);
+    assertTrue(client.isOpen());
+    assertTrue(closeLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(Collections.singletonList(CloseFrame.GOING_AWAY), closeCodes);
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testMaxHandshakeSize() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch);
+    server.setMaxHandshakeSize(1024);
+    server.start();
+    startLatch.await();
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      OutputStream out = socket.getOutputStream();
+      out.write(Charsetfunctions.asciiBytes("GET / HTTP/1.1\r\n"));
+      out.flush();
+      Thread.sleep(50);
+      char[] header = new char[2048];
+      Arrays.fill(header, 'x');
+      out.write(Charsetfunctions.asciiBytes("X-Large: " + new String(header)));
+      out.flush();
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+      assertEquals("HTTP/1.1 431 Request Header Fields Too Large", reader.readLine());
+    }
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testHandshakeByteByByte() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    MyWebSocketServer server = new MyWebSocketServer(port, startLatch);
+    server.start();
+    startLatch.await();
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      socket.setTcpNoDelay(true);
+      OutputStream out = socket.getOutputStream();
+      byte[] handshake = Charsetfunctions.asciiBytes("GET / HTTP/1.1\r\n"
+          + "Host: localhost\r\n"
+          + "Upgrade: websocket\r\n"
+          + "Connection: Upgrade\r\n"
+          + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+          + "Sec-WebSocket-Version: 13\r\n\r\n");
+      for (byte b : handshake) {
+        out.write(b);
+        out.flush();
+      }
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+      assertEquals("HTTP/1.1 101 Web Socket Protocol Handshake", reader.readLine());
+    }
+    server.stop();
+  }
+
+  @Test
+  public void testWriteQuantum() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertEquals(WebSocketServer.DEFAULT_WRITE_QUANTUM, server.getWriteQuantum());
+    server.setWriteQuantum(0);
+    assertEquals(0, server.getWriteQuantum());
+    try {
+      server.setWriteQuantum(-1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test
+  public void testDirectWriteSpinCount() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertEquals(WebSocketServer.DEFAULT_DIRECT_WRITE_SPIN_COUNT,
+        server.getDirectWriteSpinCount());
+    server.setDirectWriteSpinCount(0);
+    assertEquals(0, server.getDirectWriteSpinCount());
+    try {
+      server.setDirectWriteSpinCount(-1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testDirectWrite() throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch echoLatch = new CountDownLatch(1);
+    final CountDownLatch checkLatch = new CountDownLatch(1);
+    final boolean[] writtenDirectly = new boolean[1];
+    WebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        conn.send(message);
+        WebSocketImpl impl = (WebSocketImpl) conn;
+        writtenDirectly[0] = impl.outQueue.isEmpty()
+            && (impl.getSelectionKey().interestOps() & SelectionKey.OP_WRITE) == 0;
+        checkLatch.countDown();
+      }
+    };
+    server.start();
+    startLatch.await();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+        send("hello");
+      }
+
+      @Override
+      public void onMessage(String message) {
+        echoLatch.countDown();
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    };
+    client.connectBlocking();
+    assertTrue(echoLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(checkLatch.await(5, TimeUnit.SECONDS));
+    assertTrue(writtenDirectly[0]);
+    client.closeBlocking();
+    server.stop();
+  }
+
+  @Test
+  public void testLoadAwareWorkerAssignment() throws Exception {
+    MyWebSocketServer server = new MyWebSocketServer(
+        new InetSocketAddress(SocketUtil.getAvailablePort()), 2,
+        Collections.<Draft>singletonList(new Draft_6455()), new HashSet<WebSocket>());
+    // the workers are not started, so queued buffers stay queued
+    WebSocketImpl busy = new WebSocketImpl(server, new Draft_6455());
+    for (int i = 0; i < 3; i++) {
+      busy.inQueue.put(ByteBuffer.allocate(1));
+      server.queue(busy);
+    }
+    WebSocketWorker busyWorker = busy.getWorkerThread();
+    assertEquals(3, busyWorker.getLoad());
+
+    WebSocketImpl other = new WebSocketImpl(server, new Draft_6455());
+    other.inQueue.put(ByteBuffer.allocate(1));
+    server.queue(other);
+    assertNotEquals(busyWorker, other.getWorkerThread());
+    assertEquals(1, other.getWorkerThread().getLoad());
+
+    // an idle connection on the busy worker is moved
+    WebSocketImpl idle = new WebSocketImpl(server, new Draft_6455());
+    idle.setWorkerThread(busyWorker);
+    idle.inQueue.put(ByteBuffer.allocate(1));
+    server.queue(idle);
+    assertEquals(other.getWorkerThread(), idle.getWorkerThread());
+
+    // a connection with pending input stays on its worker
+    busy.inQueue.put(ByteBuffer.allocate(1));
+    server.queue(busy);
+    assertEquals(busyWorker, busy.getWorkerThread());
+
+    List<Integer> loads = server.getWorkerLoads();
+    assertEquals(2, loads.size());
+    assertEquals(6, loads.get(0) + loads.get(1));
+  }
+
+  @Test
+  public void testRunToCompletionSettings() throws IOException {
+    MyWebSocketServer server = new MyWebSocketServer(SocketUtil.getAvailablePort());
+    assertFalse(server.isRunToCompletion());
+    server.setRunToCompletion(true);
+    assertTrue(server.isRunToCompletion());
+    assertEquals(WebSocketServer.DEFAULT_HEAVY_DECODE_THRESHOLD,
+        server.getHeavyDecodeThreshold(TimeUnit.NANOSECONDS));
+    server.setHeavyDecodeThreshold(5, TimeUnit.MILLISECONDS);
+    assertEquals(5000, server.getHeavyDecodeThreshold(TimeUnit.MICROSECONDS));
+    try {
+      server.setHeavyDecodeThreshold(-1, TimeUnit.MILLISECONDS);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testRunToCompletion() throws Exception {
+    assertEquals("WebSocketSelector", decodingThread(TimeUnit.SECONDS.toNanos(10)));
+  }
+
+  @Test(timeout = 10000)
+  public void testRunToCompletionHeavyConnection() throws Exception {
+    assertEquals("WebSocketWorker", decodingThread(0));
+  }
+
+  /**
+   * Sends a message to a server in run-to-completion mode
+   *
+   * @return the name prefix of the thread which received the message on the server
+   */
+  private static String decodingThread(long heavyDecodeThreshold) throws Exception {
+    int port = SocketUtil.getAvailablePort();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch messageLatch = new CountDownLatch(1);
+    final String[] threadName = new String[1];
+    WebSocketServer server = new MyWebSocketServer(port, startLatch) {
+      @Override
+      public void onMessage(WebSocket conn, String message) {
+        threadName[0] = Thread.currentThread().getName();
+        messageLatch.countDown();
+      }
+    };
+    server.setRunToCompletion(true);
+    server.setHeavyDecodeThreshold(heavyDecodeThreshold, TimeUnit.NANOSECONDS);
+    server.start();
+    startLatch.await();
+    WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+      @Override
+      public void onOpen(ServerHandshake handshakedata) {
+        send("hello");
+      }
+
+      @Override
+      public void onMessage(String message) {
+      }
+
+      @Override
+      public void onClose(int code, String reason, boolean remote) {
+      }
+
+      @Override
+      public void onError(Exception ex) {
+      }
+    };
+    client.connectBlocking();
+    assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+    try {
+      server.setRunToCompletion(false);
+      fail("Should fail");
+    } catch (IllegalStateException e) {
+      // OK
+    }
+    client.closeBlocking();
+    server.stop();
+    return threadName[0].substring(0, threadName[0].indexOf('-'));
+  }
+
   private static class MyWebSocketServer extends WebSocketServer {
 
     private CountDownLatch serverLatch = null;
@@ -211,6 +1299,10 @@ public class WebSocketServerTest {
       this.serverLatch = serverLatch;
     }
 
+    int getPendingTimeouts() {
+      return getTimer().getPendingCount();
+    }
+
     public MyWebSocketServer(int port) {
       this(port, null);
     }
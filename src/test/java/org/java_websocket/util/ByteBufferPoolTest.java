@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/**
+ * JUnit Test for the ByteBufferPool class
+ */
+public class ByteBufferPoolTest {
+
+  @Test
+  public void testConstructor() {
+    try {
+      new ByteBufferPool(true, ByteBufferPool.MIN_BUFFER_SIZE - 1, 1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      new ByteBufferPool(true, ByteBufferPool.MIN_BUFFER_SIZE, -1);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    assertTrue(new ByteBufferPool().isDirect());
+  }
+
+  @Test
+  public void testSizeClasses() {
+    ByteBufferPool pool = new ByteBufferPool(false, 65536, 0);
+    assertEquals(1024, pool.acquire(0).capacity());
+    assertEquals(1024, pool.acquire(1024).capacity());
+    assertEquals(2048, pool.acquire(1025).capacity());
+    assertEquals(65536, pool.acquire(65536).capacity());
+    assertEquals("larger buffers are not rounded", 65537, pool.acquire(65537).capacity());
+  }
+
+  @Test
+  public void testAcquiredBufferIsCleared() {
+    ByteBufferPool pool = new ByteBufferPool(false, 4096, 0);
+    ByteBuffer buffer = pool.acquire(100);
+    buffer.put((byte) 1).flip();
+    pool.release(buffer);
+    ByteBuffer reused = pool.acquire(100);
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(reused.capacity(), reused.limit());
+  }
+
+  @Test
+  public void testDirectBuffers() {
+    ByteBufferPool pool = new ByteBufferPool(true, 4096, 2);
+    ByteBuffer buffer = pool.acquire(4096);
+    assertTrue(buffer.isDirect());
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire(4096));
+    pool.release(ByteBuffer.allocate(4096));
+    assertEquals("heap buffers are not pooled in a direct pool", 0, pool.getPooledCount());
+  }
+
+  @Test
+  public void testCounters() {
+    ByteBufferPool pool = new ByteBufferPool(false, 4096, 0);
+    ByteBuffer first = pool.acquire(10);
+    ByteBuffer second = pool.acquire(10);
+    assertEquals(0, pool.getHits());
+    assertEquals(2, pool.getMisses());
+    pool.release(first);
+    pool.release(second);
+    assertEquals(2, pool.getPooledCount());
+    pool.acquire(10);
+    assertEquals(1, pool.getHits());
+    assertEquals(2, pool.getMisses());
+    assertEquals(0, pool.getOverflows());
+  }
+
+  @Test
+  public void testOverflowAboveDemand() {
+    ByteBufferPool pool = new ByteBufferPool(false, 4096, 0);
+    ByteBuffer buffer = pool.acquire(10);
+    pool.release(buffer);
+    // a buffer which was never handed out exceeds the demand of its size class
+    pool.release(ByteBuffer.allocate(1024));
+    assertEquals(1, pool.getPooledCount());
+    assertEquals(1, pool.getOverflows());
+  }
+
+  @Test
+  public void testTrim() {
+    ByteBufferPool pool = new ByteBufferPool(false, 4096, 0);
+    ByteBuffer[] buffers = new ByteBuffer[8];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.acquire(10);
+    }
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    assertEquals(8, pool.getPooledCount());
+    pool.trim();
+    assertEquals(1, pool.getPooledCount());
+  }
+
+  @Test
+  public void testThreadCache() throws InterruptedException {
+    final ByteBufferPool pool = new ByteBufferPool(false, 4096, 1);
+    ByteBuffer buffer = pool.acquire(10);
+    pool.release(buffer);
+    assertEquals("the thread cache is used first", 0, pool.getPooledCount());
+    final boolean[] sameBuffer = new boolean[1];
+    final ByteBuffer cached = buffer;
+    Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sameBuffer[0] = pool.acquire(10) == cached;
+      }
+    });
+    other.start();
+    other.join();
+    assertFalse("other threads can not see the cached buffer", sameBuffer[0]);
+    assertSame(buffer, pool.acquire(10));
+  }
+}
@@ -27,10 +27,13 @@ package org.java_websocket.util;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
 import org.junit.Test;
 
 /**
@@ -131,4 +134,59 @@ public class ByteBufferUtilsTest {
       //Fine
     }
   }
+
+  @Test
+  public void testHasRemaining() {
+    ByteBuffer[] buffers = {ByteBuffer.allocate(0), ByteBuffer.wrap(smallArray),
+        ByteBuffer.allocate(0)};
+    assertTrue(ByteBufferUtils.hasRemaining(buffers, 0, 3));
+    assertFalse(ByteBufferUtils.hasRemaining(buffers, 2, 1));
+    buffers[1].position(buffers[1].limit());
+    assertFalse(ByteBufferUtils.hasRemaining(buffers, 0, 3));
+  }
+
+  @Test
+  public void testMaskMatchesBytewiseMasking() {
+    Random random = new Random(42);
+    byte[] key = {(byte) 0x37, (byte) 0xfa, (byte) 0x21, (byte) 0x3d};
+    int maskKey = ByteBuffer.wrap(key).getInt();
+    for (int length = 0; length < 40; length++) {
+      for (int offset = 0; offset < 3; offset++) {
+        byte[] data = new byte[offset + length + 2];
+        random.nextBytes(data);
+        byte[] expected = data.clone();
+        for (int i = 0; i < length; i++) {
+          expected[offset + i] ^= key[i % 4];
+        }
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(data.clone()),
+            ByteBuffer.wrap(data.clone()).order(ByteOrder.LITTLE_ENDIAN),
+            (ByteBuffer) ByteBuffer.allocateDirect(data.length).put(data).clear()}) {
+          buffer.position(1);
+          ByteBufferUtils.mask(buffer, offset, length, maskKey);
+          assertEquals("position must not change", 1, buffer.position());
+          byte[] masked = new byte[data.length];
+          buffer.position(0);
+          buffer.get(masked);
+          assertArrayEquals("length " + length + ", offset " + offset, expected, masked);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMaskTwiceRestoresData() {
+    byte[] data = new byte[1000];
+    new Random(7).nextBytes(data);
+    ByteBuffer buffer = ByteBuffer.wrap(data.clone());
+    ByteBufferUtils.mask(buffer, 3, 990, 0x12345678);
+    ByteBufferUtils.mask(buffer, 3, 990, 0x12345678);
+    assertArrayEquals(data, buffer.array());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testMaskBeyondLimit() {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    buffer.limit(8);
+    ByteBufferUtils.mask(buffer, 4, 5, 1);
+  }
 }
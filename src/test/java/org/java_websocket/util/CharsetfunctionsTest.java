@@ -59,6 +59,23 @@ public class CharsetfunctionsTest {
     Assert.assertTrue(Charsetfunctions.isValidUTF8(ByteBuffer.wrap(new byte[]{100})));
   }
 
+  @Test
+  public void testUpdateUTF8State() {
+    // U+00E4 split between two parts
+    int state = Charsetfunctions
+        .updateUTF8State(Charsetfunctions.UTF8_ACCEPT, ByteBuffer.wrap(new byte[]{100, (byte) 0xc3}));
+    Assert.assertNotEquals(Charsetfunctions.UTF8_ACCEPT, state);
+    Assert.assertNotEquals(Charsetfunctions.UTF8_REJECT, state);
+    ByteBuffer rest = ByteBuffer.wrap(new byte[]{(byte) 0xa4});
+    Assert.assertEquals(Charsetfunctions.UTF8_ACCEPT, Charsetfunctions.updateUTF8State(state, rest));
+    Assert.assertEquals(0, rest.position());
+
+    Assert.assertEquals(Charsetfunctions.UTF8_REJECT, Charsetfunctions
+        .updateUTF8State(state, ByteBuffer.wrap(new byte[]{100})));
+    Assert.assertEquals(Charsetfunctions.UTF8_REJECT, Charsetfunctions
+        .updateUTF8State(Charsetfunctions.UTF8_ACCEPT, ByteBuffer.wrap(new byte[]{(byte) 128})));
+  }
+
   @Test
   public void testStringAscii1() {
     Assert.assertEquals("oBar",
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010-2020 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.java_websocket.util.HashedWheelTimer.Timeout;
+import org.junit.Test;
+
+/**
+ * JUnit Test for the HashedWheelTimer class
+ */
+public class HashedWheelTimerTest {
+
+  @Test
+  public void testConstructor() {
+    try {
+      new HashedWheelTimer(new NamedThreadFactory("test", true), 0, TimeUnit.MILLISECONDS, 8);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+    try {
+      new HashedWheelTimer(new NamedThreadFactory("test", true), 10, TimeUnit.MILLISECONDS, 0);
+      fail("Should fail");
+    } catch (IllegalArgumentException e) {
+      // OK
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testTimeout() throws InterruptedException {
+    HashedWheelTimer timer = newTimer(8);
+    final CountDownLatch latch = new CountDownLatch(1);
+    long start = System.nanoTime();
+    Timeout timeout = timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 50, TimeUnit.MILLISECONDS);
+    assertEquals(1, timer.getPendingCount());
+    latch.await();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(timeout.isExpired());
+    assertFalse(timeout.cancel());
+    assertEquals(0, timer.getPendingCount());
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void testMultipleRounds() throws InterruptedException {
+    // 4 buckets of 10ms, the timeouts need several rounds of the wheel
+    HashedWheelTimer timer = newTimer(4);
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch latch = new CountDownLatch(3);
+    long start = System.nanoTime();
+    int[] delays = {150, 10, 90};
+    for (final int delay : delays) {
+      timer.newTimeout(new Runnable() {
+        @Override
+        public void run() {
+          order.add(delay);
+          latch.countDown();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    latch.await();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    assertEquals(Arrays.asList(10, 90, 150), order);
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void testCancel() throws InterruptedException {
+    HashedWheelTimer timer = newTimer(8);
+    final AtomicBoolean ran = new AtomicBoolean();
+    Timeout timeout = timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    }, 50, TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    assertTrue(timeout.isCancelled());
+    assertEquals(0, timer.getPendingCount());
+    final CountDownLatch latch = new CountDownLatch(1);
+    timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 100, TimeUnit.MILLISECONDS);
+    latch.await();
+    assertFalse(ran.get());
+    assertFalse(timeout.isExpired());
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void testFailingTask() throws InterruptedException {
+    HashedWheelTimer timer = newTimer(8);
+    timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("expected");
+      }
+    }, 0, TimeUnit.MILLISECONDS);
+    final CountDownLatch latch = new CountDownLatch(1);
+    timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 30, TimeUnit.MILLISECONDS);
+    latch.await();
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void testStop() throws InterruptedException {
+    final List<Thread> threads = new ArrayList<>();
+    HashedWheelTimer timer = new HashedWheelTimer(new NamedThreadFactory("test", true) {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = super.newThread(runnable);
+        threads.add(thread);
+        return thread;
+      }
+    }, 10, TimeUnit.MILLISECONDS, 8);
+    final AtomicBoolean ran = new AtomicBoolean();
+    timer.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    }, 1, TimeUnit.SECONDS);
+    timer.stop();
+    threads.get(0).join();
+    assertFalse(ran.get());
+    assertEquals(0, timer.getPendingCount());
+    try {
+      timer.newTimeout(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, 1, TimeUnit.SECONDS);
+      fail("Should fail");
+    } catch (IllegalStateException e) {
+      // OK
+    }
+  }
+
+  private static HashedWheelTimer newTimer(int ticksPerWheel) {
+    return new HashedWheelTimer(new NamedThreadFactory("test", true), 10, TimeUnit.MILLISECONDS,
+        ticksPerWheel);
+  }
+}